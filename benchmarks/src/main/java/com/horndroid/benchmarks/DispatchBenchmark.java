@@ -0,0 +1,81 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 TU Wien
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.horndroid.benchmarks;
+
+import com.horndroid.Options;
+import com.horndroid.analysis.Analysis;
+import com.horndroid.analysis.Dispatch;
+import com.horndroid.analysis.DispatchResult;
+import com.horndroid.util.Utils.CallType;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Dispatch.dispatch of a call into the synthetic program and of a call to a method outside of it
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DispatchBenchmark {
+
+    private static final String UNKNOWN_CLASS = "Landroid/telephony/TelephonyManager;";
+    private static final String UNKNOWN_METHOD = "getDeviceId()Ljava/lang/String;";
+
+    @Param({"16", "256"})
+    public int classes;
+
+    private Analysis analysis;
+    private Dispatch dispatch;
+    private String className;
+    private String methodName;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        analysis = new SyntheticProgram(classes, 4, 4, 1, 1).analyse(new Options());
+        dispatch = analysis.makeDispatch();
+        className = SyntheticProgram.classType(classes / 2);
+        methodName = SyntheticProgram.methodDescriptor(1);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        analysis.getFSEngine().getContext().dispose();
+    }
+
+    @Benchmark
+    public DispatchResult dispatchKnown() {
+        return dispatch.dispatch(className.hashCode(), methodName.hashCode(), className, methodName, CallType.VIRTUAL);
+    }
+
+    @Benchmark
+    public DispatchResult dispatchUnknown() {
+        return dispatch.dispatch(UNKNOWN_CLASS.hashCode(), UNKNOWN_METHOD.hashCode(), UNKNOWN_CLASS, UNKNOWN_METHOD,
+                CallType.VIRTUAL);
+    }
+}
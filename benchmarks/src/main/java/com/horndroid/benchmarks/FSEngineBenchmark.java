@@ -0,0 +1,110 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 TU Wien
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.horndroid.benchmarks;
+
+import com.horndroid.Options;
+import com.horndroid.analysis.AllocationTable;
+import com.horndroid.z3.FSEngine;
+import com.microsoft.z3.BitVecExpr;
+import com.microsoft.z3.BoolExpr;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * FSEngine.rPred (and through it getExpressions) for unchanged and updated register / local heap maps
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FSEngineBenchmark {
+
+    private static final int FIELDS = 3;
+    /* one fixed pc, so every call looks up the same relation instead of declaring a new one */
+    private static final int PC = 0;
+
+    @Param({"0", "16", "64"})
+    public int allocationSites;
+
+    @Param({"8", "32"})
+    public int registers;
+
+    private FSEngine fsengine;
+
+    private final Map<Integer, BitVecExpr> emptyValues = new HashMap<>();
+    private final Map<Integer, BoolExpr> emptyLabels = new HashMap<>();
+    private Map<Integer, BitVecExpr> values;
+    private Map<Integer, BoolExpr> labels;
+    private Map<Integer, BitVecExpr> lhValues;
+    private Map<Integer, BoolExpr> lhLabels;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        final Options options = new Options();
+        fsengine = new FSEngine(options);
+        final AllocationTable allocationTable = new AllocationTable(allocationSites);
+        final int[] fields = new int[FIELDS];
+        for (int f = 0; f < FIELDS; f++) {
+            fields[f] = f;
+        }
+        for (int a = 0; a < allocationSites; a++) {
+            allocationTable.add(a, "LC;", "LC;", "m()V", a, fields);
+        }
+        fsengine.initialize(allocationTable);
+
+        values = new HashMap<>();
+        labels = new HashMap<>();
+        values.put(0, fsengine.mkBitVector(1, options.bitvectorSize));
+        labels.put(0, fsengine.mkTrue());
+        lhValues = new HashMap<>();
+        lhLabels = new HashMap<>();
+        if (allocationSites > 0) {
+            lhValues.put(0, fsengine.mkBitVector(1, options.bitvectorSize));
+            lhLabels.put(0, fsengine.mkTrue());
+        }
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() {
+        fsengine.getContext().dispose();
+    }
+
+    @Benchmark
+    public BoolExpr rPredUnchanged() {
+        return fsengine.rPred("1", "2", PC, emptyValues, emptyLabels, emptyLabels, emptyLabels,
+                emptyValues, emptyLabels, emptyLabels, emptyLabels, emptyLabels, 1, registers);
+    }
+
+    @Benchmark
+    public BoolExpr rPredUpdated() {
+        return fsengine.rPred("1", "2", PC, values, labels, labels, labels,
+                lhValues, lhLabels, lhLabels, lhLabels, lhLabels, 1, registers);
+    }
+}
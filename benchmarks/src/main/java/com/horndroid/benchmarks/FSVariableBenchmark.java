@@ -0,0 +1,82 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 TU Wien
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.horndroid.benchmarks;
+
+import com.horndroid.Options;
+import com.horndroid.analysis.AllocationTable;
+import com.horndroid.z3.FSEngine;
+import com.horndroid.z3.FSVariable;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Register and local heap variable lookups of FSVariable
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FSVariableBenchmark {
+
+    private static final int REGISTERS = 32;
+    private static final int LOCAL_HEAP = 64;
+
+    private FSEngine fsengine;
+    private FSVariable fsvar;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        fsengine = new FSEngine(new Options());
+        final AllocationTable allocationTable = new AllocationTable();
+        for (int a = 0; a < LOCAL_HEAP / 2; a++) {
+            allocationTable.add(a, "LC;", "LC;", "m()V", a, new int[]{0});
+        }
+        fsengine.initialize(allocationTable);
+        fsvar = fsengine.getVars();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        fsengine.getContext().dispose();
+    }
+
+    @Benchmark
+    public void getV(Blackhole blackhole) {
+        for (int i = 0; i < REGISTERS; i++) {
+            blackhole.consume(fsvar.getV(i));
+        }
+    }
+
+    @Benchmark
+    public void getLHV(Blackhole blackhole) {
+        for (int i = 0; i < LOCAL_HEAP; i++) {
+            blackhole.consume(fsvar.getLHV(i));
+        }
+    }
+}
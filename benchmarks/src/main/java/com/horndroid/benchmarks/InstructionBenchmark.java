@@ -0,0 +1,105 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 TU Wien
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.horndroid.benchmarks;
+
+import com.horndroid.Dalvik.DalvikClass;
+import com.horndroid.Dalvik.DalvikMethod;
+import com.horndroid.Options;
+import com.horndroid.analysis.Analysis;
+import com.horndroid.analysis.FSInstructionAnalysis;
+import com.horndroid.util.StringPair;
+import org.jf.dexlib2.Opcode;
+import org.jf.dexlib2.iface.instruction.Instruction;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * FSInstructionAnalysis.CreateHornClauses for one representative instruction of the synthetic program
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InstructionBenchmark {
+
+    @Param({"MOVE_OBJECT", "NEW_INSTANCE", "IPUT_OBJECT", "IGET_OBJECT", "INVOKE_VIRTUAL", "MOVE_RESULT_OBJECT",
+            "RETURN_OBJECT", "CONST_STRING", "INVOKE_STATIC"})
+    public String opcode;
+
+    private Options options;
+    private Analysis analysis;
+    private DalvikClass dc;
+    private DalvikMethod dm;
+    private Instruction instruction;
+    private int codeAddress;
+    private Set<StringPair> apkClassesMethods;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        final SyntheticProgram program = new SyntheticProgram(4, 4, 4, 2, 2);
+        options = new Options();
+        analysis = program.analyse(options);
+
+        final String type = SyntheticProgram.classType(0);
+        final String method = opcode.equals("CONST_STRING") || opcode.equals("INVOKE_STATIC")
+                ? SyntheticProgram.ON_CREATE : SyntheticProgram.methodDescriptor(0);
+        dc = (DalvikClass) analysis.getGeneralClass(type.hashCode());
+        dm = analysis.getExactMethod(type.hashCode(), method.hashCode());
+        apkClassesMethods = new HashSet<StringPair>();
+        for (DalvikMethod m : dc.getMethods()) {
+            apkClassesMethods.add(new StringPair(type, m.getName()));
+        }
+
+        final Opcode target = Opcode.valueOf(opcode);
+        int address = 0;
+        instruction = null;
+        for (Instruction i : dm.getInstructions()) {
+            if (i.getOpcode() == target) {
+                instruction = i;
+                codeAddress = address;
+                break;
+            }
+            address += i.getCodeUnits();
+        }
+        if (instruction == null) {
+            throw new RuntimeException("InstructionBenchmark: no " + opcode + " in " + type + ' ' + method);
+        }
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() {
+        analysis.getFSEngine().getContext().dispose();
+    }
+
+    @Benchmark
+    public void createHornClauses() {
+        new FSInstructionAnalysis(analysis, instruction, dc, dm, codeAddress).CreateHornClauses(options, apkClassesMethods);
+    }
+}
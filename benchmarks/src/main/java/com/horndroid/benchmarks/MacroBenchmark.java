@@ -0,0 +1,195 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 TU Wien
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.horndroid.benchmarks;
+
+import com.horndroid.Options;
+import com.horndroid.executors.HorndroidExecutor;
+import com.horndroid.model.Metrics;
+import com.horndroid.model.Report;
+import org.apache.commons.io.FileUtils;
+import org.jf.dexlib2.DexFileFactory;
+import org.jf.dexlib2.immutable.ImmutableDexFile;
+
+import java.io.*;
+import java.util.*;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * End-to-end runs of HorndroidExecutor over synthetic apks, apktool is bypassed with a generated manifest.
+ *
+ * run [label] appends one row per scenario, run and metric to results.csv (label defaults to the git commit);
+ * compare prints the median of each metric per label, one column per label.
+ * Must be started from the directory holding bin/ (SourcesAndSinks.txt, EntryPoints.txt), e.g. target/.
+ */
+public class MacroBenchmark {
+
+    private static final String RESULTS = "results.csv";
+    private static final int RUNS = 3;
+
+    private static final String[][] SCENARIOS = {
+            // name, classes, methods per class, call depth, allocation sites, leaks
+            {"small", "8", "4", "4", "2", "2"},
+            {"medium", "32", "8", "8", "4", "8"},
+            {"large", "128", "8", "16", "4", "32"},
+    };
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2 || !(args[0].equals("run") || args[0].equals("compare"))) {
+            System.err.println("usage: MacroBenchmark run <work-dir> [label] | compare <work-dir>");
+            System.exit(1);
+        }
+        final File workDir = new File(args[1]).getAbsoluteFile();
+        if (args[0].equals("run")) {
+            if (!new File("bin/SourcesAndSinks.txt").exists() || !new File("bin/EntryPoints.txt").exists()) {
+                throw new RuntimeException("MacroBenchmark: bin/SourcesAndSinks.txt and bin/EntryPoints.txt must be in the working directory");
+            }
+            run(workDir, args.length > 2 ? args[2] : gitCommit());
+        }
+        compare(new File(workDir, RESULTS));
+    }
+
+    private static void run(final File workDir, final String label) throws IOException {
+        final File results = new File(workDir, RESULTS);
+        for (String[] scenario : SCENARIOS) {
+            final String name = scenario[0];
+            final SyntheticProgram program = new SyntheticProgram(Integer.parseInt(scenario[1]),
+                    Integer.parseInt(scenario[2]), Integer.parseInt(scenario[3]), Integer.parseInt(scenario[4]),
+                    Integer.parseInt(scenario[5]));
+            final File apk = writeApk(program, workDir, name);
+            for (int r = 0; r < RUNS; r++) {
+                final Options options = new Options();
+                options.skipApktool = true;
+                final List<Report> reports = new HorndroidExecutor(options, apk.getPath()).execute();
+                for (Report report : reports) {
+                    appendMetrics(results, label, name, r, report.getMetrics());
+                }
+            }
+        }
+    }
+
+    /*
+     * workDir/name.apk holding classes.dex, and the manifest apktool would decode into workDir/name/apktool
+     */
+    private static File writeApk(final SyntheticProgram program, final File workDir, final String name) throws IOException {
+        final File dex = new File(workDir, name + ".dex");
+        final File apk = new File(workDir, name + ".apk");
+        FileUtils.forceMkdir(workDir);
+        DexFileFactory.writeDexFile(dex.getPath(), new ImmutableDexFile(program.getClassDefs()));
+        try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(apk))) {
+            out.putNextEntry(new ZipEntry("classes.dex"));
+            FileUtils.copyFile(dex, out);
+            out.closeEntry();
+        }
+        FileUtils.forceDelete(dex);
+
+        final String activity = SyntheticProgram.PACKAGE.substring(1).replace('/', '.') + SyntheticProgram.LAUNCHER;
+        FileUtils.writeStringToFile(new File(workDir, name + "/apktool/AndroidManifest.xml"),
+                "<?xml version=\"1.0\" encoding=\"utf-8\"?>\n"
+                        + "<manifest xmlns:android=\"http://schemas.android.com/apk/res/android\" package=\"com.horndroid.synthetic\">\n"
+                        + "  <application>\n"
+                        + "    <activity android:name=\"" + activity + "\">\n"
+                        + "      <intent-filter>\n"
+                        + "        <action android:name=\"android.intent.action.MAIN\"/>\n"
+                        + "        <category android:name=\"android.intent.category.LAUNCHER\"/>\n"
+                        + "      </intent-filter>\n"
+                        + "    </activity>\n"
+                        + "  </application>\n"
+                        + "</manifest>\n");
+        return apk;
+    }
+
+    private static void appendMetrics(final File results, final String label, final String scenario, final int run,
+                                      final Metrics metrics) throws IOException {
+        final StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, Long> phase : metrics.getPhaseDurations().entrySet()) {
+            sb.append(row(label, scenario, run, phase.getKey() + "_ms", phase.getValue()));
+        }
+        for (Map.Entry<String, Long> phase : metrics.getPhaseHeapBytes().entrySet()) {
+            sb.append(row(label, scenario, run, phase.getKey() + "_heap_mb", phase.getValue() >> 20));
+        }
+        for (Map.Entry<String, Long> counter : metrics.getCounters().entrySet()) {
+            sb.append(row(label, scenario, run, counter.getKey(), counter.getValue()));
+        }
+        sb.append(row(label, scenario, run, "peak_heap_mb", metrics.getPeakHeapBytes() >> 20));
+        FileUtils.writeStringToFile(results, sb.toString(), true);
+    }
+
+    private static String row(final String label, final String scenario, final int run, final String metric, final long value) {
+        return label + ',' + scenario + ',' + run + ',' + metric + ',' + value + '\n';
+    }
+
+    /*
+     * Table of the median of every (scenario, metric) per label, labels in order of first appearance
+     */
+    private static void compare(final File results) throws IOException {
+        final List<String> labels = new ArrayList<String>();
+        final Map<String, Map<String, List<Long>>> values = new TreeMap<String, Map<String, List<Long>>>();
+        for (String line : FileUtils.readLines(results)) {
+            final String[] parts = line.split(",");
+            if (parts.length != 5) continue;
+            if (!labels.contains(parts[0])) labels.add(parts[0]);
+            final String key = parts[1] + ' ' + parts[3];
+            if (!values.containsKey(key)) values.put(key, new HashMap<String, List<Long>>());
+            final Map<String, List<Long>> perLabel = values.get(key);
+            if (!perLabel.containsKey(parts[0])) perLabel.put(parts[0], new ArrayList<Long>());
+            perLabel.get(parts[0]).add(Long.parseLong(parts[4]));
+        }
+        final StringBuilder sb = new StringBuilder(String.format("%-40s", "scenario metric"));
+        for (String label : labels) {
+            sb.append(String.format("%14s", label));
+        }
+        sb.append('\n');
+        for (Map.Entry<String, Map<String, List<Long>>> entry : values.entrySet()) {
+            sb.append(String.format("%-40s", entry.getKey()));
+            for (String label : labels) {
+                final List<Long> runs = entry.getValue().get(label);
+                if (runs == null) {
+                    sb.append(String.format("%14s", "-"));
+                } else {
+                    Collections.sort(runs);
+                    sb.append(String.format("%14d", runs.get(runs.size() / 2)));
+                }
+            }
+            sb.append('\n');
+        }
+        System.out.print(sb);
+    }
+
+    private static String gitCommit() {
+        try {
+            final Process process = new ProcessBuilder("git", "rev-parse", "--short", "HEAD").start();
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+                final String commit = reader.readLine();
+                if (process.waitFor() == 0 && commit != null) {
+                    return commit;
+                }
+            }
+        } catch (IOException | InterruptedException e) {
+            // fall through
+        }
+        return "current";
+    }
+}
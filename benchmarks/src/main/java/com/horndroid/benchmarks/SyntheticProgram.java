@@ -0,0 +1,194 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 TU Wien
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.horndroid.benchmarks;
+
+import com.google.common.collect.ImmutableList;
+import com.horndroid.Options;
+import com.horndroid.analysis.Analysis;
+import com.horndroid.analysis.Stubs;
+import com.horndroid.util.SourcesSinks;
+import com.horndroid.z3.FSEngine;
+import org.jf.dexlib2.AccessFlags;
+import org.jf.dexlib2.Opcode;
+import org.jf.dexlib2.iface.ClassDef;
+import org.jf.dexlib2.iface.instruction.Instruction;
+import org.jf.dexlib2.immutable.ImmutableClassDef;
+import org.jf.dexlib2.immutable.ImmutableField;
+import org.jf.dexlib2.immutable.ImmutableMethod;
+import org.jf.dexlib2.immutable.ImmutableMethodImplementation;
+import org.jf.dexlib2.immutable.ImmutableMethodParameter;
+import org.jf.dexlib2.immutable.instruction.*;
+import org.jf.dexlib2.immutable.reference.ImmutableFieldReference;
+import org.jf.dexlib2.immutable.reference.ImmutableMethodReference;
+import org.jf.dexlib2.immutable.reference.ImmutableStringReference;
+import org.jf.dexlib2.immutable.reference.ImmutableTypeReference;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Synthetic program of controllable size, built with the dexlib2 immutable classes.
+ *
+ * Class C0 is the launcher activity, its onCreate reads the device id (source) once per leak, passes it down a
+ * chain of callDepth methods and logs the result (sink). Every method m(String)String stores its argument into
+ * allocationSites fresh objects, reads it back and calls the next method of its chain.
+ */
+public class SyntheticProgram {
+
+    public static final String PACKAGE = "Lcom/horndroid/synthetic/";
+    public static final String LAUNCHER = "C0";
+    public static final String ON_CREATE = "onCreate(Landroid/os/Bundle;)V";
+
+    private static final String STRING = "Ljava/lang/String;";
+    private static final String OBJECT = "Ljava/lang/Object;";
+    private static final String SOURCE_CLASS = "Landroid/telephony/TelephonyManager;";
+    private static final String SINK_CLASS = "Landroid/util/Log;";
+    private static final int REGISTERS = 5; // v0 - v2 locals, v3 this, v4 argument
+
+    private final int classes;
+    private final int methodsPerClass;
+    private final int callDepth;
+    private final int allocationSites;
+    private final int leaks;
+
+    public SyntheticProgram(final int classes, final int methodsPerClass, final int callDepth,
+                            final int allocationSites, final int leaks) {
+        if (classes < 1 || methodsPerClass < 1 || callDepth < 1) {
+            throw new RuntimeException("SyntheticProgram: classes, methods per class and call depth must be positive");
+        }
+        this.classes = classes;
+        this.methodsPerClass = methodsPerClass;
+        this.callDepth = callDepth;
+        this.allocationSites = allocationSites;
+        this.leaks = leaks;
+    }
+
+    public static String classType(final int c) {
+        return PACKAGE + 'C' + c + ';';
+    }
+
+    public static String methodName(final int m) {
+        return "m" + m;
+    }
+
+    public static String methodDescriptor(final int m) {
+        return methodName(m) + '(' + STRING + ')' + STRING;
+    }
+
+    public List<ClassDef> getClassDefs() {
+        final List<ClassDef> classDefs = new ArrayList<ClassDef>();
+        for (int c = 0; c < classes; c++) {
+            final List<ImmutableMethod> methods = new ArrayList<ImmutableMethod>();
+            for (int m = 0; m < methodsPerClass; m++) {
+                methods.add(new ImmutableMethod(classType(c), methodName(m),
+                        ImmutableList.of(new ImmutableMethodParameter(STRING, null, null)), STRING,
+                        AccessFlags.PUBLIC.getValue(), null,
+                        new ImmutableMethodImplementation(REGISTERS, chainMethod(c, m), null, null)));
+            }
+            if (c == 0) {
+                methods.add(new ImmutableMethod(classType(c), "onCreate",
+                        ImmutableList.of(new ImmutableMethodParameter("Landroid/os/Bundle;", null, null)), "V",
+                        AccessFlags.PUBLIC.getValue(), null,
+                        new ImmutableMethodImplementation(REGISTERS, onCreate(), null, null)));
+            }
+            classDefs.add(new ImmutableClassDef(classType(c), AccessFlags.PUBLIC.getValue(),
+                    c == 0 ? "Landroid/app/Activity;" : OBJECT, null, null, null,
+                    ImmutableList.of(new ImmutableField(classType(c), "f", OBJECT, AccessFlags.PUBLIC.getValue(), null, null)),
+                    methods));
+        }
+        return classDefs;
+    }
+
+    private List<Instruction> chainMethod(final int c, final int m) {
+        final ImmutableFieldReference field = new ImmutableFieldReference(classType(c), "f", OBJECT);
+        final List<Instruction> instructions = new ArrayList<Instruction>();
+        instructions.add(new ImmutableInstruction12x(Opcode.MOVE_OBJECT, 1, 4));
+        for (int a = 0; a < allocationSites; a++) {
+            instructions.add(new ImmutableInstruction21c(Opcode.NEW_INSTANCE, 0, new ImmutableTypeReference(classType(c))));
+            instructions.add(new ImmutableInstruction22c(Opcode.IPUT_OBJECT, 4, 0, field));
+            instructions.add(new ImmutableInstruction22c(Opcode.IGET_OBJECT, 4, 0, field));
+        }
+        final int next = c * methodsPerClass + m + 1;
+        if (next % callDepth != 0 && next < classes * methodsPerClass) {
+            addCall(instructions, next, 4);
+        }
+        instructions.add(new ImmutableInstruction11x(Opcode.RETURN_OBJECT, 4));
+        return instructions;
+    }
+
+    private List<Instruction> onCreate() {
+        final List<Instruction> instructions = new ArrayList<Instruction>();
+        final int chains = (classes * methodsPerClass + callDepth - 1) / callDepth;
+        for (int l = 0; l < leaks; l++) {
+            instructions.add(new ImmutableInstruction11n(Opcode.CONST_4, 0, 0));
+            instructions.add(new ImmutableInstruction35c(Opcode.INVOKE_VIRTUAL, 1, 0, 0, 0, 0, 0,
+                    new ImmutableMethodReference(SOURCE_CLASS, "getDeviceId", ImmutableList.<String>of(), STRING)));
+            instructions.add(new ImmutableInstruction11x(Opcode.MOVE_RESULT_OBJECT, 1));
+            addCall(instructions, (l % chains) * callDepth, 1);
+            instructions.add(new ImmutableInstruction21c(Opcode.CONST_STRING, 0, new ImmutableStringReference("horndroid")));
+            instructions.add(new ImmutableInstruction35c(Opcode.INVOKE_STATIC, 2, 0, 1, 0, 0, 0,
+                    new ImmutableMethodReference(SINK_CLASS, "i", ImmutableList.of(STRING, STRING), "I")));
+        }
+        instructions.add(new ImmutableInstruction10x(Opcode.RETURN_VOID));
+        return instructions;
+    }
+
+    /*
+     * register = callee(register) on a fresh receiver stored in v2
+     */
+    private void addCall(final List<Instruction> instructions, final int callee, final int register) {
+        final int c = callee / methodsPerClass;
+        final int m = callee % methodsPerClass;
+        instructions.add(new ImmutableInstruction21c(Opcode.NEW_INSTANCE, 2, new ImmutableTypeReference(classType(c))));
+        instructions.add(new ImmutableInstruction35c(Opcode.INVOKE_VIRTUAL, 2, 2, register, 0, 0, 0,
+                new ImmutableMethodReference(classType(c), methodName(m), ImmutableList.of(STRING), STRING)));
+        instructions.add(new ImmutableInstruction11x(Opcode.MOVE_RESULT_OBJECT, register));
+    }
+
+    public static SourcesSinks getSourcesSinks() {
+        return new SourcesSinks.Builder()
+                .method(SOURCE_CLASS, "getDeviceId", true)
+                .method(SINK_CLASS, "i", false)
+                .build();
+    }
+
+    /*
+     * Analysis of the program with its Horn clauses generated, the engine is reachable through getFSEngine()
+     */
+    public Analysis analyse(final Options options) {
+        final FSEngine fsengine = new FSEngine(options);
+        final ExecutorService executorService = Executors.newSingleThreadExecutor();
+        final Analysis analysis = new Analysis(fsengine, getSourcesSinks(), options, executorService, new Stubs(options));
+        analysis.putEntryPoint(classType(0).hashCode(), ON_CREATE.hashCode());
+        analysis.getLauncherActivities().add(LAUNCHER.hashCode());
+        analysis.collectDataFromApk(getClassDefs(), new HashSet<Integer>());
+        analysis.createHornClauses();
+        executorService.shutdown();
+        return analysis;
+    }
+}
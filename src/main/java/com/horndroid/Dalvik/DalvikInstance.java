@@ -26,6 +26,7 @@ package com.horndroid.Dalvik;
 
 public class DalvikInstance {
 	final private int c, m, pc;
+	final private int instanceNum; // hashCode(c, m, pc), computed once since it is asked for every generated clause
 	private GeneralClass type;
 	final boolean isObj;
 	final boolean isNewInstance; // instances can be created also as a result of method invocation (when we don;t know the implementation,
@@ -37,6 +38,7 @@ public class DalvikInstance {
 		this.c = c;
 		this.m = m;
 		this.pc = pc;
+		this.instanceNum = hashCode(c, m, pc);
 		this.type = type;
 		this.isObj = isObj;
 		this.isNewInstance = isNewInstance;
@@ -66,15 +68,49 @@ public class DalvikInstance {
 		this.type = type;
 	}
 	
+	/*
+	 * Same allocation site (c, m, pc), regardless of the type and flags
+	 */
+	public boolean sameSite(final DalvikInstance other){
+		return c == other.c && m == other.m && pc == other.pc;
+	}
+
+	/*
+	 * Two instances are equal when they come from the same allocation site with the same type and flags,
+	 * the hashcode only depends on the site so that changeType does not move an instance inside a hash set
+	 */
+	@Override
+	public boolean equals(final Object o){
+		if (this == o) return true;
+		if (!(o instanceof DalvikInstance)) return false;
+		final DalvikInstance other = (DalvikInstance) o;
+		if (instanceNum != other.instanceNum || !sameSite(other)) return false;
+		if (isObj != other.isObj || isNewInstance != other.isNewInstance) return false;
+		if (type == other.type) return true;
+		return type != null && other.type != null && type.getType().equals(other.type.getType());
+	}
+
 	/*
 	 * Return the an hashcode, which depends only on c,m and pc
 	 */
     @Override
 	public int hashCode(){
-        return (c + "_" + m + "_" + pc).hashCode();
+        return instanceNum;
     }
-    
+
+    /*
+     * Allocation-free mix of the packed site: (c, m) fill a long, pc is folded in with a multiplicative step
+     * and the result goes through the 64 bit finalizer of MurmurHash3 so that the low bits, which are the
+     * ones kept by a narrow bitvector, depend on all of c, m and pc
+     */
     static public int hashCode(int c, int m, int pc){
-        return (c + "_" + m + "_" + pc).hashCode();
+        long k = ((long) c << 32) | (m & 0xffffffffL);
+        k = k * 0x9E3779B97F4A7C15L + pc;
+        k ^= k >>> 33;
+        k *= 0xff51afd7ed558ccdL;
+        k ^= k >>> 33;
+        k *= 0xc4ceb9fe1a85ec53L;
+        k ^= k >>> 33;
+        return (int) k;
     }
 }
@@ -24,6 +24,9 @@
 
 package com.horndroid.Dalvik;
 
+import java.lang.ref.SoftReference;
+
+import org.jf.dexlib2.iface.MethodImplementation;
 import org.jf.dexlib2.iface.instruction.Instruction;
 
 import com.google.common.collect.ImmutableList;
@@ -34,15 +37,16 @@ public class DalvikMethod {
 	final private int numReg;
 	final private String returnType;
 	final private boolean isVoid;
-	final private ImmutableList<Instruction> instructions;
+	final private MethodImplementation implementation; // the instructions are decoded from it when they are asked for
+	private volatile SoftReference<ImmutableList<Instruction>> instructions = null; // last decoded instructions
 	
-	public DalvikMethod(final String name, final int numArg, final int numReg, final String returnType, final boolean isVoid, final ImmutableList<Instruction> instructions){
+	public DalvikMethod(final String name, final int numArg, final int numReg, final String returnType, final boolean isVoid, final MethodImplementation implementation){
 		this.name = name;
 		this.numArg = numArg;
 		this.numReg = numReg;
 		this.returnType = returnType;
 		this.isVoid = isVoid;
-		this.instructions = instructions;
+		this.implementation = implementation;
 	}
 	public String getName(){
 		return name;
@@ -59,7 +63,23 @@ public class DalvikMethod {
 	public boolean isVoid(){
 		return isVoid;
 	}
+	/*
+	 * Most of the methods of the Android stubs are never analysed, so the instructions are not kept for the whole
+	 * analysis: a dex-backed implementation decodes them from the dex file, and the decoded list is only softly
+	 * reachable so that the collector can drop it and the next call decodes it again
+	 */
 	public ImmutableList<Instruction> getInstructions(){
-		return instructions;
+		final SoftReference<ImmutableList<Instruction>> cached = instructions;
+		ImmutableList<Instruction> result = cached == null ? null : cached.get();
+		if (result != null) {
+			return result;
+		}
+		final Iterable<? extends Instruction> source = implementation.getInstructions();
+		result = ImmutableList.copyOf(source);
+		if (!(source instanceof ImmutableList)) {
+			// an ImmutableList (e.g. of an ImmutableMethodImplementation) is already in memory, nothing to cache
+			instructions = new SoftReference<ImmutableList<Instruction>>(result);
+		}
+		return result;
 	}
 }
@@ -23,59 +23,50 @@
  */
 
 package com.horndroid.Dalvik;
-import java.util.HashSet;
-import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
+
+import com.horndroid.util.IntSetMultimap;
 
 /*
  * Class used to store the Analysis DalvikInstances
  * The instances are indexed by the hashcode of the type's name string for efficiency reasons
  */
 public class Instances {
-    final private Map<Integer,HashSet<DalvikInstance>> instances;
+    final private IntSetMultimap<DalvikInstance> instances;
     
     public Instances(){
-        instances = new ConcurrentHashMap<Integer,HashSet<DalvikInstance>>();
+        instances = new IntSetMultimap<DalvikInstance>();
     }
     
     /*
      * Add the element to the set of instances
      */
     public void add(DalvikInstance di){
-        int key = di.getType().getType().hashCode();
-        if (!instances.containsKey(key)){
-            instances.put(key,new HashSet<DalvikInstance>());
-        }
-        instances.get(key).add(di);
+        instances.put(di.getType().getType().hashCode(), di);
+    }
+    
+    public boolean contains(DalvikInstance di){
+        return instances.contains(di.getType().getType().hashCode(), di);
     }
     
-    public HashSet<DalvikInstance> getByType(final int c){
+    public Set<DalvikInstance> getByType(final int c){
         return instances.get(c);
     }
     
-//    public Map<Integer,HashSet<DalvikInstance>> get(){
-//        return (Map<Integer,HashSet<DalvikInstance>>) instances;
-//    }
-//  
     /*
-     * Give a Set view of all instances. This operation may be a bit costly, and should be avoided as much as possible
+     * All the instances, read in place: an instance added during the iteration may or may not be seen
      */
-    public Set<DalvikInstance> getAllOnce(){
-        HashSet<DalvikInstance> hset = new HashSet<DalvikInstance>();
-        for (int hc : instances.keySet()){
-            hset.addAll(instances.get(hc));
-        }
-        return hset;
+    public Iterable<DalvikInstance> getAll(){
+        return instances.values();
     }
 
     /*
      * Change the instance type to cd for all instances whose type name string is the same as the name string of cd.
      */
     public void changeType(DalvikClass cd) {
-        int key = cd.getType().hashCode();
-        if (instances.containsKey(key)){
-            for (DalvikInstance di: instances.get(key)){
+        final Set<DalvikInstance> typed = instances.get(cd.getType().hashCode());
+        if (typed != null){
+            for (DalvikInstance di: typed){
                 di.changeType(cd);
             }
         }
@@ -85,12 +76,7 @@ public class Instances {
      * Return the number of instances stored
      */
     public int size() {
-        int size = 0;
-        for (int key : instances.keySet()){
-            size += instances.get(key).size();
-        }
-        return size;
-        
+        return instances.size();
     }
     
 //   /*
@@ -24,7 +24,6 @@
 
 package com.horndroid;
 
-import com.horndroid.analysis.Stubs;
 import com.horndroid.exceptions.ReportWritingException;
 import com.horndroid.executors.HorndroidExecutor;
 import com.horndroid.model.Report;
@@ -54,7 +53,7 @@ public class Main {
         options.addOption("q", false, "precise query results");
         options.addOption("w", false, "sensitive array indexes");
         options.addOption("t", false, "load stubs");
-        options.addOption("n", true, "bitvector size (default 64)");
+        options.addOption("n", true, "bitvector size (default 64), 'auto' to select the narrowest width that represents the program");
         options.addOption("i", false, "flow insensitive heap");
         options.addOption("r", true, "number of queries");
         options.addOption("d", true, "print debugging information (argument: integer 1 - taint information, 2 - localheap, or 3 - global heap");
@@ -65,6 +64,24 @@ public class Main {
                 "number of classes that should be included together with the init class to the analysis" +
                 ")");
         options.addOption("u", false, "class filtering should be done sound, e.g., if a skipped method body contains a call to a sink it becomes a sink");
+        options.addOption("c", false, "per-method local heap: the relations of a method only carry the local heap entries it can use");
+        options.addOption("k", true, "local heap budget: only the K allocation sites closest to a sink are tracked flow-sensitively, the others are global (default: all)");
+        options.addOption("e", false, "schedule the queries by estimated cost (slice size, then call depth from the entry points), cheapest first");
+        options.addOption("b", true, "stop after the first N leaks are found");
+        options.addOption("v", false, "stop querying a sink call site after its first leak");
+        options.addOption("j", true, "number of parallel query workers (default 1)");
+        options.addOption("y", false, "merge the queries of a sink call site into one query");
+        options.addOption("z", false, "add the source to sink trace found by the solver to each potential leak");
+        options.addOption("C", "checkpoint", false, "write a checkpoint of the clauses and of the answered queries");
+        options.addOption("R", "resume", false, "continue from the checkpoint of a previous run, skipping clause generation");
+        options.addOption("E", "export", true, "only generate the clauses and write them to <directory>/<apk>.smt2");
+        options.addOption("I", "import", true, "answer the queries of <directory>/<apk>.smt2 instead of generating the clauses");
+        options.addOption("N", "incremental", true, "incremental analysis: reuse the clauses of the unchanged methods and the answers of the unaffected queries from the model of the previous version in <directory>/<package>");
+        options.addOption("S", "summary-cache", true, "reuse the clauses of library methods (outside the package of the manifest) across apks from the cache in <directory>");
+        options.addOption("P", "portfolio", true, "race each query on several fixedpoint engine configurations, e.g. pdr,datalog,pdr:use_farkas=false; the first definitive answer is kept");
+        options.addOption("B", "binary-report", false, "write the report in the compact binary format (<apk>.hdr), converted to JSON by com.horndroid.printers.ReportConverter");
+        options.addOption("a", false, "do not run apktool, reuse the manifest and layout files already decoded into <output>/apktool");
+        options.addOption("x", true, "slow query log: dump the queries taking more than the given milliseconds as SMT-LIB into <output>/slow-queries");
     }
 
     public static void main(String[] args) throws ReportWritingException {
@@ -85,24 +102,12 @@ public class Main {
     }
 
     private static void configuration() {
+        final String bitvectorSize = hornDroidOptions.autoBitvectorSize ? "automatic" : Integer.toString(hornDroidOptions.bitvectorSize);
         if (!hornDroidOptions.nfsanalysis){
-            LOGGER.info("Flow Sensitive Analysis on "+ hornDroidOptions.bitvectorSize + " bitvectors size");
+            LOGGER.info("Flow Sensitive Analysis on "+ bitvectorSize + " bitvectors size");
         }else{
-            LOGGER.info("Standard Analysis on "+ hornDroidOptions.bitvectorSize + " bitvectors size");
+            LOGGER.info("Standard Analysis on "+ bitvectorSize + " bitvectors size");
         }
-        /*Stubs stubs = new Stubs(hornDroidOptions);
-        if (hornDroidOptions.stubs) {
-            long startTimeA = System.nanoTime();
-            LOGGER.info("Loading Standard Java and Android libraries ...");
-            stubs.process();
-            long endTimeA = System.nanoTime();
-            LOGGER.info("done in "
-                    + Long.toString((endTimeA - startTimeA) / 1000000)
-                    + " milliseconds");
-        }
-        else{
-            System.out.println("Not Loading stubs!");
-        }*/
     }
 
     private static void display(List<Report> reports) throws ReportWritingException {
@@ -138,6 +143,30 @@ public class Main {
         }
 
         initializeOutputFile(otherArgs);
+        hornDroidOptions.reportDirectory = OUTPUT_FILE_PATH;
+        if (hornDroidOptions.autoBitvectorSize
+                && (hornDroidOptions.exportDirectory != null || hornDroidOptions.importDirectory != null)) {
+            LOGGER.info("Automatic bitvector size is not supported with --export and --import, using "
+                    + hornDroidOptions.bitvectorSize);
+            hornDroidOptions.autoBitvectorSize = false;
+        }
+        if (hornDroidOptions.incrementalDirectory != null
+                && (hornDroidOptions.resume || hornDroidOptions.exportDirectory != null
+                || hornDroidOptions.importDirectory != null || hornDroidOptions.debug
+                || hornDroidOptions.maxQueries != 0)) {
+            LOGGER.info("Incremental analysis is not supported with --resume, --export, --import, -d and -r, "
+                    + "analysing from scratch");
+            hornDroidOptions.incrementalDirectory = null;
+        }
+        if (hornDroidOptions.summaryCacheDirectory != null
+                && (hornDroidOptions.debug || hornDroidOptions.maxQueries != 0)) {
+            LOGGER.info("The summary cache is not supported with -d and -r");
+            hornDroidOptions.summaryCacheDirectory = null;
+        }
+        if (hornDroidOptions.portfolio != null && hornDroidOptions.queryWorkers > 1) {
+            LOGGER.info("The portfolio already answers each query in parallel, answering the queries one at a time");
+            hornDroidOptions.queryWorkers = 1;
+        }
     }
 
     private static String[] getProgramArguments(CommandLine commandLine) {
@@ -176,7 +205,59 @@ public class Main {
                     hornDroidOptions.sensIfHasSink = true;
                     break;
                 case 'n':
-                    hornDroidOptions.bitvectorSize = Integer.parseInt(commandLine.getOptionValue("n"));
+                    if (commandLine.getOptionValue("n").equals("auto")) {
+                        hornDroidOptions.autoBitvectorSize = true;
+                    } else {
+                        hornDroidOptions.bitvectorSize = Integer.parseInt(commandLine.getOptionValue("n"));
+                    }
+                    break;
+                case 'e':
+                    hornDroidOptions.scheduleQueries = true;
+                    break;
+                case 'b':
+                    hornDroidOptions.maxLeaks = Integer.parseInt(commandLine.getOptionValue("b"));
+                    break;
+                case 'v':
+                    hornDroidOptions.firstLeakPerSink = true;
+                    break;
+                case 'j':
+                    hornDroidOptions.queryWorkers = Integer.parseInt(commandLine.getOptionValue("j"));
+                    break;
+                case 'y':
+                    hornDroidOptions.mergeQueries = true;
+                    break;
+                case 'z':
+                    hornDroidOptions.witness = true;
+                    break;
+                case 'C':
+                    hornDroidOptions.checkpoint = true;
+                    break;
+                case 'R':
+                    hornDroidOptions.resume = true;
+                    break;
+                case 'E':
+                    hornDroidOptions.exportDirectory = commandLine.getOptionValue("E");
+                    break;
+                case 'I':
+                    hornDroidOptions.importDirectory = commandLine.getOptionValue("I");
+                    break;
+                case 'N':
+                    hornDroidOptions.incrementalDirectory = commandLine.getOptionValue("N");
+                    break;
+                case 'B':
+                    hornDroidOptions.binaryReport = true;
+                    break;
+                case 'S':
+                    hornDroidOptions.summaryCacheDirectory = commandLine.getOptionValue("S");
+                    break;
+                case 'P':
+                    hornDroidOptions.portfolio = commandLine.getOptionValue("P");
+                    break;
+                case 'a':
+                    hornDroidOptions.skipApktool = true;
+                    break;
+                case 'x':
+                    hornDroidOptions.slowQueryThreshold = Integer.parseInt(commandLine.getOptionValue("x"));
                     break;
                 case 'o':
                     hornDroidOptions.timeout= Integer.parseInt(commandLine.getOptionValue("o"));
@@ -204,6 +285,13 @@ public class Main {
                     break;
                 case 'u':
                     hornDroidOptions.filterClassesSound = true;
+                    break;
+                case 'c':
+                    hornDroidOptions.methodLocalHeap = true;
+                    break;
+                case 'k':
+                    hornDroidOptions.localHeapBudget = Integer.parseInt(commandLine.getOptionValue("k"));
+                    break;
             }
 
         }
@@ -235,8 +323,14 @@ public class Main {
     }
 
     private static void printReportToFile(Report report) throws ReportWritingException {
-        ReportPrinter printer = ReportWriterFactory.getReportToJsonPrinter();
-        printer.writeReportToFile(report, OUTPUT_FILE_PATH + "/" + report.getTag()+".json");
+        if (hornDroidOptions.binaryReport) {
+            ReportPrinter printer = ReportWriterFactory.getBinaryReportPrinter();
+            printer.writeReportToFile(report, OUTPUT_FILE_PATH + "/" + report.getTag()+".hdr");
+        } else {
+            ReportPrinter printer = ReportWriterFactory.getReportToJsonPrinter();
+            printer.writeReportToFile(report, OUTPUT_FILE_PATH + "/" + report.getTag()+".json");
+        }
+        ReportWriterFactory.getMetricsPrinter().writeReportToFile(report, OUTPUT_FILE_PATH + "/" + report.getTag()+".prom");
     }
 
     private static void printReportToConsole(Report report) throws ReportWritingException {
@@ -30,8 +30,18 @@ public class Options {
     public boolean debug = false;
     public boolean verboseResults = false;
     public String outputDirectory = "";
+    public boolean checkpoint = false; // checkpoint of the clauses and answers in <outputDirectory>/checkpoint
+    public boolean resume = false; // continue from the checkpoint instead of generating the clauses
+    public String exportDirectory = null; // generate the clauses into <exportDirectory>/<apk>.smt2 without solving
+    public String importDirectory = null; // answer the queries of <importDirectory>/<apk>.smt2 without generating
+    public String incrementalDirectory = null; // models of the previous versions of the apks, see IncrementalModel
+    public String summaryCacheDirectory = null; // clauses of library methods shared by the analyses, see SummaryCache
+    public boolean binaryReport = false; // write <tag>.hdr instead of <tag>.json, see BinaryReportPrinter
+    public String portfolio = null; // fixedpoint engine configurations raced on each query, see Portfolio
+    public String reportDirectory = null; // report entries are streamed to <reportDirectory>/<tag>.jsonl
     public int apiLevel = 15;
     public int bitvectorSize = 64;
+    public boolean autoBitvectorSize = false;
     public int maxQueries = 0;
     public int debugInt = 3;
     public boolean stubs = false;
@@ -44,4 +54,14 @@ public class Options {
     public boolean nopUnknown = false;
     public int filterClasses = 0;
     public boolean filterClassesSound = false;
+    public int localHeapBudget = 0;
+    public boolean methodLocalHeap = false;
+    public int slowQueryThreshold = 0; // milliseconds, 0 disables the slow query log
+    public boolean scheduleQueries = false; // cheapest queries first
+    public int maxLeaks = 0; // stop after this many leaks, 0 runs all queries
+    public boolean firstLeakPerSink = false; // stop querying a sink call site after its first leak
+    public int queryWorkers = 1;
+    public boolean mergeQueries = false; // one disjunctive query per sink call site
+    public boolean witness = false; // source to sink trace of the leaks in the report
+    public boolean skipApktool = false; // reuse the files already decoded into <output>/apktool
 }
\ No newline at end of file
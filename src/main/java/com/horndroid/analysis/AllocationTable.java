@@ -0,0 +1,185 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 TU Wien
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.horndroid.analysis;
+
+import com.horndroid.util.IntIntHashMap;
+
+import java.util.Arrays;
+
+/*
+ * Metadata of the allocation points tracked on the local heap, stored as parallel arrays indexed by the
+ * dense allocation number (0 .. size() - 1).
+ * The instance number (DalvikInstance.hashCode) is mapped to its allocation number by a single primitive map.
+ */
+public class AllocationTable {
+    private final IntIntHashMap numbers;
+
+    private int size;
+    private int heapSize;
+    private int[] instanceNums;
+    private int[] offsets;
+    private int[] sizes;
+    private int[] pcs;
+    private String[] classes;
+    private String[] classesDebug;
+    private String[] methods;
+    private int[][] fields; // sorted hash codes of the fields of the allocated class, null if the class has no field map
+
+    public AllocationTable(){
+        this(16);
+    }
+
+    public AllocationTable(final int expectedSize){
+        final int capacity = Math.max(expectedSize, 1);
+        this.numbers = new IntIntHashMap(capacity, -1);
+        this.size = 0;
+        this.heapSize = 0;
+        this.instanceNums = new int[capacity];
+        this.offsets = new int[capacity];
+        this.sizes = new int[capacity];
+        this.pcs = new int[capacity];
+        this.classes = new String[capacity];
+        this.classesDebug = new String[capacity];
+        this.methods = new String[capacity];
+        this.fields = new int[capacity][];
+    }
+
+    /*
+     * Append an allocation point; its local heap entries start right after the ones of the previous allocation point.
+     * 'fieldIds' must be sorted, one local heap entry is reserved for each field plus one for the object itself.
+     * 'fieldIds' is null when Analysis.getClassFields found no fields, which is lifted differently from an empty map.
+     * Return the allocation number.
+     */
+    public int add(final int instanceNum, final String className, final String classNameDebug, final String methodName,
+                   final int pc, final int[] fieldIds){
+        if (numbers.containsKey(instanceNum)){
+            throw new RuntimeException("AllocationTable: allocation point added twice " + instanceNum);
+        }
+        if (size == instanceNums.length){
+            grow(size << 1);
+        }
+        final int n = size;
+        instanceNums[n] = instanceNum;
+        offsets[n] = heapSize;
+        final int fieldCount = fieldIds == null ? 0 : fieldIds.length;
+        sizes[n] = fieldCount;
+        pcs[n] = pc;
+        classes[n] = className;
+        classesDebug[n] = classNameDebug;
+        methods[n] = methodName;
+        fields[n] = fieldIds;
+        numbers.put(instanceNum, n);
+        heapSize += fieldCount + 1;
+        size++;
+        return n;
+    }
+
+    private void grow(final int capacity){
+        instanceNums = Arrays.copyOf(instanceNums, capacity);
+        offsets = Arrays.copyOf(offsets, capacity);
+        sizes = Arrays.copyOf(sizes, capacity);
+        pcs = Arrays.copyOf(pcs, capacity);
+        classes = Arrays.copyOf(classes, capacity);
+        classesDebug = Arrays.copyOf(classesDebug, capacity);
+        methods = Arrays.copyOf(methods, capacity);
+        fields = Arrays.copyOf(fields, capacity);
+    }
+
+    /*
+     * Return the allocation number of instanceNum, or -1 if it is not tracked on the local heap
+     */
+    public int indexOf(final int instanceNum){
+        return numbers.get(instanceNum);
+    }
+
+    public boolean contains(final int instanceNum){
+        return numbers.containsKey(instanceNum);
+    }
+
+    /*
+     * Number of allocation points
+     */
+    public int size(){
+        return size;
+    }
+
+    /*
+     * Number of local heap entries used by all the allocation points
+     */
+    public int getHeapSize(){
+        return heapSize;
+    }
+
+    /*
+     * Instance numbers of all allocation points, in allocation number order
+     */
+    public int[] getInstanceNums(){
+        return Arrays.copyOf(instanceNums, size);
+    }
+
+    public int getInstanceNum(final int n){
+        return instanceNums[n];
+    }
+
+    public int getOffset(final int n){
+        return offsets[n];
+    }
+
+    public int getSize(final int n){
+        return sizes[n];
+    }
+
+    public int getPC(final int n){
+        return pcs[n];
+    }
+
+    public String getClassName(final int n){
+        return classes[n];
+    }
+
+    public String getClassNameDebug(final int n){
+        return classesDebug[n];
+    }
+
+    public String getMethodName(final int n){
+        return methods[n];
+    }
+
+    /*
+     * Sorted hash codes of the fields of the allocation point n, or null if its class has no field map
+     */
+    public int[] getFields(final int n){
+        return fields[n];
+    }
+
+    /*
+     * Return the position of the field among the fields of the allocation point n, or -1 if the class has no such field
+     */
+    public int getFieldPosition(final int n, final int field){
+        if (fields[n] == null) return -1;
+        final int pos = Arrays.binarySearch(fields[n], field);
+        return pos >= 0 ? pos : -1;
+    }
+}
@@ -24,6 +24,8 @@
 
 package com.horndroid.analysis;
 
+import com.google.common.base.Predicate;
+import com.google.common.collect.Iterables;
 import com.horndroid.Dalvik.*;
 import com.horndroid.Options;
 import com.horndroid.payload.ArrayData;
@@ -73,6 +75,7 @@ public class Analysis {
     final private Set<Integer> overapprox;
     final private SourcesSinks sourcesSinks;
     final private Options options;
+    final private StubRegistry stubRegistry = new StubRegistry(this);
     final private FSEngine fsengine;
     final private FSVariable fsvar;
     final private Stubs stubs;
@@ -82,14 +85,7 @@ public class Analysis {
     private final Set<Integer> staticConstructor;
     private Set<CMPair> refSources;
     private Set<CMPair> refSinks;
-    private Map<Integer, Integer> allocationPointNumbers = new HashMap<Integer, Integer>();
-    private Map<Integer, Integer> allocationPointNumbersReverse = new HashMap<Integer, Integer>();
-    private Map<Integer, Integer> allocationPointSize = new HashMap<Integer, Integer>();
-    private Map<Integer, Integer> allocationPointOffset = new HashMap<Integer, Integer>();
-    private Map<Integer, String> allocationPointClass = new HashMap<Integer, String>();
-    private Map<Integer, String> allocationPointClassDebug = new HashMap<Integer, String>();
-    private Map<Integer, String> allocationPointMethod = new HashMap<Integer, String>();
-    private Map<Integer, Integer> allocationPointPC = new HashMap<Integer, Integer>();
+    private AllocationTable allocationTable = new AllocationTable();
 
     private Interfaces interfaces = new Interfaces();
 
@@ -98,6 +94,9 @@ public class Analysis {
     private HashSet<StringPair> apkClassesMethods;
 
     private Set<Integer> methodHasSink;
+    private Map<String, int[]> methodLocalHeap; // c_m -> local heap entries, with -c
+    private MethodFingerprints fingerprints; // with -N
+    private String packageName;
 
     public Analysis(final FSEngine fsengine,
                     final SourcesSinks sourcesSinks, final Options options, final ExecutorService instructionExecutorService,
@@ -234,8 +233,8 @@ public class Analysis {
         return fsengine;
     }
 
-    public Set<Integer> getAllocationPoints() {
-        return allocationPointOffset.keySet();
+    public int[] getAllocationPoints() {
+        return allocationTable.getInstanceNums();
     }
 
     /*
@@ -352,9 +351,9 @@ public class Analysis {
         // Induction case: there is one rule for each field of each object in the local heap
         BoolExpr h = fsengine.reachLHPred(fsvar.getVal(), fsvar.getVfp(), lHValues, lHLocal);
         for (int entry = 0; entry < localHeapNumberEntries; entry++) {
-            int instanceNum = allocationPointNumbersReverse.get(entry);
-            int offset = allocationPointOffset.get(instanceNum);
-            int entrySize = allocationPointSize.get(instanceNum);
+            int instanceNum = allocationTable.getInstanceNum(entry);
+            int offset = allocationTable.getOffset(entry);
+            int entrySize = allocationTable.getSize(entry);
             for (int fieldNum = offset; fieldNum <= offset + entrySize; fieldNum++) {
                 BoolExpr hh = fsengine.and(
                         h,
@@ -392,9 +391,9 @@ public class Analysis {
                 fsvar.getBf()
         );
         for (int entry = 0; entry < localHeapNumberEntries; entry++) {
-            int instanceNum = allocationPointNumbersReverse.get(entry);
-            int offset = allocationPointOffset.get(instanceNum);
-            int entrySize = allocationPointSize.get(instanceNum);
+            int instanceNum = allocationTable.getInstanceNum(entry);
+            int offset = allocationTable.getOffset(entry);
+            int entrySize = allocationTable.getSize(entry);
 
             BoolExpr hh = fsengine.and(
                     h,
@@ -459,14 +458,44 @@ public class Analysis {
     }*/
 
 
-    private void initializeAllocationMapping() {
-        Integer itNumber = 0;
-        Integer offset = 0;
+    /*
+     * Instance numbers are hashes of the allocation site: two different sites with the same number would
+     * silently share their heap objects, so report them
+     */
+    private void checkInstanceCollisions(final Iterable<DalvikInstance> setOfInst, final int size) {
+        final Map<Integer, DalvikInstance> sites = new HashMap<Integer, DalvikInstance>(size);
+        for (DalvikInstance i : setOfInst) {
+            final DalvikInstance previous = sites.put(i.hashCode(), i);
+            if (previous != null && !previous.sameSite(i)) {
+                LOGGER.warn("Allocation sites " + previous.getC() + "_" + previous.getM() + "_" + previous.getPC()
+                        + " and " + i.getC() + "_" + i.getM() + "_" + i.getPC()
+                        + " share instance number " + i.hashCode() + ", their objects are merged");
+            }
+        }
+    }
 
-        Set<DalvikInstance> setOfInst = instances.getAllOnce();
-        if (options.stubs) {
-            setOfInst.addAll(stubs.getInstances().getAllOnce());
+    /*
+     * The instances of the apk followed by those of the stubs that are not already among them, read in place
+     */
+    private Iterable<DalvikInstance> getAllInstances() {
+        if (!options.stubs) {
+            return instances.getAll();
         }
+        return Iterables.concat(instances.getAll(), Iterables.filter(stubs.getInstances().getAll(),
+                new Predicate<DalvikInstance>() {
+                    @Override
+                    public boolean apply(final DalvikInstance di) {
+                        return !instances.contains(di);
+                    }
+                }));
+    }
+
+    private void initializeAllocationMapping() {
+        final Iterable<DalvikInstance> setOfInst = getAllInstances();
+        final int size = instances.size() + (options.stubs ? stubs.getInstances().size() : 0);
+        final List<DalvikInstance> candidates = new ArrayList<DalvikInstance>(size);
+        final Map<Integer, int[]> candidateFields = new HashMap<Integer, int[]>(size);
+        checkInstanceCollisions(setOfInst, size);
         for (DalvikInstance i : setOfInst) {
 
             // check if instance is created in the method with a sink
@@ -482,60 +511,163 @@ public class Analysis {
             }
 
             final int instanceNum = i.hashCode();
+            if (candidateFields.containsKey(instanceNum)){
+                continue;
+            }
 
-            final String referenceString = i.getType().getType();
-            final Map<Integer, Boolean> fieldsMap = getClassFields(referenceString, instanceNum);
-            TreeSet<Integer> fields = null;
+            final Map<Integer, Boolean> fieldsMap = getClassFields(i.getType().getType(), instanceNum);
+            int[] fields = null; // no field map, kept apart from an empty one for liftObject
             if (fieldsMap != null) {
-                fields = new TreeSet<Integer>(fieldsMap.keySet());
+                fields = new int[fieldsMap.size()];
+                int f = 0;
+                for (int field : fieldsMap.keySet()) { // keys of the tree map are sorted
+                    fields[f++] = field;
+                }
+            }
+            candidates.add(i);
+            candidateFields.put(instanceNum, fields);
+        }
+
+        // with a local heap budget only the K best ranked allocation points are tracked flow-sensitively,
+        // the other ones are not in the table and are therefore allocated on the global heap by NEW_INSTANCE
+        int budget = candidates.size();
+        if (options.localHeapBudget > 0 && options.localHeapBudget < candidates.size()) {
+            budget = options.localHeapBudget;
+            rankAllocationPoints(candidates, candidateFields);
+        }
+
+        allocationTable = new AllocationTable(budget);
+        for (DalvikInstance i : candidates.subList(0, budget)) {
+            final int instanceNum = i.hashCode();
+            allocationTable.add(instanceNum, i.getType().getType(), this.getClassString(i.getC()),
+                    this.getMethodString(i.getC(), i.getM()), i.getPC(), candidateFields.get(instanceNum));
+        }
+        localHeapSize = allocationTable.getHeapSize();
+        localHeapNumberEntries = allocationTable.size();
+        if (budget < candidates.size()) {
+            LOGGER.info("Local heap budget: " + budget + " of " + candidates.size()
+                    + " allocation points tracked flow-sensitively (" + localHeapSize + " local heap entries)");
+        }
+    }
+
+    /*
+     * Sort the allocation points by proximity to a sink: objects allocated in a method that calls a sink first,
+     * then objects allocated in a class that has such a method, then all the others.
+     * Within a group the objects with fewer fields come first since each field costs five arguments
+     * in every R relation. The instance number breaks ties so that the selection is deterministic.
+     */
+    private void rankAllocationPoints(final List<DalvikInstance> candidates, final Map<Integer, int[]> candidateFields) {
+        final Set<Integer> classesWithSink = new HashSet<Integer>();
+        for (GeneralClass c : classes.values()) {
+            if (c instanceof DalvikClass) {
+                final int ci = c.getType().hashCode();
+                for (DalvikMethod m : ((DalvikClass) c).getMethods()) {
+                    if (checkMethodHasSink(new CMPair(ci, m.getName().hashCode()).hashCode())) {
+                        classesWithSink.add(ci);
+                        break;
+                    }
+                }
+            }
+        }
+        final Map<Integer, Integer> distance = new HashMap<Integer, Integer>(candidates.size());
+        for (DalvikInstance i : candidates) {
+            final int d;
+            if (checkMethodHasSink(new CMPair(i.getC(), i.getM()).hashCode())) {
+                d = 0;
+            } else if (classesWithSink.contains(i.getC())) {
+                d = 1;
             } else {
-                fields = new TreeSet<Integer>();
+                d = 2;
             }
-            allocationPointClass.put(instanceNum, referenceString);
-            allocationPointClassDebug.put(instanceNum, this.getClassString(i.getC()));
-            allocationPointMethod.put(instanceNum, this.getMethodString(i.getC(), i.getM()));
-            allocationPointPC.put(instanceNum, i.getPC());
-            allocationPointNumbers.put(instanceNum, itNumber);
-            allocationPointNumbersReverse.put(itNumber, instanceNum);
-            allocationPointSize.put(instanceNum, fields.size());
-            allocationPointOffset.put(instanceNum, offset);
-            offset += fields.size() + 1;
-            itNumber += 1;
+            distance.put(i.hashCode(), d);
         }
-        localHeapSize = offset;
-        localHeapNumberEntries = itNumber;
+        Collections.sort(candidates, new Comparator<DalvikInstance>() {
+            @Override
+            public int compare(DalvikInstance i1, DalvikInstance i2) {
+                final int n1 = i1.hashCode();
+                final int n2 = i2.hashCode();
+                int cmp = Integer.compare(distance.get(n1), distance.get(n2));
+                if (cmp == 0) {
+                    cmp = Integer.compare(fieldCount(candidateFields.get(n1)), fieldCount(candidateFields.get(n2)));
+                }
+                if (cmp == 0) {
+                    cmp = Integer.compare(n1, n2);
+                }
+                return cmp;
+            }
+        });
+    }
+
+    private static int fieldCount(final int[] fields) {
+        return fields == null ? 0 : fields.length;
+    }
+
+    /*
+     * Restrict the relations of each method to the local heap entries it can use
+     */
+    private void initializeMethodLocalHeap() {
+        final Map<String, int[]> methodLocalHeap = new LocalHeapLiveness(this, classes, allocationTable).compute();
+        long width = 0;
+        for (int[] entries : methodLocalHeap.values()) {
+            width += entries.length;
+        }
+        LOGGER.info("Per-method local heap: " + methodLocalHeap.size() + " methods restricted to "
+                + (methodLocalHeap.isEmpty() ? 0 : width / methodLocalHeap.size()) + " of " + localHeapSize
+                + " local heap entries on average");
+        fsengine.setMethodLocalHeap(methodLocalHeap);
+        this.methodLocalHeap = methodLocalHeap;
     }
 
     public int getInstanceNumFromReverse(int i) {
-        return allocationPointNumbersReverse.get(i);
+        return allocationTable.getInstanceNum(i);
+    }
+
+    /*
+     * Return true if the class of the object allocated at 'allocationPoint' has the field fieldIntReference
+     */
+    public boolean hasField(int allocationPoint, int fieldIntReference) {
+        final int n = allocationTable.indexOf(allocationPoint);
+        return n >= 0 && allocationTable.getFieldPosition(n, fieldIntReference) >= 0;
+    }
+
+    /*
+     * Return the sorted hash codes of the fields of the object allocated at 'allocationPoint',
+     * or null if getClassFields found no fields for its class
+     */
+    public int[] getAllocationPointFields(int allocationPoint) {
+        return allocationTable.getFields(indexOfAllocationPoint(allocationPoint));
     }
 
     public int getFieldOffset(int allocationPoint, int fieldIntReference) {
-        TreeSet<Integer> fields = new TreeSet<Integer>(this.getClassFields(allocationPointClass.get(allocationPoint), allocationPoint).keySet());
-        int i = 0;
-        for (int field : fields) {
-            if (field == fieldIntReference) {
-                return i;
-            }
-            i++;
+        final int i = allocationTable.getFieldPosition(indexOfAllocationPoint(allocationPoint), fieldIntReference);
+        if (i < 0) {
+            throw new RuntimeException("Analysis: getOffset: field does not exist");
         }
-        throw new RuntimeException("Analysis: getOffset: field does not exist");
+        return i;
     }
 
     public String getAllocationPointClass(int instanceNum) {
-        return new String(allocationPointClass.get(instanceNum));
+        return allocationTable.getClassName(indexOfAllocationPoint(instanceNum));
     }
 
     public String getAllocationPointClassDebug(int instanceNum) {
-        return new String(allocationPointClassDebug.get(instanceNum));
+        return allocationTable.getClassNameDebug(indexOfAllocationPoint(instanceNum));
     }
 
     public String getAllocationPointMethod(int instanceNum) {
-        return new String(allocationPointMethod.get(instanceNum));
+        return allocationTable.getMethodName(indexOfAllocationPoint(instanceNum));
     }
 
     public int getAllocationPointPC(int instanceNum) {
-        return allocationPointPC.get(instanceNum);
+        return allocationTable.getPC(indexOfAllocationPoint(instanceNum));
+    }
+
+    private int indexOfAllocationPoint(int instanceNum) {
+        final int n = allocationTable.indexOf(instanceNum);
+        if (n < 0) {
+            throw new RuntimeException("Analysis: unknown allocation point " + instanceNum);
+        }
+        return n;
     }
 
     /*
@@ -589,7 +721,7 @@ public class Analysis {
         return result;
     }
 
-    public Integer getInstNum(final int c, final int m, final int pc) {
+    public int getInstNum(final int c, final int m, final int pc) {
         return DalvikInstance.hashCode(c, m, pc);
     }
 
@@ -681,6 +813,22 @@ public class Analysis {
             }
 
             final boolean isEntryPoint = testEntryPoint(dc, m.getName().hashCode());
+
+            // the clauses of an unchanged method are taken from the previous version or from the summary cache
+            final boolean library = fingerprints != null && isLibraryClass(dc);
+            final String key = fingerprints == null ? null : library
+                    ? fingerprints.libraryKey(dc, m, isEntryPoint, isCallback, isDisabledActivity,
+                            isCallbackImplementation, isLauncherActivity, isApplication, isOverApprox)
+                    : fingerprints.key(dc, m, isEntryPoint, isCallback, isDisabledActivity, isCallbackImplementation,
+                            isLauncherActivity, isApplication, isOverApprox);
+            if (key != null) {
+                final String label = dc.getType() + "->" + m.getName();
+                if (fsengine.spliceFragment(key, label, library)) {
+                    continue;
+                }
+                fsengine.beginFragment(key, label, library);
+            }
+
             if (isCallbackImplementation) {
                 addToMain(dc, m.getName().hashCode(), m.getNumReg(), m.getNumArg());
             }
@@ -760,6 +908,9 @@ public class Analysis {
                 ia.CreateHornClauses(options, apkClassesMethods);
                 codeAddress += instruction.getCodeUnits();
             }
+            if (key != null) {
+                fsengine.endFragment();
+            }
         }
     }
 
@@ -932,6 +1083,30 @@ public class Analysis {
         return new Dispatch(instances, classes, interfaces);
     }
 
+    StubRegistry getStubRegistry() {
+        return stubRegistry;
+    }
+
+    public QueryCost makeQueryCost() {
+        return new QueryCost(this, classes);
+    }
+
+    /*
+     * Names of the methods by the class and method hashes of the R_c_m_pc relations: "c_m" -> "class->method"
+     */
+    public Map<String, String> makeMethodNames() {
+        final Map<String, String> methodNames = new HashMap<>();
+        for (final GeneralClass c : classes.values()) {
+            if (c instanceof DalvikClass) {
+                for (final DalvikMethod m : ((DalvikClass) c).getMethods()) {
+                    methodNames.put(Integer.toString(c.getType().hashCode()) + '_' + Integer.toString(m.getName().hashCode()),
+                            c.getType() + "->" + m.getName());
+                }
+            }
+        }
+        return methodNames;
+    }
+
     private void fetchNewInstance(final int cp, final String className, final int c, final int m, final int pc) {
         final GeneralClass gc = stubs.getClasses().get(cp);
         if (gc instanceof GeneralClass) {
@@ -1168,7 +1343,7 @@ public class Analysis {
        /*
         * Add instances from the added classes
         */
-        for (DalvikInstance di : apkInstances.getAllOnce()) {
+        for (DalvikInstance di : apkInstances.getAll()) {
             if (classes.containsKey(di.getC())) {
                 instances.add(di);
             }
@@ -1195,7 +1370,7 @@ public class Analysis {
             }
         }
 
-        // Initialize allocationPointOffset,allocationPointNumbers and allocationPointSize
+        // Initialize the allocation table (offset, size and metadata of the objects on the local heap)
         if (!options.nfsanalysis) {
             initializeAllocationMapping();
         }
@@ -1205,7 +1380,10 @@ public class Analysis {
             fsengine.initializeNFS();
         } else {
             // Correctly set the corresponding fields in the FSEngine
-            fsengine.initialize(localHeapSize, allocationPointOffset, allocationPointSize);
+            fsengine.initialize(allocationTable);
+            if (options.methodLocalHeap && !options.debug) {
+                initializeMethodLocalHeap();
+            }
 
             // Generates heap handling rules for the flow-sensitive analysis
             generateReachLHRules();
@@ -1223,6 +1401,11 @@ public class Analysis {
         LOGGER.info("Number of instances : " + instances.size());
         //System.out.print("Number of processed instructions : " + numberOfHornCLauseInstructions);
 
+        if (fsengine.isReusingFragments() && !options.debug) {
+            fingerprints = new MethodFingerprints(this, options, classes, instances, interfaces, apkClassesMethods,
+                    allocationTable, methodLocalHeap);
+        }
+
 
         for (final GeneralClass c : classes.values()) {
             if ((c instanceof DalvikClass)) {
@@ -1232,7 +1415,7 @@ public class Analysis {
                 final boolean isApplication = testApplication(dc);
                 final boolean isOverapprox = testOverapprox(dc);
                 boolean isCallbackImplementation = false;
-                final HashSet<Integer> ic = interfaces.getByClassType(dc.getType().hashCode());
+                final Set<Integer> ic = interfaces.getByClassType(dc.getType().hashCode());
                 if (ic != null) {
                     for (final Integer interfaceC : ic) {
                         if (callbackImplementations.contains(interfaceC)) {
@@ -1244,6 +1427,19 @@ public class Analysis {
                 processClass(dc, isDisabledActivity, isci, isLauncherActivity, isApplication, isOverapprox);
             }
         }
+        if (fingerprints != null) {
+            fsengine.logFragments();
+        }
+    }
+
+    /*
+     * Library code is the code outside the package of the manifest, the apk's own code if it is not known
+     */
+    private boolean isLibraryClass(final GeneralClass c) {
+        if (packageName == null || packageName.isEmpty()) {
+            return false;
+        }
+        return !c.getType().startsWith('L' + packageName.replace('.', '/') + '/');
     }
 
 
@@ -1319,6 +1515,17 @@ public class Analysis {
         methodIsEntryPoint.add(new CMPair(c, m));
     }
 
+    /*
+     * Package of the apk from its manifest, null if it was not read
+     */
+    public String getPackageName() {
+        return packageName;
+    }
+
+    public void setPackageName(String packageName) {
+        this.packageName = packageName;
+    }
+
     public boolean isEntryPoint(int c, int m) {
         return methodIsEntryPoint.contains(new CMPair(c, m));
     }
@@ -1341,7 +1548,7 @@ public class Analysis {
     }
 
     public int getAllocationPointNumbersReverse(int entry) {
-        return allocationPointNumbersReverse.get(entry);
+        return allocationTable.getInstanceNum(entry);
     }
 
 }
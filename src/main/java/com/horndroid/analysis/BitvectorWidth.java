@@ -0,0 +1,369 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 TU Wien
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.horndroid.analysis;
+
+import com.horndroid.Dalvik.DalvikInstance;
+import com.horndroid.util.Utils;
+import org.jf.dexlib2.iface.ClassDef;
+import org.jf.dexlib2.iface.Field;
+import org.jf.dexlib2.iface.Method;
+import org.jf.dexlib2.iface.MethodImplementation;
+import org.jf.dexlib2.iface.instruction.Instruction;
+import org.jf.dexlib2.iface.instruction.ReferenceInstruction;
+import org.jf.dexlib2.iface.instruction.SwitchElement;
+import org.jf.dexlib2.iface.instruction.SwitchPayload;
+import org.jf.dexlib2.iface.instruction.WideLiteralInstruction;
+import org.jf.dexlib2.iface.instruction.formats.ArrayPayload;
+import org.jf.dexlib2.iface.reference.FieldReference;
+import org.jf.dexlib2.iface.reference.MethodReference;
+import org.jf.dexlib2.iface.reference.Reference;
+import org.jf.dexlib2.iface.reference.TypeReference;
+import org.jf.dexlib2.iface.value.BooleanEncodedValue;
+import org.jf.dexlib2.iface.value.ByteEncodedValue;
+import org.jf.dexlib2.iface.value.CharEncodedValue;
+import org.jf.dexlib2.iface.value.DoubleEncodedValue;
+import org.jf.dexlib2.iface.value.EncodedValue;
+import org.jf.dexlib2.iface.value.EnumEncodedValue;
+import org.jf.dexlib2.iface.value.FieldEncodedValue;
+import org.jf.dexlib2.iface.value.FloatEncodedValue;
+import org.jf.dexlib2.iface.value.IntEncodedValue;
+import org.jf.dexlib2.iface.value.LongEncodedValue;
+import org.jf.dexlib2.iface.value.ShortEncodedValue;
+import org.jf.dexlib2.iface.value.StringEncodedValue;
+import org.jf.dexlib2.Opcode;
+import org.jf.dexlib2.ValueType;
+import org.jf.dexlib2.util.ReferenceUtil;
+
+import java.util.*;
+
+/**
+ * Computes the narrowest bitvector width that can still encode the program.
+ *
+ * Class, method, field and string identifiers as well as allocation sites are
+ * interned as 32 bit hashes: the width has to keep them pairwise distinct. They
+ * are collected from the apk, from the stub classes it can reach (-t), from the
+ * instance numbers of invoke sites and from the names the analysis hard-codes.
+ * Literals are tracked per method; a query is answered again at full width when
+ * its method can receive a value of a method whose literals do not fit, through
+ * a call, a return or the heap.
+ */
+public class BitvectorWidth {
+
+    public static final int MIN_WIDTH = 16;
+    public static final int MAX_WIDTH = 64;
+    private static final int ID_WIDTH = 32;
+    private static final int WIDTH_STEP = 4;
+
+    /* names hashed by Analysis, DataExtraction, Dispatch and FSInstructionAnalysis */
+    private static final String[] FIXED_NAMES = {
+            "parent", "result", "intent", "anything",
+            "<clinit>()V", "<init>()V", "<init>(Ljava/lang/String;)V", "<init>(Ljava/lang/Runnable;)V",
+            "<init>(Landroid/content/Context;Ljava/lang/Class;)V", "<init>(Landroid/content/Context;Ljava/lang/String;)V",
+            "run()V", "start()V", "onPreExecute()V", "onPostExecute(Ljava/lang/Object;)V",
+            "doInBackground([Ljava/lang/Object;)Ljava/lang/Object;", "execute(Ljava/lang/Runnable;)V",
+            "execute([Ljava/lang/Object;)Landroid/os/AsyncTask;", "newInstance()Ljava/lang/Object;",
+            "getAction()Ljava/lang/String;", "getIntent()Landroid/content/Intent;",
+            "setResult(ILandroid/content/Intent;)V", "startActivity(Landroid/content/Intent;)V",
+            "setComponent(Landroid/content/ComponentName;)Landroid/content/Intent;"
+    };
+    private static final String[] FIXED_TYPES = {
+            "Landroid/app/Fragment;", "Landroid/app/ListFragment;", "Landroid/app/Service;",
+            "Landroid/content/BroadcastReceiver;", "Landroid/content/ComponentName;", "Landroid/content/ContentProvider;",
+            "Landroid/content/Intent;", "Landroid/os/AsyncTask;", "Landroid/os/Handler;",
+            "Landroid/support/v4/app/Fragment;", "Landroid/support/v4/app/FragmentActivity;",
+            "Landroid/support/v4/app/ListFragment;", "Ljava/lang/Class;", "Ljava/lang/Runnable;", "Ljava/lang/Thread;",
+            "Ljava/util/concurrent/Executor;", "Ljava/util/concurrent/ExecutorService;"
+    };
+
+    private final Set<Integer> ids = new HashSet<Integer>();
+    private final Map<String, Integer> literalWidths = new HashMap<String, Integer>(); // "class method" -> bits needed by its literals
+    private final Map<String, Set<Integer>> callees = new HashMap<String, Set<Integer>>(); // "class method" -> invoked method names
+    private final Map<Integer, Set<String>> methodsByName = new HashMap<Integer, Set<String>>(); // method name -> "class method"
+    private final Set<String> heapWriters = new HashSet<String>();
+    private final Set<String> heapReaders = new HashSet<String>();
+    private final Set<String> visitedTypes = new HashSet<String>();
+    private final Set<String> allocatedTypes = new HashSet<String>();
+
+    public void collect(final List<? extends ClassDef> classDefs) {
+        collect(classDefs, null);
+    }
+
+    /*
+     * Collect the apk and, when stubs is not null, every stub class reachable from it by a reference or a super type,
+     * which is a superset of the classes Stubs.load extracts while the apk is analysed
+     */
+    public void collect(final List<? extends ClassDef> classDefs, final Stubs stubs) {
+        for (final String name : FIXED_NAMES) {
+            ids.add(name.hashCode());
+        }
+        ids.add(DalvikInstance.hashCode(0, 0, 0));
+        ids.addAll(StubRegistry.getHeapTypes());
+        final Deque<ClassDef> pending = new ArrayDeque<ClassDef>();
+        for (final ClassDef classDef : classDefs) {
+            if (visitedTypes.add(classDef.getType())) pending.add(classDef);
+        }
+        for (final String type : FIXED_TYPES) {
+            reach(type, stubs, pending);
+        }
+        while (!pending.isEmpty()) {
+            collectClass(pending.poll(), stubs, pending);
+        }
+        for (final String type : allocatedTypes) {
+            collectReflectedFields(type);
+        }
+    }
+
+    private void reach(final String type, final Stubs stubs, final Deque<ClassDef> pending) {
+        ids.add(type.hashCode());
+        String element = type;
+        while (element.startsWith("[")) element = element.substring(1);
+        if (stubs == null || visitedTypes.contains(element)) return;
+        final ClassDef classDef = stubs.getClassDef(element.hashCode());
+        if (classDef != null && visitedTypes.add(element)) {
+            pending.add(classDef);
+        }
+    }
+
+    private void collectClass(final ClassDef classDef, final Stubs stubs, final Deque<ClassDef> pending) {
+        final String type = classDef.getType();
+        final int c = type.hashCode();
+        ids.add(c);
+        if (classDef.getSuperclass() != null) reach(classDef.getSuperclass(), stubs, pending);
+        for (final String interfaceName : classDef.getInterfaces()) {
+            reach(interfaceName, stubs, pending);
+        }
+        int staticWidth = 0;
+        for (final Field field : classDef.getFields()) {
+            ids.add(ReferenceUtil.getShortFieldDescriptor(field).hashCode());
+            if (field.getInitialValue() != null) {
+                staticWidth = Math.max(staticWidth, valueWidth(field.getInitialValue()));
+            }
+        }
+        if (staticWidth > 0) {
+            // the initial values are stored on the heap by Analysis.addStaticFieldsValues
+            final String key = type + ' ' + "<clinit>()V";
+            literalWidths.put(key, Math.max(staticWidth, literalWidths.containsKey(key) ? literalWidths.get(key) : 0));
+            heapWriters.add(key);
+        }
+        for (final Method method : classDef.getMethods()) {
+            final String methodString = Utils.getShortMethodDescriptor(method);
+            final int m = methodString.hashCode();
+            final String key = type + ' ' + methodString;
+            ids.add(m);
+            addToSet(methodsByName, m, key);
+            final MethodImplementation methodImpl = method.getImplementation();
+            if (methodImpl == null) continue;
+            final Set<Integer> invoked = new HashSet<Integer>();
+            int width = 0;
+            int codeAddress = 0;
+            for (final Instruction instruction : methodImpl.getInstructions()) {
+                final String opcode = instruction.getOpcode().name();
+                if (opcode.startsWith("INVOKE") || opcode.startsWith("EXECUTE_INLINE")) {
+                    // instance numbers of the objects returned by unknown and modelled calls, see applyStub and computeStub
+                    ids.add(DalvikInstance.hashCode(c, m, codeAddress));
+                    heapReaders.add(key);
+                    heapWriters.add(key);
+                } else if (opcode.startsWith("IGET") || opcode.startsWith("SGET") || opcode.startsWith("AGET")) {
+                    heapReaders.add(key);
+                } else if (opcode.startsWith("IPUT") || opcode.startsWith("SPUT") || opcode.startsWith("APUT")) {
+                    heapWriters.add(key);
+                }
+                switch (instruction.getOpcode()) {
+                    case NEW_INSTANCE:
+                    case NEW_ARRAY:
+                    case FILLED_NEW_ARRAY:
+                    case FILLED_NEW_ARRAY_RANGE:
+                        ids.add(DalvikInstance.hashCode(c, m, codeAddress));
+                        heapWriters.add(key);
+                        break;
+                    default:
+                }
+                if (instruction instanceof ReferenceInstruction) {
+                    final Reference reference = ((ReferenceInstruction) instruction).getReference();
+                    final String referenceString = Utils.getShortReferenceString(reference);
+                    if (referenceString != null) ids.add(referenceString.hashCode());
+                    if (reference instanceof MethodReference) {
+                        invoked.add(referenceString.hashCode());
+                        reach(((MethodReference) reference).getDefiningClass(), stubs, pending);
+                    } else if (reference instanceof FieldReference) {
+                        reach(((FieldReference) reference).getDefiningClass(), stubs, pending);
+                    } else if (reference instanceof TypeReference) {
+                        reach(((TypeReference) reference).getType(), stubs, pending);
+                        if (instruction.getOpcode() == Opcode.NEW_INSTANCE) {
+                            allocatedTypes.add(((TypeReference) reference).getType());
+                        }
+                    }
+                }
+                if (instruction instanceof WideLiteralInstruction) {
+                    width = Math.max(width, signedWidth(((WideLiteralInstruction) instruction).getWideLiteral()));
+                } else if (instruction instanceof SwitchPayload) {
+                    for (final SwitchElement element : ((SwitchPayload) instruction).getSwitchElements()) {
+                        width = Math.max(width, signedWidth(element.getKey()));
+                    }
+                } else if (instruction instanceof ArrayPayload) {
+                    for (final Number element : ((ArrayPayload) instruction).getArrayElements()) {
+                        width = Math.max(width, signedWidth(element.longValue()));
+                    }
+                }
+                codeAddress += instruction.getCodeUnits();
+            }
+            literalWidths.put(key, Math.max(width, literalWidths.containsKey(key) ? literalWidths.get(key) : 0));
+            callees.put(key, invoked);
+        }
+    }
+
+    /*
+     * Fields of an allocated class that Analysis.getClassFields looks up by reflection, hashed the same way
+     */
+    private void collectReflectedFields(final String type) {
+        try {
+            final Class<?> cc = Class.forName(Utils.toStandardJavaClassName(type));
+            for (java.lang.reflect.Field f : cc.getFields()) {
+                ids.add((type + "->" + f.getName() + ':' + Utils.toDalvikType(f.getType().toString())).hashCode());
+            }
+        } catch (Exception e) {
+            // not a JVM class either, Analysis.getClassFields finds no field
+        } catch (Error e) {
+            // idem
+        }
+    }
+
+    /*
+     * Bits needed by the initial value of a static field, identifiers are collected as such
+     */
+    private int valueWidth(final EncodedValue value) {
+        switch (value.getValueType()) {
+            case ValueType.BOOLEAN:
+                return signedWidth(((BooleanEncodedValue) value).getValue() ? 1 : 0);
+            case ValueType.BYTE:
+                return signedWidth(((ByteEncodedValue) value).getValue());
+            case ValueType.CHAR:
+                return signedWidth(((CharEncodedValue) value).getValue());
+            case ValueType.SHORT:
+                return signedWidth(((ShortEncodedValue) value).getValue());
+            case ValueType.INT:
+                return signedWidth(((IntEncodedValue) value).getValue());
+            case ValueType.LONG:
+                return signedWidth(((LongEncodedValue) value).getValue());
+            case ValueType.FLOAT:
+                return signedWidth(Float.floatToRawIntBits(((FloatEncodedValue) value).getValue()));
+            case ValueType.DOUBLE:
+                return signedWidth(Double.doubleToRawLongBits(((DoubleEncodedValue) value).getValue()));
+            case ValueType.ENUM:
+                ids.add(ReferenceUtil.getShortFieldDescriptor(((EnumEncodedValue) value).getValue()).hashCode());
+                return 0;
+            case ValueType.FIELD:
+                ids.add(ReferenceUtil.getShortFieldDescriptor(((FieldEncodedValue) value).getValue()).hashCode());
+                return 0;
+            case ValueType.STRING:
+                ids.add(((StringEncodedValue) value).getValue().hashCode());
+                return 0;
+            default:
+                return 0;
+        }
+    }
+
+    /*
+     * Smallest width in which all interned identifiers stay distinct
+     */
+    public int getIdWidth() {
+        for (int width = MIN_WIDTH; width < ID_WIDTH; width += WIDTH_STEP) {
+            final long mask = (1L << width) - 1;
+            final Set<Long> truncated = new HashSet<Long>();
+            boolean distinct = true;
+            for (final int id : ids) {
+                if (!truncated.add(id & mask)) {
+                    distinct = false;
+                    break;
+                }
+            }
+            if (distinct) return width;
+        }
+        return ID_WIDTH;
+    }
+
+    /*
+     * Methods ("class method") whose queries may see a literal that cannot be represented on width bits: the methods
+     * holding such literals, the methods they call or that call them, and, once one of them writes to the heap,
+     * every method reading it. Names stand for all their overrides since the dispatch is not known yet
+     */
+    public Set<String> getLossyMethods(final int width) {
+        final Set<String> lossy = new HashSet<String>();
+        final Deque<String> pending = new ArrayDeque<String>();
+        for (final Map.Entry<String, Integer> entry : literalWidths.entrySet()) {
+            if (entry.getValue() > width && lossy.add(entry.getKey())) pending.add(entry.getKey());
+        }
+        final Map<Integer, Set<String>> callers = new HashMap<Integer, Set<String>>();
+        if (!pending.isEmpty()) {
+            for (final Map.Entry<String, Set<Integer>> entry : callees.entrySet()) {
+                for (final int name : entry.getValue()) {
+                    addToSet(callers, name, entry.getKey());
+                }
+            }
+        }
+        boolean heapReached = false;
+        while (!pending.isEmpty()) {
+            final String method = pending.poll();
+            final Set<String> next = new HashSet<String>();
+            final Set<Integer> invoked = callees.get(method);
+            if (invoked != null) {
+                for (final int name : invoked) {
+                    addAll(next, methodsByName.get(name));
+                }
+            }
+            final int name = method.substring(method.indexOf(' ') + 1).hashCode();
+            addAll(next, callers.get(name));
+            if (!heapReached && heapWriters.contains(method)) {
+                heapReached = true;
+                next.addAll(heapReaders);
+            }
+            for (final String m : next) {
+                if (lossy.add(m)) pending.add(m);
+            }
+        }
+        return lossy;
+    }
+
+    public int getNumberOfIds() {
+        return ids.size();
+    }
+
+    private static <K, V> void addToSet(final Map<K, Set<V>> map, final K key, final V value) {
+        Set<V> set = map.get(key);
+        if (set == null) {
+            set = new HashSet<V>();
+            map.put(key, set);
+        }
+        set.add(value);
+    }
+
+    private static <V> void addAll(final Set<V> set, final Set<V> values) {
+        if (values != null) set.addAll(values);
+    }
+
+    private static int signedWidth(final long value) {
+        return MAX_WIDTH + 1 - Long.numberOfLeadingZeros(value < 0 ? ~value : value);
+    }
+}
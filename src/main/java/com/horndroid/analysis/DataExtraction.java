@@ -199,7 +199,11 @@ public class DataExtraction {
     }
 
     private static String makeNameIgnoreDollar(final GeneralClass c) {
-        final String formatClassName = c.getType().replaceAll("\\.", "/").substring(1, c.getType().replaceAll("\\.", "/").length() - 1);
+        return makeNameIgnoreDollar(c.getType());
+    }
+
+    static String makeNameIgnoreDollar(final String type) {
+        final String formatClassName = type.replaceAll("\\.", "/").substring(1, type.replaceAll("\\.", "/").length() - 1);
         final String[] parts = formatClassName.split("/");
         final String classN = parts[parts.length - 1];
         final String[] parts$ = classN.split("\\$");
@@ -256,6 +260,15 @@ public class DataExtraction {
         formClassStructure();
     }       
 
+    /*
+     * Extract a single class, for the classes loaded on demand by Stubs which links them itself
+     */
+    public DalvikClass collectClass(final ClassDef classDef) {
+        final DalvikClass c = collectDataFromClass(Collections.<Integer,ClassDef>emptyMap(), classDef);
+        classes.put(c.getType().hashCode(), c);
+        return c;
+    }
+
 
     private DalvikClass collectDataFromClass(final Map<Integer,ClassDef> classDefsMap, final ClassDef classDef) {
         final DalvikClass dc = new DalvikClass(classDef.getType());
@@ -363,7 +376,7 @@ public class DataExtraction {
         if (returnType.equals((String) "V")) callReturns = false;
         else callReturns = true;
         Iterable<? extends Instruction> instructions = methodImpl.getInstructions();
-        DalvikMethod dm = new DalvikMethod(methodString, parameterRegisterCount, methodImpl.getRegisterCount(), returnType, callReturns, ImmutableList.copyOf(instructions));
+        DalvikMethod dm = new DalvikMethod(methodString, parameterRegisterCount, methodImpl.getRegisterCount(), returnType, callReturns, methodImpl);
         int codeAddress = 0;
         for (Instruction instruction: instructions){
             collect(classDefsMap, instruction, codeAddress, Integer.parseInt(classIndex), Integer.parseInt(methodIndex), classDef, method);
@@ -617,11 +630,9 @@ public class DataExtraction {
      */
     private Boolean isSourceSink(final String className, final String methodName){
         final int classIndex = className.hashCode();
-        final String classNameFormat = className.substring(1, className.length()-1);
-        final String methodNameFormat = methodName.substring(0, methodName.indexOf('('));
         
         //Lookup in sourcesSinks to check if className, methodName appears
-        Boolean bool = sourcesSinks.isSourceSink(classNameFormat, methodNameFormat);
+        Boolean bool = sourcesSinks.isSourceSink(className, methodName);
         if (bool != null){
             return bool;
         }
@@ -157,7 +157,7 @@ public class Dispatch {
             return true;
         }
         
-        HashSet<DalvikClass> ic = interfaces.getByInterfaceType("Ljava/lang/Runnable;".hashCode());
+        Set<DalvikClass> ic = interfaces.getByInterfaceType("Ljava/lang/Runnable;".hashCode());
         if (ic != null){
             if (ic.contains(gc))
                     return true;
@@ -428,7 +428,7 @@ public class Dispatch {
                 final HashSet<DalvikInstance> instSet = new HashSet<DalvikInstance>();
                 final HashSet<DalvikImplementation> implSet = new HashSet<DalvikImplementation>();
                 
-                final HashSet<DalvikClass> interfaceClasses = interfaces.getByInterfaceType(c);
+                final Set<DalvikClass> interfaceClasses = interfaces.getByInterfaceType(c);
                 if (interfaceClasses != null) {
                     for (final DalvikClass ic : interfaceClasses) {
                         if ((ic.getMethod(m) != null)
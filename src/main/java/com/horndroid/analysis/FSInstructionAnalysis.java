@@ -171,6 +171,24 @@ public class FSInstructionAnalysis{
         }
     }
 
+    /*
+     * The local heap entries that are not carried by the invoked method are left untouched by the invocation:
+     * after the call they keep the values of the caller and they are not lifted
+     */
+    private void frameLHC(String classInvoked, String methodInvoked){
+        if (!analysis.optionNotFlowSens()){
+            for (int i = 0; i < analysis.getLocalHeapSize(); i++){
+                if (!fsengine.hasLocalHeapEntry(classInvoked, methodInvoked, i)){
+                    regUpLHCV.put(i, fsvar.getLHV(i));
+                    regUpLHCH.put(i, fsvar.getLHH(i));
+                    regUpLHCL.put(i, fsvar.getLHL(i));
+                    regUpLHCG.put(i, fsvar.getLHG(i));
+                    regUpLHCF.put(i, fsengine.mkFalse());
+                }
+            }
+        }
+    }
+
     public void CreateHornClauses(Options options, Set<StringPair> apkClassesMethods){
         final Dispatch dispatch = analysis.makeDispatch();
         DispatchResult dispatchResult = null;
@@ -466,14 +484,10 @@ public class FSInstructionAnalysis{
                 //special treatment for the "global by default objects"
                 int lhoffset = 0;
                 int lhsize = 0;
-                boolean  instanceInFilteredClass = false;
-                try {
+                boolean  instanceInFilteredClass = !fsengine.isLocalHeapAllocation(instanceNum);
+                if (!instanceInFilteredClass){
                     lhoffset = fsengine.getOffset(instanceNum);
                     lhsize = fsengine.getSize(instanceNum);
-
-                }
-                catch (NullPointerException e){
-                    instanceInFilteredClass = true;
                 }
 
                 if (globalByDefault(dispatch, referenceIntIndex)
@@ -1348,27 +1362,25 @@ public class FSInstructionAnalysis{
                 for (int allocationPoint : analysis.getAllocationPoints()){
                     //we do not generate rules if class of the object allocated at 'allocationPoint' has no entry for the field allocated by the dalvik instruction
 
-                    if (analysis.getClassFields(analysis.getAllocationPointClass(allocationPoint),allocationPoint) != null){
-                        if (analysis.getClassFields(analysis.getAllocationPointClass(allocationPoint),allocationPoint).containsKey(referenceIntIndex)){
-                            buildH();
-                            h = fsengine.and(
-                                    h,
-                                    fsvar.getL(registerB()),
-                                    fsengine.eq(fsvar.getV(registerB()),fsengine.mkBitVector(allocationPoint,size))
-                            );
-                            int fieldPosition = fsengine.getOffset(allocationPoint) + analysis.getFieldOffset(allocationPoint, referenceIntIndex);
+                    if (analysis.hasField(allocationPoint, referenceIntIndex)){
+                        buildH();
+                        h = fsengine.and(
+                                h,
+                                fsvar.getL(registerB()),
+                                fsengine.eq(fsvar.getV(registerB()),fsengine.mkBitVector(allocationPoint,size))
+                        );
+                        int fieldPosition = fsengine.getOffset(allocationPoint) + analysis.getFieldOffset(allocationPoint, referenceIntIndex);
 
-                            regUpV.put(registerA(),fsvar.getLHV(fieldPosition));
-                            regUpH.put(registerA(),fsvar.getLHH(fieldPosition));
-                            regUpL.put(registerA(),fsvar.getLHL(fieldPosition));
-                            regUpG.put(registerA(),fsvar.getLHG(fieldPosition));
-                            buildB();
-                            buildRule();
+                        regUpV.put(registerA(),fsvar.getLHV(fieldPosition));
+                        regUpH.put(registerA(),fsvar.getLHH(fieldPosition));
+                        regUpL.put(registerA(),fsvar.getLHL(fieldPosition));
+                        regUpG.put(registerA(),fsvar.getLHG(fieldPosition));
+                        buildB();
+                        buildRule();
 
-                            regUpV.clear();regUpH.clear();regUpL.clear();regUpG.clear();
-                            regUpLHV.clear();regUpLHH.clear();regUpLHL.clear();regUpLHG.clear();
+                        regUpV.clear();regUpH.clear();regUpL.clear();regUpG.clear();
+                        regUpLHV.clear();regUpLHH.clear();regUpLHL.clear();regUpLHG.clear();
 
-                        }
                     }
                 }
 
@@ -1450,8 +1462,7 @@ public class FSInstructionAnalysis{
                 //object is on the local heap: update the local heap
                 for (int allocationPoint : analysis.getAllocationPoints()){
                     //we do not generate rules if class of the object allocated at 'allocationPoint' has no entry for the field allocated by the dalvik instruction
-                    if (analysis.getClassFields(analysis.getAllocationPointClass(allocationPoint),allocationPoint) != null)
-                        if (analysis.getClassFields(analysis.getAllocationPointClass(allocationPoint),allocationPoint).containsKey(referenceIntIndex)){
+                        if (analysis.hasField(allocationPoint, referenceIntIndex)){
                             h = fsengine.and(
                                     fsengine.rPred(classIndex, methodIndex, codeAddress, regUpV, regUpH, regUpL, regUpG, regUpLHV, regUpLHH, regUpLHL, regUpLHG, regUpLHF, numParLoc, numRegLoc),
                                     fsengine.eq(fsvar.getL(((TwoRegisterInstruction)instruction).getRegisterB()),fsengine.mkTrue()),
@@ -3492,15 +3503,15 @@ public class FSInstructionAnalysis{
      * Local Heap handling functions
      */
     private void liftObject(BoolExpr h, int allocationPoint){
-        Map<Integer,Boolean> fields = analysis.getClassFields(analysis.getAllocationPointClass(allocationPoint), allocationPoint);
+        int[] fields = analysis.getAllocationPointFields(allocationPoint);
         int size = analysis.getSize();
         int referenceIntIndex = analysis.getAllocationPointClass(allocationPoint).hashCode();
         if (fields != null){
             int loopi = fsengine.getOffset(allocationPoint);
-            for (Map.Entry<Integer, Boolean> fieldN : fields.entrySet()){
+            for (int field : fields){
                 b = fsengine.hPred(fsengine.mkBitVector(referenceIntIndex, size),
                         fsengine.mkBitVector(allocationPoint, size),
-                        fsengine.mkBitVector(fieldN.getKey(), size),
+                        fsengine.mkBitVector(field, size),
                         fsvar.getLHV(loopi),
                         fsvar.getLHH(loopi),
                         fsengine.or(fsvar.getLHL(loopi),fsvar.getLHG(loopi)));
@@ -3587,14 +3598,14 @@ public class FSInstructionAnalysis{
                 hg = fsengine.or(
                         hg,
                         fsengine.and(
-                                fsvar.getLHCF(fsengine.getOffset(instanceNum)),
+                                regUpLHCF.get(fsengine.getOffset(instanceNum)),
                                 fsengine.eq(fsvar.getV(i), fsengine.mkBitVector(instanceNum, size))
                         )
                 );
                 hl = fsengine.or(
                         hl,
                         fsengine.and(
-                                fsengine.not(fsvar.getLHCF(fsengine.getOffset(instanceNum))),
+                                fsengine.not(regUpLHCF.get(fsengine.getOffset(instanceNum))),
                                 fsengine.eq(fsvar.getV(i), fsengine.mkBitVector(instanceNum, size))
                         )
                 );
@@ -3694,396 +3705,135 @@ public class FSInstructionAnalysis{
         buildRule();
     }
 
-    private boolean simpleSkip(final int c){
-        if (c == ("Ljava/lang/Object;".hashCode()) && ("<init>()V".hashCode() == referenceIntIndex)){
-            return true;
-        }
-        if (c == ("Ljava/util/HashMap;".hashCode()) && ("<init>()V".hashCode() == referenceIntIndex)){
-            return true;
-        }
-        if ((c == ("Landroid/app/Activity;".hashCode())) &&
-                (("<init>()V".hashCode() == referenceIntIndex))){
-            return true;
-        }
-        if ((c == ("Landroid/app/Activity;".hashCode())) &&
-                (("onCreate(Landroid/os/Bundle;)V".hashCode() == referenceIntIndex))){
-            return true;
-        }
-        if ((c == ("Landroid/app/Activity;".hashCode())) &&
-                (("setContentView(I)V".hashCode() == referenceIntIndex))){
-            return true;
-        }
-        if ((c == ("Landroid/telephony/SmsManager;".hashCode())) &&
-                (("sendTextMessage(Ljava/lang/String;Ljava/lang/String;Ljava/lang/String;Landroid/app/PendingIntent;Landroid/app/PendingIntent;)V".hashCode() == referenceIntIndex))){
-            return true;
-        }
-        if ((c == ("Ljava/util/LinkedList;".hashCode())) &&
-                (("<init>()V".hashCode() == referenceIntIndex))){
-            return true;
-        }
-        if ((c == ("Landroid/support/v4/app/Fragment;".hashCode())) &&
-                (("<init>()V".hashCode() == referenceIntIndex))){
-            return true;
-        }
-        if ((c == ("Landroid/view/MenuInflater;".hashCode())) &&
-                (("inflate(ILandroid/view/Menu;)V".hashCode() == referenceIntIndex))){
-            return true;
-        }
-        if ((c == ("Landroid/support/v7/app/ActionBarActivity;".hashCode())) &&
-                (("<init>()V".hashCode() == referenceIntIndex))){
-            return true;
-        }
-        if ((c == ("Landroid/support/v7/app/ActionBarActivity;".hashCode())) &&
-                (("setContentView(I)V".hashCode() == referenceIntIndex))){
-            return true;
-        }
-        if ((c == ("Landroid/support/v7/app/ActionBarActivity;".hashCode())) &&
-                (("onCreate(Landroid/os/Bundle;)V".hashCode() == referenceIntIndex))){
-            return true;
-        }
-        if (analysis.getGeneralClass(c) instanceof DalvikClass){
-            return simpleSkip(((DalvikClass) analysis.getGeneralClass(c)).getSuperClass().getType().hashCode());
+    /*
+     * Registers C, D and E of an invoke, for the range form the first three of the range
+     */
+    private int[] invokeRegisters(){
+        if (this.instruction instanceof FiveRegisterInstruction) {
+            final FiveRegisterInstruction fiveRegisterInstruction = (FiveRegisterInstruction) instruction;
+            return new int[]{fiveRegisterInstruction.getRegisterC(), fiveRegisterInstruction.getRegisterD(),
+                    fiveRegisterInstruction.getRegisterE()};
         }
-        return false;
+        final int start = ((RegisterRangeInstruction) instruction).getStartRegister();
+        return new int[]{start, start + 1, start + 2};
     }
 
-    private boolean manualStub(final int cCall){
-        int size = analysis.getSize();
-        boolean flag = false;
-        // sources
-        if ((cCall == ("Landroid/telephony/TelephonyManager;".hashCode())) &&
-                ("getSimSerialNumber()Ljava/lang/String;".hashCode() == referenceIntIndex)){
-            flag = true;
-        }
-        if ((cCall == ("Landroid/telephony/TelephonyManager;".hashCode())) &&
-                ("getDeviceId()Ljava/lang/String;".hashCode() == referenceIntIndex)){
-            flag = true;
-        }
-        if (flag){
-            buildH();
-            instanceNum = analysis.getInstNum(c, m, codeAddress);
-            regUpV.put(numRegLoc, fsengine.mkBitVector(instanceNum, size));
-            regUpH.put(numRegLoc, fsengine.mkTrue());
-            regUpL.put(numRegLoc, fsengine.mkFalse());
-            regUpG.put(numRegLoc, fsengine.mkTrue());
-            buildB();
-            buildRule();
-            return true;
-        }
-        // returning primitive
-        if ((cCall == ("Landroid/support/v4/app/FragmentTransaction;".hashCode())) &&
-                ("commit()I".hashCode() == referenceIntIndex)){
-            flag = true;
-        }
-        if ((cCall == ("Landroid/view/MenuItem;".hashCode())) &&
-                ("getItemId()I".hashCode() == referenceIntIndex)){
-            flag = true;
-        }
-        if ((cCall == ("Landroid/support/v7/app/ActionBarActivity;".hashCode())) &&
-                ("onOptionsItemSelected(Landroid/view/MenuItem;)Z".hashCode() == referenceIntIndex)){
-            flag = true;
-        }
-        if ((cCall == ("Ljava/lang/Math;".hashCode())) &&
-                ("random()D".hashCode() == referenceIntIndex)){
-            flag = true;
-        }
-        if ((cCall == ("Ljava/lang/String;".hashCode())) &&
-                ("length()I".hashCode() == referenceIntIndex)){
-            flag = true;
-        }
-        if (flag){
-            buildH();
-            regUpV.put(numRegLoc, fsvar.getF());
-            regUpH.put(numRegLoc, fsengine.mkFalse());
-            regUpL.put(numRegLoc, fsengine.mkFalse());
-            regUpG.put(numRegLoc, fsengine.mkFalse());
-            buildB();
-            buildRule();
-            return true;
-        }
-        // returning object
-        if (cCall == "Landroid/app/Activity;".hashCode() &&
-                "getSystemService(Ljava/lang/String;)Ljava/lang/Object;".hashCode() == referenceIntIndex){
-            flag = true;
-        }
-        if (cCall == "Landroid/telephony/SmsManager;".hashCode() &&
-                "getDefault()Landroid/telephony/SmsManager;".hashCode() == referenceIntIndex){
-            flag = true;
-        }
-        if (cCall == "Landroid/support/v7/app/ActionBarActivity;".hashCode() &&
-                "getSupportFragmentManager()Landroid/support/v4/app/FragmentManager;".hashCode() == referenceIntIndex){
-            flag = true;
-        }
-        if (cCall == "Landroid/support/v7/app/ActionBarActivity;".hashCode() &&
-                "getSystemService(Ljava/lang/String;)Ljava/lang/Object;".hashCode() == referenceIntIndex){
-            flag = true;
-        }
-        if (cCall == "Landroid/support/v7/app/ActionBarActivity;".hashCode() &&
-                "getMenuInflater()Landroid/view/MenuInflater;".hashCode() == referenceIntIndex){
-            flag = true;
-        }
-        if (cCall == "Landroid/view/LayoutInflater;".hashCode() &&
-                "inflate(ILandroid/view/ViewGroup;Z)Landroid/view/View;".hashCode() == referenceIntIndex){
-            flag = true;
-        }
-        if (cCall == "Landroid/support/v4/app/FragmentManager;".hashCode() &&
-                "beginTransaction()Landroid/support/v4/app/FragmentTransaction;".hashCode() == referenceIntIndex){
-            flag = true;
-        }
-        if (cCall == "Landroid/support/v4/app/FragmentTransaction;".hashCode() &&
-                "add(ILandroid/support/v4/app/Fragment;)Landroid/support/v4/app/FragmentTransaction;".hashCode() == referenceIntIndex){
-            flag = true;
-        }
-        if (flag){
-            instanceNum = analysis.getInstNum(c, m, codeAddress);
-            buildH();
-            //update the register receiving the pointer to the newly created object
-            regUpV.put(numRegLoc, fsengine.mkBitVector(instanceNum, size));
-            regUpH.put(numRegLoc, fsengine.mkFalse());
-            regUpL.put(numRegLoc, fsengine.mkFalse());
-            regUpG.put(numRegLoc, fsengine.mkTrue());
-            buildB();
-            buildRule();
-
-            regUpV.clear(); regUpH.clear(); regUpL.clear(); regUpG.clear();
-
-
-            buildH();
-            b = fsengine.hPred(fsengine.mkBitVector(returnType.hashCode(), size),
-                    fsengine.mkBitVector(instanceNum, size),
-                    fsengine.mkBitVector(32, size), fsengine.mkBitVector(32, size),
-                    fsengine.mkFalse(), fsengine.mkFalse());
-            buildRule();
-
-            if (analysis.optionMerginPointers()){
+    /*
+     * Clauses of a call modelled in bin/StubModels.txt
+     */
+    private void applyStub(final StubRegistry.Stub stub){
+        final int size = analysis.getSize();
+        final int[] registers;
+        switch (stub.kind) {
+            case SKIP:
                 buildH();
-                b = fsengine.joinPred(fsengine.mkBitVector(instanceNum, size), fsengine.mkFalse());
+                buildB();
+                buildRule();
+                break;
+            case SOURCE:
+                buildH();
+                instanceNum = analysis.getInstNum(c, m, codeAddress);
+                regUpV.put(numRegLoc, fsengine.mkBitVector(instanceNum, size));
+                regUpH.put(numRegLoc, fsengine.mkTrue());
+                regUpL.put(numRegLoc, fsengine.mkFalse());
+                regUpG.put(numRegLoc, fsengine.mkTrue());
+                buildB();
+                buildRule();
+                break;
+            case PRIMITIVE:
+                buildH();
+                regUpV.put(numRegLoc, fsvar.getF());
+                regUpH.put(numRegLoc, fsengine.mkFalse());
+                regUpL.put(numRegLoc, fsengine.mkFalse());
+                regUpG.put(numRegLoc, fsengine.mkFalse());
+                buildB();
+                buildRule();
+                break;
+            case OBJECT:
+                instanceNum = analysis.getInstNum(c, m, codeAddress);
+                buildH();
+                //update the register receiving the pointer to the newly created object
+                regUpV.put(numRegLoc, fsengine.mkBitVector(instanceNum, size));
+                regUpH.put(numRegLoc, fsengine.mkFalse());
+                regUpL.put(numRegLoc, fsengine.mkFalse());
+                regUpG.put(numRegLoc, fsengine.mkTrue());
+                buildB();
                 buildRule();
-            }
 
-            return true;
-        }
+                regUpV.clear(); regUpH.clear(); regUpL.clear(); regUpG.clear();
 
-        //////////////////////
-        /*
-        if (cCall == ("Ljava/lang/String;".hashCode())
-                && ("getChars(II[CI)V"
-                        .hashCode()) == referenceIntIndex) {
-            int registerC = ((FiveRegisterInstruction) instruction) // string
-                    .getRegisterC();
-            int registerF = ((FiveRegisterInstruction) instruction) // array
-                    .getRegisterF();
-            buildH();
-            b = fsengine.hPred(
-                    fsvar.getVal(),
-                    fsvar.getV(registerF), fsvar.getF(),
-                    fsvar.getFpp(), fsvar.getH(registerC),
-                    fsengine.mkTrue());
-            buildRule();
-            buildH();
-            buildB();
-            buildRule();
-            return true;
-        }*/
-        /////////////////////
-        if (cCall == ("Ljava/util/Map;".hashCode())
-                && ("put(Ljava/lang/Object;Ljava/lang/Object;)Ljava/lang/Object;"
-                .hashCode()) == referenceIntIndex) {
-            int registerC, registerD, registerE;
-            if (this.instruction instanceof FiveRegisterInstruction) {
-                registerC = ((FiveRegisterInstruction) instruction)
-                        .getRegisterC();
-                registerD = ((FiveRegisterInstruction) instruction)
-                        .getRegisterD();
-                registerE = ((FiveRegisterInstruction) instruction)
-                        .getRegisterE();
-            } else {
-                registerC = ((RegisterRangeInstruction) instruction)
-                        .getStartRegister();
-                registerD = ((RegisterRangeInstruction) instruction)
-                        .getStartRegister() + 1;
-                registerE = ((RegisterRangeInstruction) instruction)
-                        .getStartRegister() + 2;
-            }
-            buildH();
-            b = fsengine.hPred(
-                    fsengine.mkBitVector("Ljava/util/Map;".hashCode(), size),
-                    fsvar.getV(registerC), fsvar.getV(registerD),
-                    fsvar.getV(registerE), fsvar.getH(registerE),
-                    fsengine.or(fsvar.getL(registerE), fsvar.getG(registerE)));
-            buildRule();
-            buildH();
-            buildB();
-            buildRule();
 
-            //join predicate
-            if (analysis.optionMerginPointers()){
                 buildH();
-                b = fsengine.joinPred(fsvar.getV(registerC), fsengine.or(fsvar.getH(registerE), fsvar.getH(registerC)));
+                b = fsengine.hPred(fsengine.mkBitVector(returnType.hashCode(), size),
+                        fsengine.mkBitVector(instanceNum, size),
+                        fsengine.mkBitVector(32, size), fsengine.mkBitVector(32, size),
+                        fsengine.mkFalse(), fsengine.mkFalse());
                 buildRule();
-            }
-            return true;
-        }
-        if (cCall == ("Ljava/util/Map;".hashCode())
-                && ("get(Ljava/lang/Object;)Ljava/lang/Object;".hashCode()) == referenceIntIndex) {
-
-            int registerC, registerD;
-            if (this.instruction instanceof FiveRegisterInstruction) {
-                registerC = ((FiveRegisterInstruction) instruction)
-                        .getRegisterC();
-                registerD = ((FiveRegisterInstruction) instruction)
-                        .getRegisterD();
-            } else {
-                registerC = ((RegisterRangeInstruction) instruction)
-                        .getStartRegister();
-                registerD = ((RegisterRangeInstruction) instruction)
-                        .getStartRegister() + 1;
-            }
-            buildH();
-            BoolExpr h2 = fsengine.and(h, fsengine.hPred(
-                    fsengine.mkBitVector("Ljava/util/Map;".hashCode(), size),
-                    fsvar.getV(registerC), fsvar.getV(registerD), fsvar.getF(),
-                    fsvar.getLf(), fsvar.getBf()));
-            regUpV.put(numRegLoc, fsvar.getF());
-            regUpH.put(numRegLoc, fsvar.getLf());
-            regUpL.put(numRegLoc, fsengine.mkFalse());
-            regUpG.put(numRegLoc, fsvar.getBf());
-            buildB();
-            fsengine.addRule(fsengine.implies(h2, b), null);
-            return true;
-        }
-        if (cCall == ("Ljava/util/LinkedList;".hashCode())
-                && ("add(Ljava/lang/Object;)Z"
-                .hashCode()) == referenceIntIndex) {
-            int registerC, registerD;
-            if (this.instruction instanceof FiveRegisterInstruction) {
-                registerC = ((FiveRegisterInstruction) instruction)
-                        .getRegisterC();
-                registerD = ((FiveRegisterInstruction) instruction)
-                        .getRegisterD();
-            } else {
-                registerC = ((RegisterRangeInstruction) instruction)
-                        .getStartRegister();
-                registerD = ((RegisterRangeInstruction) instruction)
-                        .getStartRegister() + 1;
-            }
-            buildH();
-            b = fsengine.hPred(
-                    fsengine.mkBitVector("Ljava/util/LinkedList;".hashCode(), size),
-                    fsvar.getV(registerC),
-                    fsvar.getF(), //field insensitive for the moment
-                    fsvar.getV(registerD), fsvar.getH(registerD),
-                    fsengine.or(fsvar.getL(registerD), fsvar.getG(registerD)));
-            buildRule();
-            buildH();
-            buildB();
-            buildRule();
 
-            //join predicate
-            if (analysis.optionMerginPointers()){
+                if (analysis.optionMerginPointers()){
+                    buildH();
+                    b = fsengine.joinPred(fsengine.mkBitVector(instanceNum, size), fsengine.mkFalse());
+                    buildRule();
+                }
+                break;
+            case PUT:
+                registers = invokeRegisters();
                 buildH();
-                b = fsengine.joinPred(fsvar.getV(registerC), fsengine.or(fsvar.getH(registerD), fsvar.getH(registerC)));
+                b = fsengine.hPred(
+                        fsengine.mkBitVector(stub.heapType, size),
+                        fsvar.getV(registers[0]), fsvar.getV(registers[1]),
+                        fsvar.getV(registers[2]), fsvar.getH(registers[2]),
+                        fsengine.or(fsvar.getL(registers[2]), fsvar.getG(registers[2])));
                 buildRule();
-            }
-
-            return true;
-        }
-        if (cCall == ("Ljava/util/LinkedList;".hashCode())
-                && ("get(I)Ljava/lang/Object;".hashCode()) == referenceIntIndex) {
-
-            int registerC, registerD;
-            if (this.instruction instanceof FiveRegisterInstruction) {
-                registerC = ((FiveRegisterInstruction) instruction)
-                        .getRegisterC();
-                registerD = ((FiveRegisterInstruction) instruction)
-                        .getRegisterD();
-            } else {
-                registerC = ((RegisterRangeInstruction) instruction)
-                        .getStartRegister();
-                registerD = ((RegisterRangeInstruction) instruction)
-                        .getStartRegister() + 1;
-            }
-            buildH();
-            BoolExpr h2 = fsengine.and(h, fsengine.hPred(
-                    fsengine.mkBitVector("Ljava/util/LinkedList;".hashCode(), size),
-                    fsvar.getV(registerC), fsvar.getV(registerD), fsvar.getF(),
-                    fsvar.getLf(), fsvar.getBf()));
-            regUpV.put(numRegLoc, fsvar.getF());
-            regUpH.put(numRegLoc, fsvar.getLf());
-            regUpL.put(numRegLoc, fsengine.mkFalse());
-            regUpG.put(numRegLoc, fsvar.getBf());
-            buildB();
-            fsengine.addRule(fsengine.implies(h2, b), null);
-            return true;
-        }
-        if (cCall == ("Ljava/util/List;".hashCode())
-                && ("add(Ljava/lang/Object;)Z"
-                .hashCode()) == referenceIntIndex) {
-            int registerC, registerD;
-            if (this.instruction instanceof FiveRegisterInstruction) {
-                registerC = ((FiveRegisterInstruction) instruction)
-                        .getRegisterC();
-                registerD = ((FiveRegisterInstruction) instruction)
-                        .getRegisterD();
-            } else {
-                registerC = ((RegisterRangeInstruction) instruction)
-                        .getStartRegister();
-                registerD = ((RegisterRangeInstruction) instruction)
-                        .getStartRegister() + 1;
-            }
-            buildH();
-            b = fsengine.hPred(
-                    fsengine.mkBitVector("Ljava/util/LinkedList;".hashCode(), size),
-                    fsvar.getV(registerC),
-                    fsvar.getF(), //field insensitive for the moment
-                    fsvar.getV(registerD), fsvar.getH(registerD),
-                    fsengine.or(fsvar.getL(registerD), fsvar.getG(registerD)));
-            buildRule();
-            buildH();
-            buildB();
-            buildRule();
-
-            //join predicate
-            if (analysis.optionMerginPointers()){
                 buildH();
-                b = fsengine.joinPred(fsvar.getV(registerC), fsengine.or(fsvar.getH(registerD), fsvar.getH(registerC)));
+                buildB();
                 buildRule();
-            }
 
-            return true;
-        }
-        if (cCall == ("Ljava/util/List;".hashCode())
-                && ("get(I)Ljava/lang/Object;".hashCode()) == referenceIntIndex) {
+                //join predicate
+                if (analysis.optionMerginPointers()){
+                    buildH();
+                    b = fsengine.joinPred(fsvar.getV(registers[0]), fsengine.or(fsvar.getH(registers[2]), fsvar.getH(registers[0])));
+                    buildRule();
+                }
+                break;
+            case ADD:
+                registers = invokeRegisters();
+                buildH();
+                b = fsengine.hPred(
+                        fsengine.mkBitVector(stub.heapType, size),
+                        fsvar.getV(registers[0]),
+                        fsvar.getF(), //field insensitive for the moment
+                        fsvar.getV(registers[1]), fsvar.getH(registers[1]),
+                        fsengine.or(fsvar.getL(registers[1]), fsvar.getG(registers[1])));
+                buildRule();
+                buildH();
+                buildB();
+                buildRule();
 
-            int registerC, registerD;
-            if (this.instruction instanceof FiveRegisterInstruction) {
-                registerC = ((FiveRegisterInstruction) instruction)
-                        .getRegisterC();
-                registerD = ((FiveRegisterInstruction) instruction)
-                        .getRegisterD();
-            } else {
-                registerC = ((RegisterRangeInstruction) instruction)
-                        .getStartRegister();
-                registerD = ((RegisterRangeInstruction) instruction)
-                        .getStartRegister() + 1;
-            }
-            buildH();
-            BoolExpr h2 = fsengine.and(h, fsengine.hPred(
-                    fsengine.mkBitVector("Ljava/util/LinkedList;".hashCode(), size),
-                    fsvar.getV(registerC), fsvar.getV(registerD), fsvar.getF(),
-                    fsvar.getLf(), fsvar.getBf()));
-            regUpV.put(numRegLoc, fsvar.getF());
-            regUpH.put(numRegLoc, fsvar.getLf());
-            regUpL.put(numRegLoc, fsengine.mkFalse());
-            regUpG.put(numRegLoc, fsvar.getBf());
-            buildB();
-            fsengine.addRule(fsengine.implies(h2, b), null);
-            return true;
-        }
-        if (analysis.getGeneralClass(cCall) instanceof DalvikClass){
-            return manualStub(((DalvikClass) analysis.getGeneralClass(cCall)).getSuperClass().getType().hashCode());
+                //join predicate
+                if (analysis.optionMerginPointers()){
+                    buildH();
+                    b = fsengine.joinPred(fsvar.getV(registers[0]), fsengine.or(fsvar.getH(registers[1]), fsvar.getH(registers[0])));
+                    buildRule();
+                }
+                break;
+            case GET:
+                registers = invokeRegisters();
+                buildH();
+                BoolExpr h2 = fsengine.and(h, fsengine.hPred(
+                        fsengine.mkBitVector(stub.heapType, size),
+                        fsvar.getV(registers[0]), fsvar.getV(registers[1]), fsvar.getF(),
+                        fsvar.getLf(), fsvar.getBf()));
+                regUpV.put(numRegLoc, fsvar.getF());
+                regUpH.put(numRegLoc, fsvar.getLf());
+                regUpL.put(numRegLoc, fsengine.mkFalse());
+                regUpG.put(numRegLoc, fsvar.getBf());
+                buildB();
+                fsengine.addRule(fsengine.implies(h2, b), null);
+                break;
+            default:
+                throw new RuntimeException("FSInstructionAnalysis: unknown stub model " + stub.kind);
         }
-        return false;
     }
 
     private boolean computeStub(boolean range, final String invMethod){
@@ -4103,20 +3853,11 @@ public class FSInstructionAnalysis{
         BitVecExpr typec = null;
 
         /*
-         * For some methods we do nothing
-         */
-        if (simpleSkip(referenceClassIndex)){
-            buildH();
-            buildB();
-            buildRule();
-            return true;
-        }
-
-        /*
-         * For some methods we have manual stubs
+         * For some methods we do nothing, for others we have manual stubs
          */
-
-        if (manualStub(referenceClassIndex)){
+        final StubRegistry.Stub stub = analysis.getStubRegistry().lookup(referenceClassIndex, referenceIntIndex);
+        if (stub != null){
+            applyStub(stub);
             return true;
         }
 
@@ -5028,7 +4769,7 @@ public class FSInstructionAnalysis{
      */
     private void invokeNotKnownNew(final Boolean range, final String invClass, final String invMethod){
         //LOGGER.error("Not known implementation: " + invClass + " " +  invMethod);
-        // we add queries when calling manualStub(...)
+        // we add queries when calling computeStub(...)
         /*if (analysis.isSink(className,methodName,invClass.hashCode(), invMethod.hashCode())){
             if (range) {
                 addQueryRange(fsengine.rPred(classIndex, methodIndex, codeAddress, regUpV, regUpH, regUpL, regUpG, regUpLHV, regUpLHH, regUpLHL, regUpLHG, regUpLHF, numParLoc, numRegLoc),
@@ -5598,6 +5339,7 @@ public class FSInstructionAnalysis{
             regUpG.put(numArgCall, fsvar.getGrez());
 
             this.initializeLHC();
+            this.frameLHC(classInvokedStringName, methodInvokedStringName);
 
             h = fsengine.and(
                     precond,
@@ -5622,7 +5364,7 @@ public class FSInstructionAnalysis{
             }
             if (!analysis.optionNotFlowSens()){
                 for (int i = 0; i < analysis.getLocalHeapSize(); i++){
-                    regUpLHCF.put(i, fsengine.or(fsvar.getLHF(i), fsvar.getLHCF(i)));
+                    regUpLHCF.put(i, fsengine.or(fsvar.getLHF(i), regUpLHCF.get(i)));
                 }
             }
             b = fsengine.rPred(classIndex, methodIndex, nextCode, regUpV, regUpH, regUpL, regUpG, regUpLHCV, regUpLHCH, regUpLHCL, regUpLHCG, regUpLHCF, numParLoc, numRegLoc);
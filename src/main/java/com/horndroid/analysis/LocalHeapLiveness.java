@@ -0,0 +1,405 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 TU Wien
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.horndroid.analysis;
+
+import com.horndroid.Dalvik.DalvikClass;
+import com.horndroid.Dalvik.DalvikImplementation;
+import com.horndroid.Dalvik.DalvikMethod;
+import com.horndroid.Dalvik.GeneralClass;
+import com.horndroid.util.Utils;
+import com.horndroid.util.Utils.CallType;
+import org.jf.dexlib2.iface.instruction.Instruction;
+import org.jf.dexlib2.iface.instruction.ReferenceInstruction;
+import org.jf.dexlib2.iface.reference.FieldReference;
+import org.jf.dexlib2.iface.reference.MethodReference;
+import org.jf.dexlib2.iface.reference.Reference;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * Computes, for each method, the local heap entries that the method (or one of the methods it invokes) can read or
+ * modify. The R and RES relations of such a method only carry these entries; the other entries of the caller are
+ * left untouched by the invocation.
+ * The analysis is conservative: a method that may lift the local heap (field or array stores, static stores,
+ * allocation of a tracked object, unknown invocations, ...) needs the whole local heap, as do all its callers.
+ */
+class LocalHeapLiveness {
+    private final Analysis analysis;
+    private final Map<Integer, GeneralClass> classes;
+    private final AllocationTable allocationTable;
+
+    private final Map<String, BitSet> entries = new HashMap<String, BitSet>();
+    private final Map<String, List<String>> callees = new HashMap<String, List<String>>();
+
+    LocalHeapLiveness(final Analysis analysis, final Map<Integer, GeneralClass> classes, final AllocationTable allocationTable) {
+        this.analysis = analysis;
+        this.classes = classes;
+        this.allocationTable = allocationTable;
+    }
+
+    static String key(final int c, final int m) {
+        return Integer.toString(c) + '_' + Integer.toString(m);
+    }
+
+    /*
+     * Return a map from key(c, m) to the sorted local heap entries of the method.
+     * Methods that need the whole local heap are not in the map.
+     */
+    Map<String, int[]> compute() {
+        final Dispatch dispatch = analysis.makeDispatch();
+        for (final GeneralClass c : classes.values()) {
+            if (c instanceof DalvikClass) {
+                for (final DalvikMethod m : ((DalvikClass) c).getMethods()) {
+                    scanMethod(dispatch, c.getType().hashCode(), m);
+                }
+            }
+        }
+
+        // propagate the entries of the callees to the callers until nothing changes
+        // a null entry set means the whole local heap
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (final Map.Entry<String, BitSet> method : entries.entrySet()) {
+                final BitSet own = method.getValue();
+                if (own == null) {
+                    continue;
+                }
+                for (final String callee : callees.get(method.getKey())) {
+                    final BitSet other = entries.get(callee);
+                    if (other == null) {
+                        method.setValue(null);
+                        changed = true;
+                        break;
+                    }
+                    final int before = own.cardinality();
+                    own.or(other);
+                    if (own.cardinality() != before) {
+                        changed = true;
+                    }
+                }
+            }
+        }
+
+        final Map<String, int[]> result = new HashMap<String, int[]>();
+        for (final Map.Entry<String, BitSet> method : entries.entrySet()) {
+            final BitSet own = method.getValue();
+            if (own == null || own.cardinality() == allocationTable.getHeapSize()) {
+                continue;
+            }
+            final int[] sorted = new int[own.cardinality()];
+            for (int i = own.nextSetBit(0), j = 0; i >= 0; i = own.nextSetBit(i + 1), j++) {
+                sorted[j] = i;
+            }
+            result.put(method.getKey(), sorted);
+        }
+        return result;
+    }
+
+    private void scanMethod(final Dispatch dispatch, final int c, final DalvikMethod dm) {
+        final int m = dm.getName().hashCode();
+        final String key = key(c, m);
+        final List<String> invoked = new ArrayList<String>();
+        final BitSet own = new BitSet(allocationTable.getHeapSize());
+        callees.put(key, invoked);
+        entries.put(key, own);
+
+        int codeAddress = 0;
+        for (final Instruction instruction : dm.getInstructions()) {
+            if (!scanInstruction(dispatch, c, m, codeAddress, instruction, own, invoked)) {
+                entries.put(key, null);
+                return;
+            }
+            codeAddress += instruction.getCodeUnits();
+        }
+    }
+
+    /*
+     * Add the local heap entries used by 'instruction' to 'own' and its possible targets to 'invoked'.
+     * Return false if the instruction may need the whole local heap.
+     */
+    private boolean scanInstruction(final Dispatch dispatch, final int c, final int m, final int codeAddress,
+                                    final Instruction instruction, final BitSet own, final List<String> invoked) {
+        String referenceString = null;
+        String referenceStringClass = null;
+        if (instruction instanceof ReferenceInstruction) {
+            final Reference reference = ((ReferenceInstruction) instruction).getReference();
+            referenceString = Utils.getShortReferenceString(reference);
+            if (reference instanceof FieldReference) {
+                referenceStringClass = ((FieldReference) reference).getDefiningClass();
+            } else if (reference instanceof MethodReference) {
+                referenceStringClass = ((MethodReference) reference).getDefiningClass();
+            }
+        }
+
+        switch (instruction.getOpcode()) {
+            case NOP:
+            case MONITOR_ENTER:
+            case MONITOR_EXIT:
+            case MOVE:
+            case MOVE_FROM16:
+            case MOVE_16:
+            case MOVE_WIDE:
+            case MOVE_WIDE_FROM16:
+            case MOVE_WIDE_16:
+            case MOVE_OBJECT:
+            case MOVE_OBJECT_FROM16:
+            case MOVE_OBJECT_16:
+            case MOVE_RESULT:
+            case MOVE_RESULT_WIDE:
+            case MOVE_RESULT_OBJECT:
+            case MOVE_EXCEPTION:
+            case RETURN_VOID:
+            case RETURN:
+            case RETURN_WIDE:
+            case RETURN_OBJECT:
+            case CONST_4:
+            case CONST_16:
+            case CONST:
+            case CONST_HIGH16:
+            case CONST_WIDE_16:
+            case CONST_WIDE_32:
+            case CONST_WIDE:
+            case CONST_WIDE_HIGH16:
+            case CONST_STRING:
+            case CONST_STRING_JUMBO:
+            case CONST_CLASS:
+            case CHECK_CAST:
+            case INSTANCE_OF:
+            case ARRAY_LENGTH:
+            case THROW:
+            case GOTO:
+            case GOTO_16:
+            case GOTO_32:
+            case PACKED_SWITCH:
+            case SPARSE_SWITCH:
+            case CMPL_FLOAT:
+            case CMPG_FLOAT:
+            case CMPL_DOUBLE:
+            case CMPG_DOUBLE:
+            case CMP_LONG:
+            case IF_EQ:
+            case IF_NE:
+            case IF_LT:
+            case IF_GE:
+            case IF_GT:
+            case IF_LE:
+            case IF_EQZ:
+            case IF_NEZ:
+            case IF_LTZ:
+            case IF_GEZ:
+            case IF_GTZ:
+            case IF_LEZ:
+            case AGET:
+            case AGET_WIDE:
+            case AGET_OBJECT:
+            case AGET_BOOLEAN:
+            case AGET_BYTE:
+            case AGET_CHAR:
+            case AGET_SHORT:
+            case SGET:
+            case SGET_WIDE:
+            case SGET_OBJECT:
+            case SGET_BOOLEAN:
+            case SGET_BYTE:
+            case SGET_CHAR:
+            case SGET_SHORT:
+            case NEG_INT:
+            case NEG_LONG:
+            case NEG_FLOAT:
+            case NEG_DOUBLE:
+            case NOT_INT:
+            case NOT_LONG:
+            case INT_TO_LONG:
+            case INT_TO_FLOAT:
+            case INT_TO_DOUBLE:
+            case LONG_TO_INT:
+            case LONG_TO_FLOAT:
+            case LONG_TO_DOUBLE:
+            case FLOAT_TO_INT:
+            case FLOAT_TO_LONG:
+            case FLOAT_TO_DOUBLE:
+            case DOUBLE_TO_INT:
+            case DOUBLE_TO_LONG:
+            case DOUBLE_TO_FLOAT:
+            case INT_TO_BYTE:
+            case INT_TO_CHAR:
+            case INT_TO_SHORT:
+            case ADD_INT:
+            case ADD_LONG:
+            case ADD_FLOAT:
+            case ADD_DOUBLE:
+            case RSUB_INT:
+            case SUB_INT:
+            case SUB_LONG:
+            case SUB_FLOAT:
+            case SUB_DOUBLE:
+            case MUL_INT:
+            case MUL_LONG:
+            case MUL_FLOAT:
+            case MUL_DOUBLE:
+            case DIV_INT:
+            case DIV_LONG:
+            case DIV_FLOAT:
+            case DIV_DOUBLE:
+            case REM_INT:
+            case REM_LONG:
+            case REM_FLOAT:
+            case REM_DOUBLE:
+            case AND_INT:
+            case AND_LONG:
+            case OR_INT:
+            case OR_LONG:
+            case XOR_INT:
+            case XOR_LONG:
+            case SHL_INT:
+            case SHL_LONG:
+            case SHR_LONG:
+            case SHR_INT:
+            case USHR_INT:
+            case USHR_LONG:
+            case ADD_INT_2ADDR:
+            case ADD_LONG_2ADDR:
+            case ADD_FLOAT_2ADDR:
+            case ADD_DOUBLE_2ADDR:
+            case SUB_INT_2ADDR:
+            case SUB_LONG_2ADDR:
+            case SUB_FLOAT_2ADDR:
+            case SUB_DOUBLE_2ADDR:
+            case MUL_INT_2ADDR:
+            case MUL_LONG_2ADDR:
+            case MUL_FLOAT_2ADDR:
+            case MUL_DOUBLE_2ADDR:
+            case DIV_INT_2ADDR:
+            case DIV_LONG_2ADDR:
+            case DIV_FLOAT_2ADDR:
+            case DIV_DOUBLE_2ADDR:
+            case REM_INT_2ADDR:
+            case REM_LONG_2ADDR:
+            case REM_FLOAT_2ADDR:
+            case REM_DOUBLE_2ADDR:
+            case AND_INT_2ADDR:
+            case AND_LONG_2ADDR:
+            case OR_INT_2ADDR:
+            case OR_LONG_2ADDR:
+            case XOR_INT_2ADDR:
+            case XOR_LONG_2ADDR:
+            case SHL_INT_2ADDR:
+            case SHL_LONG_2ADDR:
+            case SHR_INT_2ADDR:
+            case SHR_LONG_2ADDR:
+            case USHR_INT_2ADDR:
+            case USHR_LONG_2ADDR:
+            case ADD_INT_LIT16:
+            case ADD_INT_LIT8:
+            case MUL_INT_LIT16:
+            case MUL_INT_LIT8:
+            case DIV_INT_LIT16:
+            case DIV_INT_LIT8:
+            case REM_INT_LIT16:
+            case REM_INT_LIT8:
+            case AND_INT_LIT16:
+            case AND_INT_LIT8:
+            case OR_INT_LIT16:
+            case OR_INT_LIT8:
+            case XOR_INT_LIT16:
+            case XOR_INT_LIT8:
+            case RSUB_INT_LIT8:
+            case SHL_INT_LIT8:
+            case SHR_INT_LIT8:
+            case USHR_INT_LIT8:
+            case PACKED_SWITCH_PAYLOAD:
+            case SPARSE_SWITCH_PAYLOAD:
+            case ARRAY_PAYLOAD:
+                return true;
+
+            case NEW_INSTANCE:
+                // allocating an object already on the local heap lifts the whole local heap
+                return !allocationTable.contains(analysis.getInstNum(c, m, codeAddress));
+
+            case IGET:
+            case IGET_WIDE:
+            case IGET_OBJECT:
+            case IGET_BOOLEAN:
+            case IGET_BYTE:
+            case IGET_CHAR:
+            case IGET_SHORT: {
+                final int field = referenceString.hashCode();
+                for (int n = 0; n < allocationTable.size(); n++) {
+                    final int position = allocationTable.getFieldPosition(n, field);
+                    if (position >= 0) {
+                        own.set(allocationTable.getOffset(n) + position);
+                    }
+                }
+                return true;
+            }
+
+            case INVOKE_SUPER:
+            case INVOKE_SUPER_RANGE:
+                return addCallees(dispatch, referenceStringClass, referenceString, CallType.SUPER, invoked);
+            case INVOKE_VIRTUAL:
+            case INVOKE_VIRTUAL_RANGE:
+                return addCallees(dispatch, referenceStringClass, referenceString, CallType.VIRTUAL, invoked);
+            case INVOKE_INTERFACE:
+            case INVOKE_INTERFACE_RANGE:
+                return addCallees(dispatch, referenceStringClass, referenceString, CallType.INTERFACE, invoked);
+            case INVOKE_DIRECT:
+            case INVOKE_DIRECT_RANGE:
+                // thread creation is handled by hand in FSInstructionAnalysis
+                if (referenceString.hashCode() == "<init>(Ljava/lang/Runnable;)V".hashCode()
+                        && referenceStringClass.hashCode() == "Ljava/lang/Thread;".hashCode()) {
+                    return false;
+                }
+                return addCallees(dispatch, referenceStringClass, referenceString, CallType.DIRECT, invoked);
+            case INVOKE_STATIC:
+            case INVOKE_STATIC_RANGE:
+                return addCallees(dispatch, referenceStringClass, referenceString, CallType.STATIC, invoked);
+
+            default:
+                return false;
+        }
+    }
+
+    /*
+     * Invocations that cannot be dispatched to a known implementation are handled by stubs or by the unknown
+     * method over-approximation, which may lift the local heap
+     */
+    private boolean addCallees(final Dispatch dispatch, final String referenceStringClass, final String referenceString,
+                               final CallType callType, final List<String> invoked) {
+        final DispatchResult dispatchResult = dispatch.dispatch(referenceStringClass.hashCode(), referenceString.hashCode(),
+                referenceStringClass, referenceString, callType);
+        if (dispatchResult == null) {
+            return false;
+        }
+        for (final DalvikImplementation di : dispatchResult.getImplementations()) {
+            invoked.add(key(di.getDalvikClass().getType().hashCode(), di.getMethod().getName().hashCode()));
+        }
+        return true;
+    }
+}
@@ -0,0 +1,358 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 TU Wien
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.horndroid.analysis;
+
+import com.horndroid.Dalvik.*;
+import com.horndroid.Options;
+import com.horndroid.util.Fingerprint;
+import com.horndroid.util.StringPair;
+import com.horndroid.util.Utils;
+import com.horndroid.util.Utils.CallType;
+import org.jf.dexlib2.iface.instruction.*;
+import org.jf.dexlib2.iface.instruction.formats.ArrayPayload;
+import org.jf.dexlib2.iface.reference.FieldReference;
+import org.jf.dexlib2.iface.reference.MethodReference;
+import org.jf.dexlib2.iface.reference.Reference;
+import org.jf.dexlib2.iface.reference.TypeReference;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.*;
+
+/*
+ * Fingerprints of the inputs of the clause generation of a method, for the incremental analysis (-N): methods with
+ * the same fingerprint get the same rules. A fingerprint covers
+ * - what all the methods depend on: the options, the bitvector size, the data files in bin/ and the local heap;
+ * - the method: its class, name, registers, instructions and entry point and callback flags;
+ * - the classes it refers to (its own class, the referenced types, the owners and types of the referenced fields and
+ *   methods): their super classes, interfaces, fields, methods, static constructor and allocation sites;
+ * - its calls: the dispatch result, i.e. the implementations with their registers and the receiver instances, and
+ *   whether the callees are sources or sinks.
+ * The library key of a library method, shared across apks by the summary cache (-S), leaves out what only reaches
+ * the rules through the dispatch results: the child classes and the allocation sites of the referenced classes. The
+ * local heap, which holds its own allocation sites, stays in it: the field accesses and the lifting at calls
+ * enumerate all the tracked allocation points.
+ */
+public final class MethodFingerprints {
+    private static final String[] DATA_FILES = {"bin/SourcesAndSinks.txt", "bin/StubModels.txt",
+            "bin/EntryPoints.txt", "bin/Callbacks.txt"};
+
+    private final Analysis analysis;
+    private final Map<Integer, GeneralClass> classes;
+    private final Instances instances;
+    private final Interfaces interfaces;
+    private final Set<StringPair> apkClassesMethods;
+    private final Map<String, int[]> methodLocalHeap;
+    private final Dispatch dispatch;
+    private final String global;
+    private final Map<String, String> environments = new HashMap<String, String>();
+    private final Map<String, String> libraryEnvironments = new HashMap<String, String>();
+
+    MethodFingerprints(final Analysis analysis, final Options options, final Map<Integer, GeneralClass> classes,
+                       final Instances instances, final Interfaces interfaces, final Set<StringPair> apkClassesMethods,
+                       final AllocationTable allocationTable, final Map<String, int[]> methodLocalHeap) {
+        this.analysis = analysis;
+        this.classes = classes;
+        this.instances = instances;
+        this.interfaces = interfaces;
+        this.apkClassesMethods = apkClassesMethods;
+        this.methodLocalHeap = methodLocalHeap;
+        this.dispatch = analysis.makeDispatch();
+        this.global = global(options, allocationTable);
+    }
+
+    /*
+     * Content address of the rules of m, flags are the entry point and callback flags of processClass
+     */
+    String key(final DalvikClass dc, final DalvikMethod m, final boolean... flags) {
+        return key(false, dc, m, flags);
+    }
+
+    /*
+     * Content address of the rules of the library method m that does not depend on the rest of the apk
+     */
+    String libraryKey(final DalvikClass dc, final DalvikMethod m, final boolean... flags) {
+        return key(true, dc, m, flags);
+    }
+
+    private String key(final boolean library, final DalvikClass dc, final DalvikMethod m, final boolean... flags) {
+        final Fingerprint f = new Fingerprint().add(global).add(library).add(dc.getType()).add(m.getName())
+                .add(m.getNumArg()).add(m.getNumReg()).add(m.getReturnType()).add(m.isVoid())
+                .add(codeHash(m));
+        for (final boolean flag : flags) {
+            f.add(flag);
+        }
+        f.add(localHeapEntries(dc.getType(), m.getName()));
+        final SortedSet<String> types = new TreeSet<String>();
+        addType(types, dc.getType());
+        for (final Instruction instruction : m.getInstructions()) {
+            if (!(instruction instanceof ReferenceInstruction)) continue;
+            final Reference reference = ((ReferenceInstruction) instruction).getReference();
+            if (reference instanceof TypeReference) {
+                addType(types, ((TypeReference) reference).getType());
+            } else if (reference instanceof FieldReference) {
+                addType(types, ((FieldReference) reference).getDefiningClass());
+                addType(types, ((FieldReference) reference).getType());
+            } else if (reference instanceof MethodReference) {
+                final MethodReference methodReference = (MethodReference) reference;
+                addType(types, methodReference.getDefiningClass());
+                addType(types, methodReference.getReturnType());
+                for (final CharSequence parameter : methodReference.getParameterTypes()) {
+                    addType(types, parameter.toString());
+                }
+                final CallType callType = QueryCost.getCallType(instruction);
+                if (callType != null) addCall(f, methodReference, callType);
+            }
+        }
+        for (final String type : types) {
+            f.add(environment(type, library));
+        }
+        return f.toHex();
+    }
+
+    /*
+     * Digest of the instructions of m: opcodes, registers, literals, offsets, references and payloads
+     */
+    static String codeHash(final DalvikMethod m) {
+        final Fingerprint f = new Fingerprint();
+        for (final Instruction instruction : m.getInstructions()) {
+            f.add(instruction.getOpcode().name()).add(instruction.getCodeUnits());
+            if (instruction instanceof OneRegisterInstruction) {
+                f.add(((OneRegisterInstruction) instruction).getRegisterA());
+            }
+            if (instruction instanceof TwoRegisterInstruction) {
+                f.add(((TwoRegisterInstruction) instruction).getRegisterB());
+            }
+            if (instruction instanceof ThreeRegisterInstruction) {
+                f.add(((ThreeRegisterInstruction) instruction).getRegisterC());
+            }
+            if (instruction instanceof FiveRegisterInstruction) {
+                final FiveRegisterInstruction five = (FiveRegisterInstruction) instruction;
+                f.add(five.getRegisterCount()).add(five.getRegisterC()).add(five.getRegisterD())
+                        .add(five.getRegisterE()).add(five.getRegisterF()).add(five.getRegisterG());
+            }
+            if (instruction instanceof RegisterRangeInstruction) {
+                final RegisterRangeInstruction range = (RegisterRangeInstruction) instruction;
+                f.add(range.getStartRegister()).add(range.getRegisterCount());
+            }
+            if (instruction instanceof WideLiteralInstruction) {
+                f.add(((WideLiteralInstruction) instruction).getWideLiteral());
+            }
+            if (instruction instanceof OffsetInstruction) {
+                f.add(((OffsetInstruction) instruction).getCodeOffset());
+            }
+            if (instruction instanceof ReferenceInstruction) {
+                final Reference reference = ((ReferenceInstruction) instruction).getReference();
+                if (reference instanceof FieldReference) {
+                    f.add(((FieldReference) reference).getDefiningClass());
+                } else if (reference instanceof MethodReference) {
+                    f.add(((MethodReference) reference).getDefiningClass());
+                }
+                f.add(Utils.getShortReferenceString(reference));
+            }
+            if (instruction instanceof SwitchPayload) {
+                for (final SwitchElement element : ((SwitchPayload) instruction).getSwitchElements()) {
+                    f.add(element.getKey()).add(element.getOffset());
+                }
+            }
+            if (instruction instanceof ArrayPayload) {
+                f.add(((ArrayPayload) instruction).getElementWidth());
+                for (final Number element : ((ArrayPayload) instruction).getArrayElements()) {
+                    f.add(element.longValue());
+                }
+            }
+        }
+        return f.toHex();
+    }
+
+    private static String global(final Options options, final AllocationTable allocationTable) {
+        final Fingerprint f = new Fingerprint().add(inputs(options)).add(allocationTable.getHeapSize());
+        for (int n = 0; n < allocationTable.size(); n++) {
+            f.add(allocationTable.getInstanceNum(n)).add(allocationTable.getOffset(n)).add(allocationTable.getSize(n))
+                    .add(allocationTable.getClassName(n)).add(allocationTable.getFields(n));
+        }
+        return f.toHex();
+    }
+
+    /*
+     * Digest of what the clauses of every apk depend on besides the apk: the options and the data files in bin/
+     */
+    public static String inputs(final Options options) {
+        final Fingerprint f = new Fingerprint()
+                .add(options.bitvectorSize).add(options.apiLevel).add(options.arrays).add(options.verboseResults)
+                .add(options.stubs).add(options.sensIfHasSink).add(options.oldUnknown).add(options.nfsanalysis)
+                .add(options.pointersMerge).add(options.nopUnknown).add(options.filterClasses)
+                .add(options.filterClassesSound).add(options.localHeapBudget).add(options.methodLocalHeap)
+                .add(options.maxQueries);
+        for (final String name : DATA_FILES) {
+            final File file = new File(name);
+            try {
+                f.add(file.exists() ? new String(Files.readAllBytes(file.toPath()), "UTF-8") : "missing");
+            } catch (IOException e) {
+                throw new RuntimeException("MethodFingerprints: can't read " + name, e);
+            }
+        }
+        return f.toHex();
+    }
+
+    private int[] localHeapEntries(final String className, final String methodName) {
+        if (methodLocalHeap == null) return null;
+        return methodLocalHeap.get(Integer.toString(className.hashCode()) + '_' + Integer.toString(methodName.hashCode()));
+    }
+
+    private static void addType(final Set<String> types, final String type) {
+        if (type == null) return;
+        types.add(type);
+        if (type.startsWith("[")) {
+            addType(types, type.substring(1));
+        }
+    }
+
+    private void addCall(final Fingerprint f, final MethodReference reference, final CallType callType) {
+        final String referenceString = Utils.getShortMethodDescriptor(reference);
+        final String referenceStringClass = reference.getDefiningClass();
+        final int c = referenceStringClass.hashCode();
+        final int m = referenceString.hashCode();
+        f.add(callType.name()).add(referenceStringClass).add(referenceString)
+                .add(analysis.isSource(referenceStringClass, referenceString, c, m))
+                .add(analysis.isSink(referenceStringClass, referenceString, c, m));
+        addDispatch(f, dispatch.dispatch(c, m, referenceStringClass, referenceString, callType));
+        if (callType == CallType.DIRECT && referenceStringClass.equals("Ljava/lang/Thread;")
+                && referenceString.equals("<init>(Ljava/lang/Runnable;)V")) {
+            // the thread is started on its constructor, see FSInstructionAnalysis
+            addDispatch(f, dispatch.dispatch("Ljava/lang/Runnable;".hashCode(), "run()V".hashCode(),
+                    referenceStringClass, referenceString, CallType.INTERFACE));
+        }
+    }
+
+    private void addDispatch(final Fingerprint f, final DispatchResult dispatchResult) {
+        if (dispatchResult == null) {
+            f.add("unknown");
+            return;
+        }
+        final SortedSet<String> implementations = new TreeSet<String>();
+        for (final DalvikImplementation di : dispatchResult.getImplementations()) {
+            final String className = di.getDalvikClass().getType();
+            final DalvikMethod method = di.getMethod();
+            implementations.add(className + "->" + method.getName() + ' ' + method.getNumArg() + ' '
+                    + method.getNumReg() + ' ' + apkClassesMethods.contains(new StringPair(className, method.getName()))
+                    + ' ' + analysis.isSource(className, method.getName(), className.hashCode(), method.getName().hashCode())
+                    + ' ' + analysis.isSink(className, method.getName(), className.hashCode(), method.getName().hashCode())
+                    + ' ' + Arrays.toString(localHeapEntries(className, method.getName())));
+        }
+        for (final String implementation : implementations) {
+            f.add(implementation);
+        }
+        f.add(instances(dispatchResult.getInstances()));
+    }
+
+    /*
+     * Digest of what the rules can use of a class, for a library key without its child classes and allocation sites
+     */
+    private String environment(final String type, final boolean library) {
+        final Map<String, String> cache = library ? libraryEnvironments : environments;
+        final String cached = cache.get(type);
+        if (cached != null) return cached;
+        final Fingerprint f = new Fingerprint().add(type);
+        final int c = type.hashCode();
+        final GeneralClass gc = classes.get(c);
+        if (gc == null) {
+            f.add("unknown");
+        } else {
+            f.add(gc.getClass().getName());
+        }
+        if (gc instanceof DalvikClass) {
+            final DalvikClass dc = (DalvikClass) gc;
+            for (GeneralClass s = dc.getSuperClass(); s != null;
+                 s = s instanceof DalvikClass ? ((DalvikClass) s).getSuperClass() : null) {
+                f.add(s.getType());
+            }
+            f.add("fields");
+            for (final String field : fieldNames(dc.getFields())) {
+                f.add(field);
+            }
+            f.add("exact fields");
+            for (final String field : fieldNames(dc.getExactFields())) {
+                f.add(field);
+            }
+            final SortedSet<String> methods = new TreeSet<String>();
+            for (final DalvikMethod method : dc.getMethods()) {
+                methods.add(method.getName() + ' ' + method.getNumArg() + ' ' + method.getNumReg() + ' '
+                        + method.getReturnType() + ' ' + method.isVoid());
+            }
+            for (final String method : methods) {
+                f.add(method);
+            }
+            if (!library) {
+                final SortedSet<String> children = new TreeSet<String>();
+                for (final DalvikClass child : dc.getChildClasses()) {
+                    children.add(child.getType());
+                }
+                for (final String child : children) {
+                    f.add(child);
+                }
+            }
+        }
+        final Set<Integer> implemented = interfaces.getByClassType(c);
+        if (implemented != null) {
+            for (final Integer i : new TreeSet<Integer>(implemented)) {
+                f.add(i);
+            }
+        }
+        f.add(analysis.hasStaticConstructor(c));
+        if (!library) {
+            f.add(instances(instances.getByType(c)));
+        }
+        final String environment = f.toHex();
+        cache.put(type, environment);
+        return environment;
+    }
+
+    private static SortedSet<String> fieldNames(final Set<DalvikField> fields) {
+        final SortedSet<String> names = new TreeSet<String>();
+        if (fields != null) {
+            for (final DalvikField field : fields) {
+                names.add(field.getName());
+            }
+        }
+        return names;
+    }
+
+    private static String instances(final Set<DalvikInstance> set) {
+        if (set == null) return "none";
+        final SortedSet<String> sites = new TreeSet<String>();
+        for (final DalvikInstance instance : set) {
+            sites.add(instance.getC() + "_" + instance.getM() + "_" + instance.getPC() + ' '
+                    + (instance.getType() == null ? null : instance.getType().getType()) + ' ' + instance.isObj()
+                    + ' ' + instance.isNewInstance());
+        }
+        final Fingerprint f = new Fingerprint();
+        for (final String site : sites) {
+            f.add(site);
+        }
+        return f.toHex();
+    }
+}
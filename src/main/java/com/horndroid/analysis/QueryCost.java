@@ -0,0 +1,177 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 TU Wien
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.horndroid.analysis;
+
+import com.horndroid.Dalvik.DalvikClass;
+import com.horndroid.Dalvik.DalvikImplementation;
+import com.horndroid.Dalvik.DalvikMethod;
+import com.horndroid.Dalvik.GeneralClass;
+import com.horndroid.util.Utils;
+import com.horndroid.util.Utils.CallType;
+import org.jf.dexlib2.iface.instruction.Instruction;
+import org.jf.dexlib2.iface.instruction.ReferenceInstruction;
+import org.jf.dexlib2.iface.reference.MethodReference;
+
+import java.util.*;
+
+/*
+ * Estimates the cost of the queries raised in a method from the call graph of the apk:
+ * - the slice size, i.e. the number of instructions of the method and of all the methods that can (transitively)
+ *   invoke it, the rules the solver may have to unfold to reach the query;
+ * - the call depth of the method from the entry points (methods that are entry points or have no known caller).
+ */
+public class QueryCost {
+    private final Map<String, Integer> sizes = new HashMap<String, Integer>();
+    private final Map<String, Set<String>> callers = new HashMap<String, Set<String>>();
+    private final Map<String, Integer> depths = new HashMap<String, Integer>();
+    private final Map<String, Long> sliceSizes = new HashMap<String, Long>();
+
+    QueryCost(final Analysis analysis, final Map<Integer, GeneralClass> classes) {
+        final Dispatch dispatch = analysis.makeDispatch();
+        final Map<String, Set<String>> callees = new HashMap<String, Set<String>>();
+        for (final GeneralClass c : classes.values()) {
+            if (c instanceof DalvikClass) {
+                for (final DalvikMethod m : ((DalvikClass) c).getMethods()) {
+                    final String key = key(c.getType(), m.getName());
+                    sizes.put(key, m.getInstructions().size());
+                    callees.put(key, invokedMethods(dispatch, m));
+                    if (!callers.containsKey(key)) callers.put(key, new HashSet<String>());
+                }
+            }
+        }
+        for (final Map.Entry<String, Set<String>> caller : callees.entrySet()) {
+            for (final String callee : caller.getValue()) {
+                if (!callers.containsKey(callee)) callers.put(callee, new HashSet<String>());
+                callers.get(callee).add(caller.getKey());
+            }
+        }
+
+        // breadth first from the entry points
+        final Deque<String> queue = new ArrayDeque<String>();
+        for (final GeneralClass c : classes.values()) {
+            if (c instanceof DalvikClass) {
+                for (final DalvikMethod m : ((DalvikClass) c).getMethods()) {
+                    final String key = key(c.getType(), m.getName());
+                    if (callers.get(key).isEmpty() || analysis.isEntryPoint(c.getType().hashCode(), m.getName().hashCode())) {
+                        depths.put(key, 0);
+                        queue.add(key);
+                    }
+                }
+            }
+        }
+        while (!queue.isEmpty()) {
+            final String key = queue.poll();
+            final Set<String> invoked = callees.get(key);
+            if (invoked == null) continue;
+            for (final String callee : invoked) {
+                if (!depths.containsKey(callee)) {
+                    depths.put(callee, depths.get(key) + 1);
+                    queue.add(callee);
+                }
+            }
+        }
+    }
+
+    private static String key(final String className, final String methodName) {
+        return className + ' ' + methodName;
+    }
+
+    private static Set<String> invokedMethods(final Dispatch dispatch, final DalvikMethod m) {
+        final Set<String> invoked = new HashSet<String>();
+        for (final Instruction instruction : m.getInstructions()) {
+            final CallType callType = getCallType(instruction);
+            if (callType == null) continue;
+            final MethodReference reference = (MethodReference) ((ReferenceInstruction) instruction).getReference();
+            final String referenceString = Utils.getShortMethodDescriptor(reference);
+            final String referenceStringClass = reference.getDefiningClass();
+            final DispatchResult dispatchResult = dispatch.dispatch(referenceStringClass.hashCode(), referenceString.hashCode(),
+                    referenceStringClass, referenceString, callType);
+            if (dispatchResult == null) continue;
+            for (final DalvikImplementation di : dispatchResult.getImplementations()) {
+                invoked.add(key(di.getDalvikClass().getType(), di.getMethod().getName()));
+            }
+        }
+        return invoked;
+    }
+
+    /*
+     * Dispatch kind of an invoke instruction, null for the other instructions
+     */
+    static CallType getCallType(final Instruction instruction) {
+        switch (instruction.getOpcode()) {
+            case INVOKE_VIRTUAL:
+            case INVOKE_VIRTUAL_RANGE:
+                return CallType.VIRTUAL;
+            case INVOKE_SUPER:
+            case INVOKE_SUPER_RANGE:
+                return CallType.SUPER;
+            case INVOKE_DIRECT:
+            case INVOKE_DIRECT_RANGE:
+                return CallType.DIRECT;
+            case INVOKE_STATIC:
+            case INVOKE_STATIC_RANGE:
+                return CallType.STATIC;
+            case INVOKE_INTERFACE:
+            case INVOKE_INTERFACE_RANGE:
+                return CallType.INTERFACE;
+            default:
+                return null;
+        }
+    }
+
+    /*
+     * Call depth from the entry points, Integer.MAX_VALUE if the method is not reachable
+     */
+    public int getDepth(final String className, final String methodName) {
+        final Integer depth = depths.get(key(className, methodName));
+        return depth == null ? Integer.MAX_VALUE : depth;
+    }
+
+    /*
+     * Number of instructions of the method and of its transitive callers
+     */
+    public synchronized long getSliceSize(final String className, final String methodName) {
+        final String method = key(className, methodName);
+        final Long cached = sliceSizes.get(method);
+        if (cached != null) return cached;
+        long size = 0;
+        final Set<String> visited = new HashSet<String>();
+        final Deque<String> queue = new ArrayDeque<String>();
+        visited.add(method);
+        queue.add(method);
+        while (!queue.isEmpty()) {
+            final String key = queue.poll();
+            final Integer own = sizes.get(key);
+            if (own != null) size += own;
+            final Set<String> from = callers.get(key);
+            if (from == null) continue;
+            for (final String caller : from) {
+                if (visited.add(caller)) queue.add(caller);
+            }
+        }
+        sliceSizes.put(method, size);
+        return size;
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 TU Wien
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.horndroid.analysis;
+
+import com.horndroid.Dalvik.DalvikClass;
+import com.horndroid.Dalvik.GeneralClass;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+/*
+ * Models of library methods (bin/StubModels.txt): calls that do nothing and manual stubs. The table is keyed by the
+ * class and method hashes; a lookup follows the superclasses of the invoked class and is cached per analysis, a skip
+ * model found anywhere in the chain taking precedence over the other models.
+ */
+class StubRegistry {
+    enum Kind {
+        SKIP, SOURCE, PRIMITIVE, OBJECT, PUT, ADD, GET
+    }
+
+    static final class Stub {
+        final Kind kind;
+        final int heapType; // class hash the container contents are stored under in the heap (PUT, ADD and GET)
+
+        Stub(final Kind kind, final int heapType) {
+            this.kind = kind;
+            this.heapType = heapType;
+        }
+    }
+
+    private static final String MODELS = "bin/StubModels.txt";
+    private static final Stub NONE = new Stub(null, 0);
+    private static volatile Map<Long, Stub> table;
+
+    private final Analysis analysis;
+    private final Map<Long, Stub> resolved = new ConcurrentHashMap<Long, Stub>();
+
+    StubRegistry(final Analysis analysis) {
+        this.analysis = analysis;
+    }
+
+    private static long key(final int c, final int m) {
+        return ((long) c << 32) | (m & 0xffffffffL);
+    }
+
+    /*
+     * The model of method m invoked on class c or one of its superclasses, null if the call is not modelled
+     */
+    Stub lookup(final int c, final int m) {
+        final long key = key(c, m);
+        Stub stub = resolved.get(key);
+        if (stub == null) {
+            stub = resolve(c, m, true);
+            if (stub == null) stub = resolve(c, m, false);
+            if (stub == null) stub = NONE;
+            resolved.put(key, stub);
+        }
+        return stub == NONE ? null : stub;
+    }
+
+    private Stub resolve(int c, final int m, final boolean skip) {
+        final Map<Long, Stub> models = getTable();
+        final Set<Integer> seen = new HashSet<Integer>();
+        while (seen.add(c)) {
+            final Stub stub = models.get(key(c, m));
+            if (stub != null && (stub.kind == Kind.SKIP) == skip) return stub;
+            final GeneralClass generalClass = analysis.getGeneralClass(c);
+            if (!(generalClass instanceof DalvikClass) || ((DalvikClass) generalClass).getSuperClass() == null) break;
+            c = ((DalvikClass) generalClass).getSuperClass().getType().hashCode();
+        }
+        return null;
+    }
+
+    /*
+     * Class hashes the modelled containers are stored under, they reach the clauses as constants
+     */
+    static Set<Integer> getHeapTypes() {
+        final Set<Integer> heapTypes = new HashSet<Integer>();
+        for (final Stub stub : getTable().values()) {
+            if (stub.heapType != 0) heapTypes.add(stub.heapType);
+        }
+        return heapTypes;
+    }
+
+    private static Map<Long, Stub> getTable() {
+        Map<Long, Stub> models = table;
+        if (models == null) {
+            synchronized (StubRegistry.class) {
+                models = table;
+                if (models == null) {
+                    models = load();
+                    table = models;
+                }
+            }
+        }
+        return models;
+    }
+
+    /*
+     * From bin/StubModels.txt in the working directory, like the other bin files, else from the classpath
+     */
+    private static Map<Long, Stub> load() {
+        final File file = new File(MODELS);
+        try (InputStream in = file.exists() ? new FileInputStream(file)
+                : StubRegistry.class.getClassLoader().getResourceAsStream(MODELS)) {
+            if (in == null) throw new RuntimeException("StubRegistry: " + MODELS + " not found");
+            return parse(new BufferedReader(new InputStreamReader(in, "UTF-8")));
+        } catch (IOException e) {
+            throw new RuntimeException("StubRegistry: can't read " + MODELS, e);
+        }
+    }
+
+    private static Map<Long, Stub> parse(final BufferedReader br) throws IOException {
+        final Map<Long, Stub> models = new HashMap<Long, Stub>();
+        String line;
+        while ((line = br.readLine()) != null) {
+            if (line.isEmpty() || line.charAt(0) == '%') continue;
+            final String[] parts = line.split(Pattern.quote(" "));
+            final Kind kind = Kind.valueOf(parts[0].toUpperCase(Locale.ROOT));
+            final int heapType = parts.length > 3 ? parts[3].hashCode() : 0;
+            if ((kind == Kind.PUT || kind == Kind.ADD || kind == Kind.GET) && parts.length < 4) {
+                throw new RuntimeException("StubRegistry: missing heap type in " + line);
+            }
+            models.put(key(parts[1].hashCode(), parts[2].hashCode()), new Stub(kind, heapType));
+        }
+        return Collections.unmodifiableMap(models);
+    }
+}
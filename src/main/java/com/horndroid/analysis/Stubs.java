@@ -24,19 +24,17 @@
 
 package com.horndroid.analysis;
 
-import com.google.common.collect.Sets;
-
-
-
 import java.io.File;
 import java.io.IOException;
+import java.util.AbstractMap;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
-import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 
+import com.horndroid.Dalvik.DalvikClass;
 import com.horndroid.Dalvik.GeneralClass;
 import com.horndroid.Dalvik.Instances;
 import com.horndroid.Dalvik.Interfaces;
@@ -45,16 +43,23 @@ import com.horndroid.payload.ArrayData;
 import com.horndroid.payload.PackedSwitch;
 import com.horndroid.payload.SparseSwitch;
 import com.horndroid.strings.ConstString;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 import org.jf.dexlib2.DexFileFactory;
 import org.jf.dexlib2.dexbacked.DexBackedDexFile;
 import org.jf.dexlib2.iface.ClassDef;
 
 
-
-import com.google.common.collect.Ordering;
-
-
+/*
+ * Standard java and android classes (classes.dex and classes2.dex). The dex files are only indexed by process: a class
+ * is extracted, with its super classes and interfaces, the first time getClasses() is asked for it, so that only the
+ * part of the library reached from the apk by Dispatch and fetchUnknownMethod is held in memory. The index is shared,
+ * the extracted classes are not: each analysis works on its own view (forApk) so that its result does not depend on
+ * the apks analysed before it. With -f the class filter of the apk applies to the library classes as well (isFiltered)
+ */
 public class Stubs {
+    private static final Logger LOGGER = LogManager.getLogger(Stubs.class);
+
     final private Map<Integer,GeneralClass> classes;
     final private Instances instances;
     final private Set<ArrayData> arrayDataPayload;
@@ -64,8 +69,20 @@ public class Stubs {
     final private Set<ConstString> constStrings;
     final private Options options;
     final private Interfaces interfaces;
+    final private Map<Integer,ClassDef> classDefs; // type hash -> class of the dex files, extracted on demand
+    final private Map<Integer,GeneralClass> loadingClasses;
+    private DataExtraction de = null;
+    private Set<Integer> allowed = Collections.emptySet();
+    private int filterClasses = 0;
+    private boolean filterSound = false;
+    private int filterBudget = 0; // other classes this view may still extract, see isFiltered
+    private boolean instancesResolved = true; // false when classes were extracted since the last getInstances
 
     public Stubs(Options options){
+        this(options, new HashMap<Integer, ClassDef>());
+    }
+
+    private Stubs(Options options, Map<Integer,ClassDef> classDefs){
         //TODO: beautiful definitions like the one for classes
         this.classes = new ConcurrentHashMap<Integer, GeneralClass>();
         this.instances = new Instances();
@@ -76,56 +93,192 @@ public class Stubs {
         this.options = options;
         this.staticConstructor = Collections.synchronizedSet(new HashSet<Integer>());
         this.interfaces = new Interfaces();
+        this.classDefs = classDefs;
+        this.loadingClasses = new LoadingClasses();
     }
-    public void process(final Set<Integer> allowed, int filterClasses, boolean filterSound){
+    /*
+     * Index the classes of classes.dex and classes2.dex, allowed, filterClasses and filterSound are the class filter
+     * of the apks (-f)
+     */
+    public void process(final Set<Integer> allowed, final int filterClasses, final boolean filterSound){
         long startTime, endTime;
 
         File andFile = new File("classes.dex");
         File andFile2 = new File("classes2.dex");
 
         if (!andFile.exists() || !andFile2.exists()) {
-            System.err.println("Can't find the file android.dex");
-            System.exit(1);
+            throw new RuntimeException("Stubs: can't find classes.dex and classes2.dex");
         }
-        DexBackedDexFile dexFile = null;
-        DexBackedDexFile dexFile2 = null;
+        DexBackedDexFile dexFile;
+        DexBackedDexFile dexFile2;
         try {
-            System.out.println("Loading dex files....");
+            LOGGER.info("Loading dex files....");
             startTime = System.nanoTime();
             dexFile = DexFileFactory.loadDexFile(andFile, options.apiLevel, false);
             dexFile2 = DexFileFactory.loadDexFile(andFile2, options.apiLevel, false);
             if (dexFile.isOdexFile() || dexFile2.isOdexFile()) {
-                System.err.println("Error: Odex files are not supported");
+                LOGGER.error("Error: Odex files are not supported");
             }
             endTime = System.nanoTime();
-            System.out.println("done in " + Long.toString((endTime - startTime) / 1000000) + " milliseconds");
+            LOGGER.info("done in " + Long.toString((endTime - startTime) / 1000000) + " milliseconds");
         } catch (IOException e) {
-            System.err.println("Error: Loading dex file failed!");
-            System.exit(1);
+            throw new RuntimeException("Stubs: loading the dex files failed", e);
         }
-//        List<? extends ClassDef> classDefs = Ordering.natural().sortedCopy(dexFile.getClasses(), dexFile2.getClasses());
-        System.out.println("union-ing and sorting dex classes...");
+        LOGGER.info("indexing dex classes...");
         startTime = System.nanoTime();
-        List<? extends ClassDef> classDefs = Ordering.natural().sortedCopy(Sets.union(dexFile.getClasses(), dexFile2.getClasses()));
+        synchronized (this) {
+            this.allowed = allowed;
+            this.filterClasses = filterClasses;
+            this.filterSound = filterSound;
+            this.filterBudget = filterClasses;
+            // as in the union of the two files, a class of classes.dex hides the one of classes2.dex
+            index(dexFile.getClasses());
+            index(dexFile2.getClasses());
+            de = newExtraction();
+        }
         endTime = System.nanoTime();
-        System.out.println("done in " + Long.toString((endTime - startTime) / 1000000) + " milliseconds");
+        LOGGER.info("done in " + Long.toString((endTime - startTime) / 1000000) + " milliseconds, "
+                + classDefs.size() + " classes");
+    }
 
-        System.out.println("data extracting...");
-        startTime = System.nanoTime();
-        DataExtraction de = new DataExtraction(classes, instances, arrayDataPayload, packedSwitchPayload, sparseSwitchPayload, staticConstructor, constStrings, new HashSet<Integer>(),
-                false, null, null, null, null, interfaces,
+    private DataExtraction newExtraction(){
+        return new DataExtraction(classes, instances, arrayDataPayload, packedSwitchPayload, sparseSwitchPayload,
+                staticConstructor, constStrings, new HashSet<Integer>(), false, null, null, null, null, interfaces,
                 allowed, filterClasses, filterSound);
-        de.collectData(classDefs);
-        endTime = System.nanoTime();
-        System.out.println("done in " + Long.toString((endTime - startTime) / 1000000) + " milliseconds");
+    }
+
+    /*
+     * A view of the indexed classes with nothing extracted yet, for the analysis of one apk
+     */
+    public synchronized Stubs forApk(){
+        final Stubs view = new Stubs(options, classDefs);
+        view.allowed = allowed;
+        view.filterClasses = filterClasses;
+        view.filterSound = filterSound;
+        view.filterBudget = filterClasses;
+        if (de != null) {
+            view.de = view.newExtraction();
+        }
+        return view;
+    }
 
+    private void index(final Set<? extends ClassDef> defs){
+        for (final ClassDef classDef : defs) {
+            // skipped by DataExtraction.collectData
+            if (classDef.getType().startsWith("Landroid/support/v4/") || classDef.getType().startsWith("Landroid/support/v7/")){
+                continue;
+            }
+            if (!classDefs.containsKey(classDef.getType().hashCode())) {
+                classDefs.put(classDef.getType().hashCode(), classDef);
+            }
+        }
     }
+
+    /*
+     * Extract the class of this type hash and, before returning it, its super classes and interfaces. The class is
+     * stored before its super types are loaded so that a cycle in a corrupted dex file ends
+     */
+    private synchronized GeneralClass load(final int type){
+        return load(type, false);
+    }
+
+    private GeneralClass load(final int type, final boolean superClass){
+        final GeneralClass c = classes.get(type);
+        if (c != null || de == null) {
+            return c;
+        }
+        final ClassDef classDef = classDefs.get(type);
+        if (classDef == null || (!superClass && isFiltered(classDef))) {
+            return null;
+        }
+        final DalvikClass dc = de.collectClass(classDef);
+        if (classDef.getSuperclass() == null) {
+            // Happens only for Ljava/lang/Object;
+            dc.putSuperClass(null);
+        } else {
+            final GeneralClass cs = load(classDef.getSuperclass().hashCode(), true);
+            if (cs != null) {
+                dc.putSuperClass(cs);
+                if (cs instanceof DalvikClass) {
+                    ((DalvikClass) cs).putChildClass(dc);
+                }
+            }
+        }
+        for (final String interfaceName : classDef.getInterfaces()) {
+            load(interfaceName.hashCode(), false);
+        }
+        instancesResolved = false;
+        return dc;
+    }
+
+    /*
+     * As DataExtraction.modifyClassStructure for the classes of the apk, with -f only the classes whose name is allowed,
+     * their super classes (load keeps them), their child classes and filterClasses - 1 other classes are extracted
+     */
+    private boolean isFiltered(final ClassDef classDef){
+        if (filterClasses <= 0) {
+            return false;
+        }
+        final Set<Integer> seen = new HashSet<Integer>();
+        for (ClassDef c = classDef; c != null && seen.add(c.getType().hashCode());
+             c = c.getSuperclass() == null ? null : classDefs.get(c.getSuperclass().hashCode())) {
+            if (allowed.contains(DataExtraction.makeNameIgnoreDollar(c.getType()).hashCode())) {
+                return false;
+            }
+        }
+        if (filterBudget > 1) {
+            filterBudget--;
+            return false;
+        }
+        return true;
+    }
+
+    /*
+     * The view of the classes handed out by getClasses: a lookup loads the class, iterating only sees the classes
+     * loaded so far
+     */
+    private final class LoadingClasses extends AbstractMap<Integer,GeneralClass> {
+        @Override
+        public GeneralClass get(Object key) {
+            return key instanceof Integer ? load((Integer) key) : null;
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return get(key) != null;
+        }
+
+        @Override
+        public Set<Map.Entry<Integer,GeneralClass>> entrySet() {
+            return Collections.unmodifiableMap(classes).entrySet();
+        }
+    }
+
+    /*
+     * The indexed class of this type hash, without extracting it
+     */
+    public synchronized ClassDef getClassDef(final int type) {
+        return classDefs.get(type);
+    }
+
     public Map<Integer,GeneralClass> getClasses() {
-        return classes;
+        return loadingClasses;
     }
     
     
-    public Instances getInstances(){
+    /*
+     * Instances allocated by the loaded classes, their types resolved against the loaded classes as in
+     * DataExtraction.formClassStructure
+     */
+    public synchronized Instances getInstances(){
+        if (!instancesResolved) {
+            for (final GeneralClass c : classes.values()) {
+                if (c instanceof DalvikClass) {
+                    instances.changeType((DalvikClass) c);
+                }
+            }
+            instancesResolved = true;
+        }
         return instances;
     }
     
@@ -27,8 +27,15 @@ package com.horndroid.executors;
 import com.google.common.collect.Ordering;
 import com.horndroid.Options;
 import com.horndroid.analysis.Analysis;
+import com.horndroid.analysis.BitvectorWidth;
+import com.horndroid.analysis.MethodFingerprints;
 import com.horndroid.analysis.Stubs;
+import com.horndroid.exceptions.ReportWritingException;
+import com.horndroid.model.Metrics;
 import com.horndroid.model.Report;
+import com.horndroid.model.ReportEntry;
+import com.horndroid.printers.StreamingReportWriter;
+import com.horndroid.util.Fingerprint;
 import com.horndroid.util.SourceSinkParser;
 import com.horndroid.util.SourcesSinks;
 import com.horndroid.z3.FSEngine;
@@ -38,11 +45,15 @@ import org.apache.logging.log4j.Logger;
 import org.jf.dexlib2.DexFileFactory;
 import org.jf.dexlib2.dexbacked.DexBackedDexFile;
 import org.jf.dexlib2.iface.ClassDef;
+import org.jf.dexlib2.iface.Method;
+import org.jf.dexlib2.iface.MethodImplementation;
+import org.jf.dexlib2.iface.instruction.Instruction;
 import org.xml.sax.SAXException;
 
 import javax.xml.parsers.ParserConfigurationException;
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
@@ -62,6 +73,8 @@ public class HorndroidExecutor {
     private Options hornDroidOptions = new Options();
     private String apkToolDirPath = "./";
     private String inputApkPath = "";
+    private long sourcesSinksDuration = 0;
+    private StreamingReportWriter reportWriter; // of the apk being analysed
 
 
     public HorndroidExecutor(Options hornDroidOptions, String apkToolPath, String inputApkPath) {
@@ -75,6 +88,16 @@ public class HorndroidExecutor {
         this.inputApkPath = inputApkPath;
     }
 
+    /*
+     * Logs the duration of a phase started at startTime and records it in the metrics
+     */
+    private static void endPhase(Metrics metrics, String phase, long startTime, String message) {
+        long duration = (System.nanoTime() - startTime) / MILLISECONDS_IN_SECOND_CONSTANT;
+        LOGGER.debug(message + Long.toString(duration) + TIME_DISPLAY_MILLISECONDS_CONSTANT);
+        metrics.addPhaseDuration(phase, duration);
+        metrics.samplePhaseHeap(phase);
+    }
+
     private static void confirmApkExistence(String inputApkFileName, File apkFile) {
         if (!apkFile.exists()) {
             LOGGER.error("Can't find the file " + inputApkFileName);
@@ -87,6 +110,10 @@ public class HorndroidExecutor {
         long endTime;
         File inputApkFile = new File(inputApkPath);
         LinkedHashSet<File> filesToProcess = new LinkedHashSet<File>();
+        if (hornDroidOptions.importDirectory != null) {
+            getImportedFiles(inputApkFile, filesToProcess);
+            return filesToProcess;
+        }
         if (!inputApkFile.exists()) {
             throw new RuntimeException("Cannot find file or directory \"" + inputApkFile + "\"");
         }
@@ -110,18 +137,20 @@ public class HorndroidExecutor {
      */
     private SourcesSinks getSourcesAndSinks() {
 
-        final SourcesSinks sourcesSinks = new SourcesSinks();
+        SourcesSinks sourcesSinks = null;
         File sourceSinkFile = new File("bin/SourcesAndSinks.txt");
         long startTime = System.nanoTime();
         LOGGER.debug("Parsing sources and sinks...");
         try {
-            SourceSinkParser.parseSourceSink(sourceSinkFile, sourcesSinks);
+            sourcesSinks = SourceSinkParser.loadSourceSink(sourceSinkFile,
+                    new File(sourceSinkFile.getPath() + ".compiled"));
         } catch (IOException e) {
             LOGGER.error("Error: Parsing sources/sinks file failed! with exception", e);
             System.exit(1);
         }
         long endTime = System.nanoTime();
-        LOGGER.debug("done in " + Long.toString((endTime - startTime) / MILLISECONDS_IN_SECOND_CONSTANT) +
+        sourcesSinksDuration = (endTime - startTime) / MILLISECONDS_IN_SECOND_CONSTANT;
+        LOGGER.debug("done in " + Long.toString(sourcesSinksDuration) +
                 TIME_DISPLAY_MILLISECONDS_CONSTANT);
 
         return sourcesSinks;
@@ -144,74 +173,80 @@ public class HorndroidExecutor {
                 TIME_DISPLAY_MILLISECONDS_CONSTANT);
     }
 
-    private Report executeQueries(FSEngine fsEngine,Analysis analysis, String tag) {
+    private Report executeQueries(FSEngine fsEngine,Analysis analysis, String tag, Metrics metrics) {
         long startTime;
-        long endTime;
         LOGGER.debug("Executing all queries...");
         startTime = System.nanoTime();
 
         Report report = fsEngine.executeAllQueries(analysis,tag);
-        endTime = System.nanoTime();
-        LOGGER.debug("...done in " + Long.toString((endTime - startTime) / MILLISECONDS_IN_SECOND_CONSTANT) +
-                TIME_DISPLAY_MILLISECONDS_CONSTANT);
+        endPhase(metrics, "queries", startTime, "...done in ");
         return report;
     }
 
     private void generateHornClauses(Analysis analysis, List<? extends ClassDef> classDefs,
-                                     final Set<Integer> allowed) {
+                                     final Set<Integer> allowed, Metrics metrics) {
         long startTime;
-        long endTime;
         LOGGER.debug("Collecting data for Horn Clause generation...");
         startTime = System.nanoTime();
         analysis.collectDataFromApk(classDefs, allowed);
-        endTime = System.nanoTime();
-        LOGGER.debug("done in " + Long.toString((endTime - startTime) / MILLISECONDS_IN_SECOND_CONSTANT) +
-                TIME_DISPLAY_MILLISECONDS_CONSTANT);
+        endPhase(metrics, "data_collection", startTime, "done in ");
 
 
         LOGGER.debug("Generating Horn Clauses..");
         startTime = System.nanoTime();
         analysis.createHornClauses();
-        endTime = System.nanoTime();
-        LOGGER.debug("...done in " + Long.toString((endTime - startTime) / MILLISECONDS_IN_SECOND_CONSTANT) +
-                TIME_DISPLAY_MILLISECONDS_CONSTANT);
+        endPhase(metrics, "clause_generation", startTime, "...done in ");
     }
 
-    private List<? extends ClassDef> sortClasses(DexBackedDexFile dexFile) {
+    private List<? extends ClassDef> sortClasses(DexBackedDexFile dexFile, Metrics metrics) {
         long startTime;
-        long endTime;
 
         LOGGER.debug("Sorting classes...");
         startTime = System.nanoTime();
         List<? extends ClassDef> classDefs = Ordering.natural().sortedCopy(dexFile.getClasses());
-        endTime = System.nanoTime();
-        LOGGER.debug("done in " + Long.toString((endTime - startTime) / MILLISECONDS_IN_SECOND_CONSTANT) +
-                TIME_DISPLAY_MILLISECONDS_CONSTANT);
+        endPhase(metrics, "sort", startTime, "done in ");
 
         return classDefs;
     }
 
-    private void parseCallBacksAndDisabledActivities(File file, String inputApkFileName, Analysis analysis) {
+    private void countProgram(List<? extends ClassDef> classDefs, Metrics metrics) {
+        long methods = 0;
+        long instructions = 0;
+        for (ClassDef classDef : classDefs) {
+            for (Method method : classDef.getMethods()) {
+                methods++;
+                MethodImplementation methodImpl = method.getImplementation();
+                if (methodImpl == null) continue;
+                for (Instruction instruction : methodImpl.getInstructions()) {
+                    instructions++;
+                }
+            }
+        }
+        metrics.setCounter("classes", classDefs.size());
+        metrics.setCounter("methods", methods);
+        metrics.setCounter("instructions", instructions);
+    }
+
+    private void parseCallBacksAndDisabledActivities(File file, String inputApkFileName, Analysis analysis,
+                                                     Metrics metrics) {
         long startTime;
-        long endTime;
 
         startTime = System.nanoTime();
         LOGGER.debug("Parsing callbacks and disabled activities...");
         try {
-            SourceSinkParser.parseCallbacksFromXml(analysis,
-                    hornDroidOptions.outputDirectory, file.getAbsolutePath(), apkToolDirPath);
+            if (!hornDroidOptions.skipApktool) {
+                SourceSinkParser.decodeApk(hornDroidOptions.outputDirectory, file.getAbsolutePath(), apkToolDirPath);
+            }
+            SourceSinkParser.parseCallbacksFromXml(analysis, hornDroidOptions.outputDirectory);
         } catch (SAXException | ParserConfigurationException | IOException e) {
             LOGGER.error("Error: Can't read xml! " + inputApkFileName, e);
             System.exit(1);
         }
-        endTime = System.nanoTime();
-        LOGGER.debug("...done in " + Long.toString((endTime - startTime) / MILLISECONDS_IN_SECOND_CONSTANT)
-                + TIME_DISPLAY_MILLISECONDS_CONSTANT);
+        endPhase(metrics, "callbacks", startTime, "...done in ");
     }
 
-    private void parseEntryPoints(String inputApkFileName, Analysis analysis) {
+    private void parseEntryPoints(String inputApkFileName, Analysis analysis, Metrics metrics) {
         long startTime;
-        long endTime;
         startTime = System.nanoTime();
         LOGGER.debug("Parsing entry points...");
         try {
@@ -220,9 +255,7 @@ public class HorndroidExecutor {
             LOGGER.error("Error: Can't read entry points file! " + inputApkFileName);
             System.exit(1);
         }
-        endTime = System.nanoTime();
-        LOGGER.debug("done in " + Long.toString((endTime - startTime) / MILLISECONDS_IN_SECOND_CONSTANT)
-                + TIME_DISPLAY_MILLISECONDS_CONSTANT);
+        endPhase(metrics, "entry_points", startTime, "done in ");
     }
 
     private FSEngine initializeHornDroid(String shortFilename, String fullPath) {
@@ -244,6 +277,28 @@ public class HorndroidExecutor {
         return dexFile;
     }
 
+    /*
+     * With --import the apks are not needed: one <apk name> per <apk name>.smt2 of the import directory, or only the
+     * one named by the input path when it is not a directory
+     */
+    private void getImportedFiles(File inputApkFile, Set<File> apkFiles) {
+        File importDirectory = new File(hornDroidOptions.importDirectory);
+        if (!inputApkFile.isDirectory() && getClauseFile(hornDroidOptions.importDirectory, inputApkFile).isFile()) {
+            apkFiles.add(new File(importDirectory, inputApkFile.getName()));
+            return;
+        }
+        File[] files = importDirectory.listFiles();
+        if (files == null) {
+            throw new RuntimeException("Cannot read the import directory \"" + importDirectory + "\"");
+        }
+        Arrays.sort(files);
+        for (File file : files) {
+            if (file.isFile() && file.getName().endsWith(".smt2")) {
+                apkFiles.add(new File(importDirectory, FilenameUtils.removeExtension(file.getName())));
+            }
+        }
+    }
+
     private void getApkFilesInDir(File dir, Set<File> apkFiles) {
         File[] files = dir.listFiles();
         if (files != null) {
@@ -263,35 +318,216 @@ public class HorndroidExecutor {
         return new HashSet<Integer>();
     }
 
+    /*
+     * Narrowest bitvector width for the identifiers of the apk, queries of lossyMethods need the full width
+     */
+    private int selectBitvectorSize(List<? extends ClassDef> classDefs, Stubs stubs, Set<String> lossyMethods,
+                                    Metrics metrics) {
+        long startTime;
+        LOGGER.debug("Selecting bitvector size...");
+        startTime = System.nanoTime();
+        BitvectorWidth bitvectorWidth = new BitvectorWidth();
+        bitvectorWidth.collect(classDefs, hornDroidOptions.stubs ? stubs : null);
+        int bitvectorSize = bitvectorWidth.getIdWidth();
+        lossyMethods.addAll(bitvectorWidth.getLossyMethods(bitvectorSize));
+        endPhase(metrics, "bitvector_size_selection", startTime, "done in ");
+        LOGGER.info("Selected " + bitvectorSize + " bitvectors size for " + bitvectorWidth.getNumberOfIds()
+                + " identifiers, " + lossyMethods.size() + " methods fall back to " + BitvectorWidth.MAX_WIDTH);
+        return bitvectorSize;
+    }
+
+    private Report analyseApk(final File file, SourcesSinks sourcesSinks, Stubs stubs, List<? extends ClassDef> classDefs,
+                              final Set<Integer> allowed, Set<String> querySelection, boolean querySelectionOnly,
+                              Metrics metrics) {
+        final String shortFilename = FilenameUtils.removeExtension(file.getName());
+        final String fullPath = '/' + FilenameUtils.getPath(file.getPath());
+        final String inputApkFileName = '/' + FilenameUtils.getPath(file.getPath()) + file.getName();
+        final FSEngine fsengine = initializeHornDroid(shortFilename, fullPath);
+        fsengine.setQuerySelection(querySelection, querySelectionOnly);
+        fsengine.setReportWriter(reportWriter);
+
+        final ExecutorService instructionExecutorService = Executors.newCachedThreadPool();
+        // a fresh view of the stubs, the classes extracted for previous apks must not leak into this one
+        Analysis analysis = new Analysis(fsengine, sourcesSinks, hornDroidOptions, instructionExecutorService,
+                stubs.forApk());
+        final File checkpointDirectory = new File(hornDroidOptions.outputDirectory + "/checkpoint/"
+                + hornDroidOptions.bitvectorSize);
+        boolean generated = false;
+        if (hornDroidOptions.importDirectory != null) {
+            long startTime = System.nanoTime();
+            fsengine.importClauses(getClauseFile(hornDroidOptions.importDirectory, file));
+            endPhase(metrics, "import", startTime, "Clauses imported in ");
+        } else if (!(hornDroidOptions.resume
+                && fsengine.resumeFrom(checkpointDirectory, getCheckpointFingerprint(file)))) {
+            parseEntryPoints(inputApkFileName,analysis, metrics);
+            parseCallBacksAndDisabledActivities(file, inputApkFileName, analysis, metrics);
+            if (hornDroidOptions.incrementalDirectory != null) {
+                fsengine.openIncrementalModel(getModelDirectory(analysis, file));
+            }
+            if (hornDroidOptions.summaryCacheDirectory != null) {
+                fsengine.openSummaryCache(new File(hornDroidOptions.summaryCacheDirectory));
+            }
+            generateHornClauses(analysis, classDefs, allowed, metrics);
+            generated = true;
+        }
+        awaitThreadTermination(instructionExecutorService);
+        if (generated && (hornDroidOptions.checkpoint || hornDroidOptions.resume)) {
+            long startTime = System.nanoTime();
+            fsengine.checkpointTo(checkpointDirectory, getCheckpointFingerprint(file));
+            endPhase(metrics, "checkpoint", startTime, "Checkpoint written in ");
+        }
+        metrics.setCounter("rules", fsengine.getNumberOfRules());
+        metrics.setCounter("relations", fsengine.getNumberOfRelations());
+        if (hornDroidOptions.exportDirectory != null) {
+            // generation only, the queries are answered by a run with --import
+            long startTime = System.nanoTime();
+            fsengine.exportClauses(getClauseFile(hornDroidOptions.exportDirectory, file));
+            endPhase(metrics, "export", startTime, "Clauses exported in ");
+            Report report = new Report();
+            report.setTag(file.getName());
+            report.setNumberOfQueries(fsengine.getNumberOfQueries());
+            metrics.setCounter("queries", fsengine.getNumberOfQueries());
+            metrics.samplePeakHeap();
+            report.setMetrics(metrics);
+            return report;
+        }
+        long startTime = System.nanoTime();
+        Report report = executeQueries(fsengine, analysis,file.getName(), metrics);
+        long endTime = System.nanoTime();
+        report.addQueryTime(hornDroidOptions.bitvectorSize, (endTime - startTime) / MILLISECONDS_IN_SECOND_CONSTANT);
+        // the queries left to the other bitvector size are counted by its pass
+        metrics.setCounter("queries", fsengine.getNumberOfQueries() - fsengine.getSkippedQueries());
+        for (Map.Entry<String, Integer> wins : fsengine.getPortfolioWins().entrySet()) {
+            metrics.setCounter("portfolio_wins_" + wins.getKey().replaceAll("[^A-Za-z0-9_]", "_"), wins.getValue());
+        }
+        metrics.samplePeakHeap();
+        report.setMetrics(metrics);
+        if (fsengine.getSkippedQueries() > 0) {
+            LOGGER.info(fsengine.getSkippedQueries() + " queries skipped on " + hornDroidOptions.bitvectorSize + " bitvectors size");
+        }
+        return report;
+    }
+
+    /*
+     * <directory>/<apk name>.smt2, shared by the --export and --import stages
+     */
+    private static File getClauseFile(String directory, File apk) {
+        return new File(directory, apk.getName() + ".smt2");
+    }
+
+    /*
+     * Digest of the apk, the options and the bin/ files the clauses of the checkpoint are generated from
+     */
+    private String getCheckpointFingerprint(File apk) {
+        try {
+            return new Fingerprint().add(Files.readAllBytes(apk.toPath())).add(MethodFingerprints.inputs(hornDroidOptions))
+                    .toHex();
+        } catch (IOException e) {
+            throw new RuntimeException("HorndroidExecutor: can't read " + apk, e);
+        }
+    }
+
+    /*
+     * <directory>/<package>/<bitvector size>, the package of the manifest names the successive versions of an app
+     */
+    private File getModelDirectory(Analysis analysis, File apk) {
+        String name = analysis.getPackageName();
+        if (name == null || name.isEmpty()) {
+            name = FilenameUtils.removeExtension(apk.getName());
+        }
+        return new File(new File(hornDroidOptions.incrementalDirectory, name),
+                Integer.toString(hornDroidOptions.bitvectorSize));
+    }
+
     private List<Report> processFiles(SourcesSinks sourcesSinks, LinkedHashSet<File> filesToProcess,
                                       final Set<Integer> allowed) {
         Stubs stubs = new Stubs(hornDroidOptions);
+        if (hornDroidOptions.stubs && hornDroidOptions.importDirectory == null) {
+            LOGGER.info("Indexing Standard Java and Android libraries ...");
+            stubs.process(allowed, hornDroidOptions.filterClasses, hornDroidOptions.filterClassesSound);
+        }
         List<Report> reports = new ArrayList<>();
         for (final File file : filesToProcess) {
-            final String shortFilename = FilenameUtils.removeExtension(file.getName());
-            final String fullPath = '/' + FilenameUtils.getPath(file.getPath());
-            final String inputApkFileName = '/' + FilenameUtils.getPath(file.getPath()) + file.getName();
-            final FSEngine fsengine = initializeHornDroid(shortFilename, fullPath);
-
-            final ExecutorService instructionExecutorService = Executors.newCachedThreadPool();
-            Analysis analysis = new Analysis(fsengine, sourcesSinks, hornDroidOptions, instructionExecutorService, stubs);
-            LOGGER.info("Analysing " + file.getName());
-
-            File apkFile = new File(inputApkFileName);
-            confirmApkExistence(inputApkFileName, apkFile);
-            DexBackedDexFile dexFile = getDexBackedDexFile(apkFile);
-            parseEntryPoints(inputApkFileName,analysis);
-            parseCallBacksAndDisabledActivities(file, inputApkFileName, analysis);
-            List<? extends ClassDef> classDefs = sortClasses(dexFile);
-            generateHornClauses(analysis, classDefs, allowed);
-            awaitThreadTermination(instructionExecutorService);
-            Report report = executeQueries(fsengine, analysis,file.getName());
-            reports.add(report);
-
+            reportWriter = openReportWriter(file.getName());
+            try {
+                reports.add(processFile(sourcesSinks, stubs, file, allowed));
+            } finally {
+                closeReportWriter();
+            }
         }
         return reports;
     }
 
+    private Report processFile(SourcesSinks sourcesSinks, Stubs stubs, final File file, final Set<Integer> allowed) {
+        if (hornDroidOptions.importDirectory != null) {
+            // the apk is not needed, the clauses carry their bitvector size
+            LOGGER.info("Answering the queries of " + file.getName() + " from " + hornDroidOptions.importDirectory);
+            Metrics metrics = new Metrics();
+            hornDroidOptions.bitvectorSize = FSEngine.readBitvectorSize(getClauseFile(hornDroidOptions.importDirectory, file));
+            return analyseApk(file, sourcesSinks, stubs, Collections.<ClassDef>emptyList(), allowed, null, false, metrics);
+        }
+        final String inputApkFileName = '/' + FilenameUtils.getPath(file.getPath()) + file.getName();
+        LOGGER.info("Analysing " + file.getName());
+
+        File apkFile = new File(inputApkFileName);
+        confirmApkExistence(inputApkFileName, apkFile);
+        Metrics metrics = new Metrics();
+        metrics.addPhaseDuration("sources_sinks", sourcesSinksDuration);
+        DexBackedDexFile dexFile = getDexBackedDexFile(apkFile);
+        List<? extends ClassDef> classDefs = sortClasses(dexFile, metrics);
+        countProgram(classDefs, metrics);
+        if (!hornDroidOptions.autoBitvectorSize) {
+            return analyseApk(file, sourcesSinks, stubs, classDefs, allowed, null, false, metrics);
+        }
+
+        Set<String> lossyMethods = new HashSet<String>();
+        hornDroidOptions.bitvectorSize = selectBitvectorSize(classDefs, stubs, lossyMethods, metrics);
+        Report report = analyseApk(file, sourcesSinks, stubs, classDefs, allowed, lossyMethods, false, metrics);
+        if (!lossyMethods.isEmpty()) {
+            LOGGER.info("Answering the queries of " + lossyMethods.size() + " methods on "
+                    + BitvectorWidth.MAX_WIDTH + " bitvectors size");
+            hornDroidOptions.bitvectorSize = BitvectorWidth.MAX_WIDTH;
+            Metrics fallbackMetrics = new Metrics();
+            Report fallback = analyseApk(file, sourcesSinks, stubs, classDefs, allowed, lossyMethods, true,
+                    fallbackMetrics);
+            metrics.merge(fallbackMetrics, "_bv" + BitvectorWidth.MAX_WIDTH);
+            for (ReportEntry reportEntry : fallback.getReportEntries()) {
+                report.addReportEntry(reportEntry);
+            }
+            for (Map.Entry<Integer, Long> queryTime : fallback.getQueryTimePerBitvectorSize().entrySet()) {
+                report.addQueryTime(queryTime.getKey(), queryTime.getValue());
+            }
+        }
+        for (Map.Entry<Integer, Long> queryTime : report.getQueryTimePerBitvectorSize().entrySet()) {
+            LOGGER.info("Queries on " + queryTime.getKey() + " bitvectors size answered in " + queryTime.getValue()
+                    + TIME_DISPLAY_MILLISECONDS_CONSTANT);
+        }
+        return report;
+    }
+
+    /*
+     * The entries of the apk are streamed to <report directory>/<tag>.jsonl while its queries are answered
+     */
+    private StreamingReportWriter openReportWriter(String tag) {
+        if (hornDroidOptions.reportDirectory == null) return null;
+        try {
+            return new StreamingReportWriter(hornDroidOptions.reportDirectory + "/" + tag + ".jsonl");
+        } catch (ReportWritingException e) {
+            LOGGER.error("Error: Can't stream the report entries of " + tag, e);
+            return null;
+        }
+    }
+
+    private void closeReportWriter() {
+        if (reportWriter == null) return;
+        try {
+            reportWriter.close();
+        } catch (IOException e) {
+            LOGGER.error("Error: Can't close the report stream", e);
+        }
+        reportWriter = null;
+    }
+
     /**
      * Executes the horndroid tool with the provided options and returns a report for each input apk
      *
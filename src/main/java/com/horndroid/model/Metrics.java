@@ -0,0 +1,149 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 TU Wien
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.horndroid.model;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Phase durations and program counters collected while analysing one apk
+ *
+ */
+public class Metrics {
+
+    private Map<String, Long> phaseDurations = new LinkedHashMap<>(); // phase -> milliseconds
+    private Map<String, Long> phaseHeapBytes = new LinkedHashMap<>(); // phase -> heap in use at its end
+    private Map<String, Long> counters = new LinkedHashMap<>();
+    private Map<String, Long> poolPeakBytes = new LinkedHashMap<>(); // heap pool -> its peak usage
+    private long peakHeapBytes;
+
+    public Map<String, Long> getPhaseDurations() {
+        return new LinkedHashMap<>(phaseDurations);
+    }
+
+    public void setPhaseDurations(Map<String, Long> phaseDurations) {
+        this.phaseDurations = new LinkedHashMap<>(phaseDurations);
+    }
+
+    /*
+     * A phase run several times (e.g. on a bitvector size fallback) accumulates its durations
+     */
+    public void addPhaseDuration(String phase, long milliseconds) {
+        Long duration = phaseDurations.get(phase);
+        phaseDurations.put(phase, duration == null ? milliseconds : duration + milliseconds);
+    }
+
+    public Map<String, Long> getPhaseHeapBytes() {
+        return new LinkedHashMap<>(phaseHeapBytes);
+    }
+
+    public void setPhaseHeapBytes(Map<String, Long> phaseHeapBytes) {
+        this.phaseHeapBytes = new LinkedHashMap<>(phaseHeapBytes);
+    }
+
+    /*
+     * Heap in use at the end of the phase, the largest value is kept if the phase runs several times
+     */
+    public void samplePhaseHeap(String phase) {
+        Runtime runtime = Runtime.getRuntime();
+        long used = runtime.totalMemory() - runtime.freeMemory();
+        Long heap = phaseHeapBytes.get(phase);
+        phaseHeapBytes.put(phase, heap == null ? used : Math.max(heap, used));
+    }
+
+    public Map<String, Long> getCounters() {
+        return new LinkedHashMap<>(counters);
+    }
+
+    public void setCounters(Map<String, Long> counters) {
+        this.counters = new LinkedHashMap<>(counters);
+    }
+
+    public void setCounter(String counter, long value) {
+        counters.put(counter, value);
+    }
+
+    /*
+     * Add the metrics of another pass over the same apk (the bitvector size fallback): durations are summed, heap
+     * samples keep the largest value and the counters of the other pass are kept apart under <counter><suffix>
+     */
+    public void merge(Metrics other, String suffix) {
+        for (Map.Entry<String, Long> phase : other.phaseDurations.entrySet()) {
+            addPhaseDuration(phase.getKey(), phase.getValue());
+        }
+        for (Map.Entry<String, Long> phase : other.phaseHeapBytes.entrySet()) {
+            Long heap = phaseHeapBytes.get(phase.getKey());
+            phaseHeapBytes.put(phase.getKey(), heap == null ? phase.getValue() : Math.max(heap, phase.getValue()));
+        }
+        for (Map.Entry<String, Long> counter : other.counters.entrySet()) {
+            counters.put(counter.getKey() + suffix, counter.getValue());
+        }
+        for (Map.Entry<String, Long> pool : other.poolPeakBytes.entrySet()) {
+            Long peak = poolPeakBytes.get(pool.getKey());
+            poolPeakBytes.put(pool.getKey(), peak == null ? pool.getValue() : Math.max(peak, pool.getValue()));
+        }
+        peakHeapBytes = Math.max(peakHeapBytes, other.peakHeapBytes);
+    }
+
+    public long getPeakHeapBytes() {
+        return peakHeapBytes;
+    }
+
+    public void setPeakHeapBytes(long peakHeapBytes) {
+        this.peakHeapBytes = peakHeapBytes;
+    }
+
+    public Map<String, Long> getPoolPeakBytes() {
+        return new LinkedHashMap<>(poolPeakBytes);
+    }
+
+    public void setPoolPeakBytes(Map<String, Long> poolPeakBytes) {
+        this.poolPeakBytes = new LinkedHashMap<>(poolPeakBytes);
+    }
+
+    /*
+     * The peak heap is the largest heap in use seen at a sample (now or at the end of a phase): the pools peak at
+     * different times, so the sum of their peaks would overstate it. The peak of each pool since the last reset is
+     * kept apart, the pools are reset for the next apk
+     */
+    public void samplePeakHeap() {
+        long peak = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+        for (long heap : phaseHeapBytes.values()) {
+            peak = Math.max(peak, heap);
+        }
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP && pool.getPeakUsage() != null) {
+                Long poolPeak = poolPeakBytes.get(pool.getName());
+                long used = pool.getPeakUsage().getUsed();
+                poolPeakBytes.put(pool.getName(), poolPeak == null ? used : Math.max(poolPeak, used));
+                pool.resetPeakUsage();
+            }
+        }
+        peakHeapBytes = Math.max(peakHeapBytes, peak);
+    }
+}
@@ -25,7 +25,9 @@
 package com.horndroid.model;
 
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Represents a report with the analysis details
@@ -36,6 +38,8 @@ public class Report {
     private String tag;
     private int numberOfQueries;
     private List<ReportEntry> reportEntries = new ArrayList<>();
+    private Metrics metrics = new Metrics();
+    private Map<Integer, Long> queryTimePerBitvectorSize = new LinkedHashMap<>(); // bitvector size -> milliseconds spent on queries
 
     public List<ReportEntry> getReportEntries() {
         return new ArrayList<>(reportEntries);
@@ -58,6 +62,14 @@ public class Report {
         this.numberOfQueries = numberOfQueries;
     }
 
+    public Metrics getMetrics() {
+        return metrics;
+    }
+
+    public void setMetrics(Metrics metrics) {
+        this.metrics = metrics;
+    }
+
     public String getTag() {
         return tag;
     }
@@ -65,4 +77,17 @@ public class Report {
     public void setTag(String tag) {
         this.tag = tag;
     }
+
+    public Map<Integer, Long> getQueryTimePerBitvectorSize() {
+        return new LinkedHashMap<>(queryTimePerBitvectorSize);
+    }
+
+    public void setQueryTimePerBitvectorSize(Map<Integer, Long> queryTimePerBitvectorSize) {
+        this.queryTimePerBitvectorSize = new LinkedHashMap<>(queryTimePerBitvectorSize);
+    }
+
+    public void addQueryTime(int bitvectorSize, long milliseconds) {
+        Long time = queryTimePerBitvectorSize.get(bitvectorSize);
+        queryTimePerBitvectorSize.put(bitvectorSize, time == null ? milliseconds : time + milliseconds);
+    }
 }
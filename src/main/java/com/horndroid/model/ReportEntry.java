@@ -24,6 +24,10 @@
 
 package com.horndroid.model;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import java.util.List;
+
 /**
  * Represents one entry in a report
  *
@@ -33,6 +37,14 @@ public class ReportEntry {
     private String description;
     private String result;
     private boolean isVerbose;
+    private int bitvectorSize;
+    private long queryTime; // milliseconds
+    private int numberOfRules;
+    private int numberOfRelations;
+    private String reasonUnknown;
+    private List<String> witness; // program points from the source to the sink, for leaks with -z
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private String engine; // engine configuration that answered first, with -P
 
     public ReportEntry(String description, String result, boolean isVerbose) {
         this.description = description;
@@ -46,6 +58,19 @@ public class ReportEntry {
         isVerbose = false;
     }
 
+    public ReportEntry(ReportEntry other) {
+        this.description = other.description;
+        this.result = other.result;
+        this.isVerbose = other.isVerbose;
+        this.bitvectorSize = other.bitvectorSize;
+        this.queryTime = other.queryTime;
+        this.numberOfRules = other.numberOfRules;
+        this.numberOfRelations = other.numberOfRelations;
+        this.reasonUnknown = other.reasonUnknown;
+        this.witness = other.witness;
+        this.engine = other.engine;
+    }
+
     public String getDescription() {
         return description;
     }
@@ -69,4 +94,60 @@ public class ReportEntry {
     public void setVerbose(boolean verbose) {
         isVerbose = verbose;
     }
+
+    public int getBitvectorSize() {
+        return bitvectorSize;
+    }
+
+    public void setBitvectorSize(int bitvectorSize) {
+        this.bitvectorSize = bitvectorSize;
+    }
+
+    public long getQueryTime() {
+        return queryTime;
+    }
+
+    public void setQueryTime(long queryTime) {
+        this.queryTime = queryTime;
+    }
+
+    public int getNumberOfRules() {
+        return numberOfRules;
+    }
+
+    public void setNumberOfRules(int numberOfRules) {
+        this.numberOfRules = numberOfRules;
+    }
+
+    public int getNumberOfRelations() {
+        return numberOfRelations;
+    }
+
+    public void setNumberOfRelations(int numberOfRelations) {
+        this.numberOfRelations = numberOfRelations;
+    }
+
+    public String getReasonUnknown() {
+        return reasonUnknown;
+    }
+
+    public void setReasonUnknown(String reasonUnknown) {
+        this.reasonUnknown = reasonUnknown;
+    }
+
+    public List<String> getWitness() {
+        return witness;
+    }
+
+    public void setWitness(List<String> witness) {
+        this.witness = witness;
+    }
+
+    public String getEngine() {
+        return engine;
+    }
+
+    public void setEngine(String engine) {
+        this.engine = engine;
+    }
 }
@@ -0,0 +1,285 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 TU Wien
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.horndroid.printers;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.horndroid.exceptions.ReportWritingException;
+import com.horndroid.model.Report;
+import com.horndroid.model.ReportEntry;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes a report in a compact binary form (.hdr) and reads it back, see ReportConverter for the conversion to JSON.
+ * The strings are interned in a table and referred to by index. A description generated for a register leak is kept
+ * as its fields: prefix, register and pc as numbers, method, class and sink as string indexes; any other description
+ * is kept as a string. Numbers are unsigned varints and the whole file is gzipped.
+ */
+public final class BinaryReportPrinter extends ReportPrinter {
+
+    private static final int MAGIC = 0x48445242; // HDRB
+    private static final int VERSION = 1;
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final String[] PREFIXES = {"", "[JOIN] ", "[REF] "};
+    private static final Pattern LEAK = Pattern.compile(
+            "(\\[JOIN\\] |\\[REF\\] )?Test if register (\\d+) leaks at line (\\d+) in method (.*) of the class (.*) to the sink (.*)",
+            Pattern.DOTALL);
+
+    private static final int VERBOSE = 1;
+    private static final int LEAK_FIELDS = 2;
+    private static final int REASON_UNKNOWN = 4;
+    private static final int WITNESS = 8;
+    private static final int ENGINE = 16;
+
+    /* the JSON form, for the console */
+    @Override
+    protected String getReportInString(Report report) throws ReportWritingException {
+        return new JsonReportPrinter().getReportInString(report);
+    }
+
+    @Override
+    public void writeReportToFile(Report report, String filename) throws ReportWritingException {
+        try {
+            write(report, new File(filename));
+        } catch (IOException e) {
+            throw new ReportWritingException("Problem writing report to file", e);
+        }
+    }
+
+    public static void write(Report report, File file) throws IOException {
+        if (file.getParentFile() != null) {
+            file.getParentFile().mkdirs();
+        }
+        final List<ReportEntry> reportEntries = report.getReportEntries();
+        // everything but the entries, which is small, as JSON
+        final Report header = new Report();
+        header.setTag(report.getTag());
+        header.setNumberOfQueries(report.getNumberOfQueries());
+        header.setMetrics(report.getMetrics());
+        header.setQueryTimePerBitvectorSize(report.getQueryTimePerBitvectorSize());
+
+        final Map<String, Integer> ids = new HashMap<>();
+        final List<String> strings = new ArrayList<>();
+        final List<int[]> rows = new ArrayList<>(reportEntries.size());
+        for (ReportEntry reportEntry : reportEntries) {
+            rows.add(encode(reportEntry, ids, strings));
+        }
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new GZIPOutputStream(new FileOutputStream(file))))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            writeString(out, MAPPER.writeValueAsString(header));
+            writeVarint(out, strings.size());
+            for (String s : strings) {
+                writeString(out, s);
+            }
+            writeVarint(out, reportEntries.size());
+            for (int i = 0; i < rows.size(); i++) {
+                final ReportEntry reportEntry = reportEntries.get(i);
+                for (int value : rows.get(i)) {
+                    writeVarint(out, value);
+                }
+                writeVarint(out, reportEntry.getBitvectorSize());
+                writeVarlong(out, reportEntry.getQueryTime());
+                writeVarint(out, reportEntry.getNumberOfRules());
+                writeVarint(out, reportEntry.getNumberOfRelations());
+            }
+        }
+    }
+
+    /*
+     * flags, result, then the description (prefix, register, pc, method, class, sink or one string), the reason
+     * unknown, the witness steps and the engine, as string indexes and numbers
+     */
+    private static int[] encode(ReportEntry reportEntry, Map<String, Integer> ids, List<String> strings) {
+        final List<Integer> row = new ArrayList<>(12);
+        int flags = reportEntry.isVerbose() ? VERBOSE : 0;
+        final String description = reportEntry.getDescription();
+        final Matcher leak = description == null ? null : LEAK.matcher(description);
+        final boolean fields = leak != null && leak.matches() && isNumber(leak.group(2)) && isNumber(leak.group(3));
+        if (fields) flags |= LEAK_FIELDS;
+        if (reportEntry.getReasonUnknown() != null) flags |= REASON_UNKNOWN;
+        if (reportEntry.getWitness() != null) flags |= WITNESS;
+        if (reportEntry.getEngine() != null) flags |= ENGINE;
+        row.add(flags);
+        row.add(intern(reportEntry.getResult(), ids, strings));
+        if (fields) {
+            row.add(leak.group(1) == null ? 0 : leak.group(1).startsWith("[J") ? 1 : 2);
+            row.add(Integer.parseInt(leak.group(2)));
+            row.add(Integer.parseInt(leak.group(3)));
+            row.add(intern(leak.group(4), ids, strings));
+            row.add(intern(leak.group(5), ids, strings));
+            row.add(intern(leak.group(6), ids, strings));
+        } else {
+            row.add(intern(description, ids, strings));
+        }
+        if (reportEntry.getReasonUnknown() != null) {
+            row.add(intern(reportEntry.getReasonUnknown(), ids, strings));
+        }
+        if (reportEntry.getWitness() != null) {
+            row.add(reportEntry.getWitness().size());
+            for (String step : reportEntry.getWitness()) {
+                row.add(intern(step, ids, strings));
+            }
+        }
+        if (reportEntry.getEngine() != null) {
+            row.add(intern(reportEntry.getEngine(), ids, strings));
+        }
+        final int[] values = new int[row.size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = row.get(i);
+        }
+        return values;
+    }
+
+    /* a number that prints back to the same digits */
+    private static boolean isNumber(String digits) {
+        return digits.length() < 10 && (digits.length() == 1 || digits.charAt(0) != '0');
+    }
+
+    /* 0 stands for null */
+    private static int intern(String s, Map<String, Integer> ids, List<String> strings) {
+        if (s == null) return 0;
+        Integer id = ids.get(s);
+        if (id == null) {
+            strings.add(s);
+            id = strings.size();
+            ids.put(s, id);
+        }
+        return id;
+    }
+
+    public static Report read(File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new GZIPInputStream(new FileInputStream(file))))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("BinaryReportPrinter: " + file + " is not a binary report of version " + VERSION);
+            }
+            final Report report = MAPPER.readValue(readString(in), Report.class);
+            final String[] strings = new String[readVarint(in) + 1];
+            for (int i = 1; i < strings.length; i++) {
+                strings[i] = readString(in);
+            }
+            final int n = readVarint(in);
+            final List<ReportEntry> reportEntries = new ArrayList<>(n);
+            for (int i = 0; i < n; i++) {
+                final int flags = readVarint(in);
+                final ReportEntry reportEntry = new ReportEntry();
+                reportEntry.setVerbose((flags & VERBOSE) != 0);
+                reportEntry.setResult(strings[readVarint(in)]);
+                if ((flags & LEAK_FIELDS) != 0) {
+                    final String prefix = PREFIXES[readVarint(in)];
+                    final int register = readVarint(in);
+                    final int pc = readVarint(in);
+                    reportEntry.setDescription(prefix + "Test if register " + register + " leaks at line " + pc
+                            + " in method " + strings[readVarint(in)] + " of the class " + strings[readVarint(in)]
+                            + " to the sink " + strings[readVarint(in)]);
+                } else {
+                    reportEntry.setDescription(strings[readVarint(in)]);
+                }
+                if ((flags & REASON_UNKNOWN) != 0) {
+                    reportEntry.setReasonUnknown(strings[readVarint(in)]);
+                }
+                if ((flags & WITNESS) != 0) {
+                    final int steps = readVarint(in);
+                    final List<String> witness = new ArrayList<>(steps);
+                    for (int s = 0; s < steps; s++) {
+                        witness.add(strings[readVarint(in)]);
+                    }
+                    reportEntry.setWitness(Collections.unmodifiableList(witness));
+                }
+                if ((flags & ENGINE) != 0) {
+                    reportEntry.setEngine(strings[readVarint(in)]);
+                }
+                reportEntry.setBitvectorSize(readVarint(in));
+                reportEntry.setQueryTime(readVarlong(in));
+                reportEntry.setNumberOfRules(readVarint(in));
+                reportEntry.setNumberOfRelations(readVarint(in));
+                reportEntries.add(reportEntry);
+            }
+            report.setReportEntries(reportEntries);
+            return report;
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        final byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        writeVarint(out, bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        final byte[] bytes = new byte[readVarint(in)];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeVarint(DataOutputStream out, int value) throws IOException {
+        writeVarlong(out, value & 0xffffffffL);
+    }
+
+    private static void writeVarlong(DataOutputStream out, long value) throws IOException {
+        while ((value & ~0x7fL) != 0) {
+            out.writeByte((int) ((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    private static int readVarint(DataInputStream in) throws IOException {
+        return (int) readVarlong(in);
+    }
+
+    private static long readVarlong(DataInputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            final int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new EOFException("BinaryReportPrinter: malformed varint");
+    }
+}
@@ -28,6 +28,7 @@ import com.horndroid.model.Report;
 import com.horndroid.model.ReportEntry;
 
 import java.util.List;
+import java.util.Map;
 
 
 public final class DefaultReportPrinter extends ReportPrinter {
@@ -38,12 +39,20 @@ public final class DefaultReportPrinter extends ReportPrinter {
         String s = "";
         s += report.getTag() + " :\n";
         s += "Number of queries :" + report.getNumberOfQueries() + "\n";
+        for (Map.Entry<Integer, Long> queryTime : report.getQueryTimePerBitvectorSize().entrySet()) {
+            s += "Query time on " + queryTime.getKey() + " bitvectors :" + queryTime.getValue() + "ms\n";
+        }
         final List<ReportEntry> reportEntries = report.getReportEntries();
         for (ReportEntry reportEntry : reportEntries) {
             s += i + ": ";
             if (reportEntry.isVerbose())
                 s += reportEntry.getDescription() + "\n";
             s += reportEntry.getResult() + "\n";
+            if (reportEntry.getWitness() != null) {
+                for (String step : reportEntry.getWitness()) {
+                    s += "    " + step + "\n";
+                }
+            }
             i++;
         }
         return s;
@@ -32,14 +32,13 @@ import com.horndroid.model.Report;
 
 class JsonReportPrinter extends ReportPrinter {
 
+    private static final ObjectMapper MAPPER = new ObjectMapper();
 
     @Override
     protected String getReportInString(Report report) throws ReportWritingException {
-        ObjectMapper mapper = new ObjectMapper();
-
         String json;
         try {
-            json = mapper.writeValueAsString(report);
+            json = MAPPER.writeValueAsString(report);
         } catch (JsonProcessingException e) {
             throw new ReportWritingException(e.getMessage());
         }
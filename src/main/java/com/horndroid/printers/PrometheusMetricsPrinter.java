@@ -0,0 +1,74 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 TU Wien
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.horndroid.printers;
+
+import com.horndroid.model.Metrics;
+import com.horndroid.model.Report;
+
+import java.util.Map;
+
+/**
+ * Prints the metrics of a report in the Prometheus text exposition format
+ *
+ */
+final class PrometheusMetricsPrinter extends ReportPrinter {
+
+    private static final String PREFIX = "horndroid_";
+
+    @Override
+    protected String getReportInString(Report report) {
+        final Metrics metrics = report.getMetrics();
+        final String labels = "{apk=\"" + escape(report.getTag()) + "\"}";
+        final StringBuilder sb = new StringBuilder();
+
+        sb.append("# TYPE ").append(PREFIX).append("phase_duration_milliseconds gauge\n");
+        for (Map.Entry<String, Long> phase : metrics.getPhaseDurations().entrySet()) {
+            sb.append(PREFIX).append("phase_duration_milliseconds{apk=\"").append(escape(report.getTag()))
+                    .append("\",phase=\"").append(phase.getKey()).append("\"} ").append(phase.getValue()).append('\n');
+        }
+        sb.append("# TYPE ").append(PREFIX).append("phase_heap_bytes gauge\n");
+        for (Map.Entry<String, Long> phase : metrics.getPhaseHeapBytes().entrySet()) {
+            sb.append(PREFIX).append("phase_heap_bytes{apk=\"").append(escape(report.getTag()))
+                    .append("\",phase=\"").append(phase.getKey()).append("\"} ").append(phase.getValue()).append('\n');
+        }
+        for (Map.Entry<String, Long> counter : metrics.getCounters().entrySet()) {
+            final String name = PREFIX + counter.getKey();
+            sb.append("# TYPE ").append(name).append(" gauge\n");
+            sb.append(name).append(labels).append(' ').append(counter.getValue()).append('\n');
+        }
+        sb.append("# TYPE ").append(PREFIX).append("peak_heap_bytes gauge\n");
+        sb.append(PREFIX).append("peak_heap_bytes").append(labels).append(' ').append(metrics.getPeakHeapBytes()).append('\n');
+        sb.append("# TYPE ").append(PREFIX).append("pool_peak_heap_bytes gauge\n");
+        for (Map.Entry<String, Long> pool : metrics.getPoolPeakBytes().entrySet()) {
+            sb.append(PREFIX).append("pool_peak_heap_bytes{apk=\"").append(escape(report.getTag()))
+                    .append("\",pool=\"").append(escape(pool.getKey())).append("\"} ").append(pool.getValue()).append('\n');
+        }
+        return sb.toString();
+    }
+
+    private static String escape(String label) {
+        return label.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+}
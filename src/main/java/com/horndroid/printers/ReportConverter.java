@@ -0,0 +1,71 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 TU Wien
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.horndroid.printers;
+
+import com.horndroid.exceptions.ReportWritingException;
+import com.horndroid.model.Report;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Converts binary reports (.hdr, written with --binary-report) to the JSON reports written by default:
+ * java -cp fshorndroid-version.jar com.horndroid.printers.ReportConverter <report.hdr>... writes <report>.json
+ * next to each of them
+ */
+public final class ReportConverter {
+
+    private ReportConverter() {
+    }
+
+    public static File toJson(File binaryReport) throws IOException, ReportWritingException {
+        final Report report = BinaryReportPrinter.read(binaryReport);
+        String name = binaryReport.getName();
+        if (name.endsWith(".hdr")) {
+            name = name.substring(0, name.length() - ".hdr".length());
+        }
+        final File json = new File(binaryReport.getParentFile(), name + ".json");
+        ReportWriterFactory.getReportToJsonPrinter().writeReportToFile(report, json.getPath());
+        return json;
+    }
+
+    public static void main(String[] args) {
+        if (args.length == 0) {
+            System.err.println("usage: java -cp fshorndroid-version.jar " + ReportConverter.class.getName()
+                    + " <report.hdr>...");
+            System.exit(1);
+        }
+        int failed = 0;
+        for (String arg : args) {
+            try {
+                System.out.println(arg + " -> " + toJson(new File(arg)));
+            } catch (IOException | ReportWritingException e) {
+                System.err.println("Error: can't convert " + arg + ": " + e.getMessage());
+                failed++;
+            }
+        }
+        System.exit(failed == 0 ? 0 : 1);
+    }
+}
@@ -33,4 +33,12 @@ public final class ReportWriterFactory {
     public static ReportPrinter getReportToJsonPrinter() {
         return new JsonReportPrinter();
     }
+
+    public static ReportPrinter getBinaryReportPrinter() {
+        return new BinaryReportPrinter();
+    }
+
+    public static ReportPrinter getMetricsPrinter() {
+        return new PrometheusMetricsPrinter();
+    }
 }
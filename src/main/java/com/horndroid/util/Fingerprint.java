@@ -0,0 +1,98 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 TU Wien
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.horndroid.util;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/*
+ * SHA-1 digest of a sequence of values, used as a content address. Each value is followed by a separator so that
+ * ("ab", "c") and ("a", "bc") differ.
+ */
+public class Fingerprint {
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final MessageDigest digest;
+
+    public Fingerprint() {
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("Fingerprint: no SHA-1", e);
+        }
+    }
+
+    public Fingerprint add(final String value) {
+        digest.update((value == null ? "\u0000" : value).getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) '\n');
+        return this;
+    }
+
+    public Fingerprint add(final byte[] value) {
+        add(value.length);
+        digest.update(value);
+        digest.update((byte) '\n');
+        return this;
+    }
+
+    public Fingerprint add(final long value) {
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            digest.update((byte) (value >>> shift));
+        }
+        digest.update((byte) '\n');
+        return this;
+    }
+
+    public Fingerprint add(final boolean value) {
+        return add(value ? 1L : 0L);
+    }
+
+    public Fingerprint add(final int[] values) {
+        if (values == null) return add("null");
+        add(values.length);
+        for (final int value : values) {
+            add(value);
+        }
+        return this;
+    }
+
+    /*
+     * Hexadecimal digest, the fingerprint can't be used afterwards
+     */
+    public String toHex() {
+        final byte[] bytes = digest.digest();
+        final char[] hex = new char[2 * bytes.length];
+        for (int i = 0; i < bytes.length; i++) {
+            hex[2 * i] = HEX[(bytes[i] >> 4) & 0xf];
+            hex[2 * i + 1] = HEX[bytes[i] & 0xf];
+        }
+        return new String(hex);
+    }
+
+    public static String of(final String value) {
+        return new Fingerprint().add(value).toHex();
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 TU Wien
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.horndroid.util;
+
+import java.util.Arrays;
+
+/*
+ * Open addressing hash map from int keys to int values.
+ * Avoids boxing for the lookup tables that are queried once per generated Horn clause.
+ * get returns 'missing' when the key is not present.
+ */
+public class IntIntHashMap {
+    private static final float LOAD_FACTOR = 0.5f;
+
+    private final int missing;
+    private int[] keys;
+    private int[] values;
+    private boolean[] used;
+    private int size;
+
+    public IntIntHashMap(final int missing){
+        this(16, missing);
+    }
+
+    public IntIntHashMap(final int expectedSize, final int missing){
+        this.missing = missing;
+        int capacity = 16;
+        while (capacity * LOAD_FACTOR < expectedSize){
+            capacity <<= 1;
+        }
+        allocate(capacity);
+    }
+
+    private void allocate(final int capacity){
+        keys = new int[capacity];
+        values = new int[capacity];
+        used = new boolean[capacity];
+        size = 0;
+    }
+
+    private static int mix(final int key){
+        final int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private int slot(final int key){
+        final int mask = keys.length - 1;
+        int i = mix(key) & mask;
+        while (used[i] && keys[i] != key){
+            i = (i + 1) & mask;
+        }
+        return i;
+    }
+
+    public int put(final int key, final int value){
+        int i = slot(key);
+        if (used[i]){
+            final int old = values[i];
+            values[i] = value;
+            return old;
+        }
+        if (size + 1 > keys.length * LOAD_FACTOR){
+            rehash(keys.length << 1);
+            i = slot(key);
+        }
+        used[i] = true;
+        keys[i] = key;
+        values[i] = value;
+        size++;
+        return missing;
+    }
+
+    public int get(final int key){
+        final int i = slot(key);
+        return used[i] ? values[i] : missing;
+    }
+
+    public boolean containsKey(final int key){
+        return used[slot(key)];
+    }
+
+    public int size(){
+        return size;
+    }
+
+    public boolean isEmpty(){
+        return size == 0;
+    }
+
+    public void clear(){
+        Arrays.fill(used, false);
+        size = 0;
+    }
+
+    private void rehash(final int capacity){
+        final int[] oldKeys = keys;
+        final int[] oldValues = values;
+        final boolean[] oldUsed = used;
+        allocate(capacity);
+        for (int i = 0; i < oldKeys.length; i++){
+            if (oldUsed[i]){
+                final int j = slot(oldKeys[i]);
+                used[j] = true;
+                keys[j] = oldKeys[i];
+                values[j] = oldValues[i];
+                size++;
+            }
+        }
+    }
+}
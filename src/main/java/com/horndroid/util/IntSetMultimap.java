@@ -0,0 +1,262 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 TU Wien
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.horndroid.util;
+
+import java.util.AbstractSet;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/*
+ * Open addressing multimap from int keys to sets of values, without boxing the keys.
+ * Writers are serialized on the map; readers take no lock: each key has one append-only Bucket that is published
+ * through an AtomicReferenceArray, and whose elements are published before its count. get and values are live,
+ * weakly consistent views, they see the values added up to some point during the iteration.
+ */
+public class IntSetMultimap<V> {
+    private static final float LOAD_FACTOR = 0.5f;
+    private static final int INDEXED = 8; // a bucket with more values keeps a HashSet to check for duplicates
+
+    private volatile AtomicReferenceArray<Bucket<V>> table;
+    private volatile int size; // number of values
+    private int keyCount;
+
+    public IntSetMultimap(){
+        table = new AtomicReferenceArray<Bucket<V>>(16);
+    }
+
+    private static int mix(final int key){
+        final int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private static <V> Bucket<V> find(final AtomicReferenceArray<Bucket<V>> table, final int key){
+        final int mask = table.length() - 1;
+        int i = mix(key) & mask;
+        Bucket<V> b;
+        while ((b = table.get(i)) != null && b.key != key){
+            i = (i + 1) & mask;
+        }
+        return b;
+    }
+
+    private static <V> void insert(final AtomicReferenceArray<Bucket<V>> table, final Bucket<V> bucket){
+        final int mask = table.length() - 1;
+        int i = mix(bucket.key) & mask;
+        while (table.get(i) != null){
+            i = (i + 1) & mask;
+        }
+        table.set(i, bucket);
+    }
+
+    /*
+     * Add value to the set of key, false if it was already there
+     */
+    public synchronized boolean put(final int key, final V value){
+        Bucket<V> b = find(table, key);
+        if (b == null){
+            if (keyCount + 1 > table.length() * LOAD_FACTOR){
+                rehash(table.length() << 1);
+            }
+            b = new Bucket<V>(key);
+            insert(table, b);
+            keyCount++;
+        }
+        if (!b.append(value)){
+            return false;
+        }
+        size++;
+        return true;
+    }
+
+    /*
+     * The values of key, null if there is none
+     */
+    public Set<V> get(final int key){
+        return find(table, key);
+    }
+
+    public synchronized boolean contains(final int key, final V value){
+        final Bucket<V> b = find(table, key);
+        return b != null && b.has(value);
+    }
+
+    /*
+     * Number of values, summed over the keys
+     */
+    public int size(){
+        return size;
+    }
+
+    public boolean isEmpty(){
+        return size == 0;
+    }
+
+    /*
+     * All the values, key by key
+     */
+    public Iterable<V> values(){
+        return new Iterable<V>() {
+            @Override
+            public Iterator<V> iterator() {
+                return new ValueIterator<V>(table);
+            }
+        };
+    }
+
+    private void rehash(final int capacity){
+        final AtomicReferenceArray<Bucket<V>> old = table;
+        final AtomicReferenceArray<Bucket<V>> resized = new AtomicReferenceArray<Bucket<V>>(capacity);
+        for (int i = 0; i < old.length(); i++){
+            final Bucket<V> b = old.get(i);
+            if (b != null){
+                insert(resized, b);
+            }
+        }
+        table = resized;
+    }
+
+    private static final class Bucket<V> extends AbstractSet<V> {
+        private final int key;
+        private volatile Object[] elements = new Object[2];
+        private volatile int count;
+        private HashSet<V> index; // guarded by the multimap, only used by writers
+
+        Bucket(final int key){
+            this.key = key;
+        }
+
+        boolean has(final V value){
+            if (index != null){
+                return index.contains(value);
+            }
+            final Object[] e = elements;
+            for (int i = 0; i < count; i++){
+                if (e[i].equals(value)){
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        boolean append(final V value){
+            if (has(value)){
+                return false;
+            }
+            Object[] e = elements;
+            final int n = count;
+            if (n == e.length){
+                final Object[] grown = new Object[n << 1];
+                System.arraycopy(e, 0, grown, 0, n);
+                elements = e = grown;
+            }
+            e[n] = value;
+            if (index != null){
+                index.add(value);
+            } else if (n + 1 > INDEXED){
+                index = new HashSet<V>();
+                for (int i = 0; i <= n; i++){
+                    index.add(element(e, i));
+                }
+            }
+            count = n + 1; // publishes e[n]
+            return true;
+        }
+
+        @SuppressWarnings("unchecked")
+        private static <V> V element(final Object[] e, final int i){
+            return (V) e[i];
+        }
+
+        @Override
+        public Iterator<V> iterator(){
+            final int n = count;
+            final Object[] e = elements; // read after count, so it holds the first n values
+            return new Iterator<V>() {
+                private int i = 0;
+
+                @Override
+                public boolean hasNext(){
+                    return i < n;
+                }
+
+                @Override
+                public V next(){
+                    if (i >= n){
+                        throw new NoSuchElementException();
+                    }
+                    return element(e, i++);
+                }
+
+                @Override
+                public void remove(){
+                    throw new UnsupportedOperationException("IntSetMultimap: read-only");
+                }
+            };
+        }
+
+        @Override
+        public int size(){
+            return count;
+        }
+    }
+
+    private static final class ValueIterator<V> implements Iterator<V> {
+        private final AtomicReferenceArray<Bucket<V>> table;
+        private int slot = 0;
+        private Iterator<V> current = null;
+
+        ValueIterator(final AtomicReferenceArray<Bucket<V>> table){
+            this.table = table;
+        }
+
+        @Override
+        public boolean hasNext(){
+            while (current == null || !current.hasNext()){
+                if (slot >= table.length()){
+                    return false;
+                }
+                final Bucket<V> b = table.get(slot++);
+                current = b == null ? null : b.iterator();
+            }
+            return true;
+        }
+
+        @Override
+        public V next(){
+            if (!hasNext()){
+                throw new NoSuchElementException();
+            }
+            return current.next();
+        }
+
+        @Override
+        public void remove(){
+            throw new UnsupportedOperationException("IntSetMultimap: read-only");
+        }
+    }
+}
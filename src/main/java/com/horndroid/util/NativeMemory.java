@@ -0,0 +1,77 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 TU Wien
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.horndroid.util;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+
+/*
+ * Memory of the process outside the JVM heaps, i.e. mostly held by Z3. Read from /proc, so only available on Linux.
+ */
+public final class NativeMemory {
+    private static final long BYTES_IN_MEGABYTE = 1024 * 1024;
+
+    private NativeMemory() {
+    }
+
+    /*
+     * Resident set size of the process, -1 if unknown
+     */
+    public static long getResidentBytes() {
+        try (BufferedReader reader = new BufferedReader(new FileReader("/proc/self/status"))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith("VmRSS:")) {
+                    // VmRSS:    123456 kB
+                    return Long.parseLong(line.substring("VmRSS:".length()).replace("kB", "").trim()) * 1024;
+                }
+            }
+        } catch (IOException | NumberFormatException e) {
+            return -1;
+        }
+        return -1;
+    }
+
+    /*
+     * Memory committed by the JVM for the heap and the non heap pools (metaspace, code cache...)
+     */
+    public static long getJvmCommittedBytes() {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        return memory.getHeapMemoryUsage().getCommitted() + memory.getNonHeapMemoryUsage().getCommitted();
+    }
+
+    public static String describe() {
+        long resident = getResidentBytes();
+        long jvm = getJvmCommittedBytes();
+        if (resident < 0) {
+            return "jvm " + jvm / BYTES_IN_MEGABYTE + " MB, native unknown";
+        }
+        return "resident " + resident / BYTES_IN_MEGABYTE + " MB, jvm " + jvm / BYTES_IN_MEGABYTE
+                + " MB, native " + Math.max(0, resident - jvm) / BYTES_IN_MEGABYTE + " MB";
+    }
+}
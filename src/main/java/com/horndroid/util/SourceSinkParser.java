@@ -37,6 +37,7 @@ import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
 import java.io.*;
+import java.nio.file.Files;
 import java.util.LinkedHashSet;
 import java.util.Set;
 import java.util.regex.Pattern;
@@ -45,27 +46,104 @@ public class SourceSinkParser {
 
     private static final Logger LOGGER = LogManager.getLogger(SourceSinkParser.class);
 
-    public static void parseSourceSink(File sourceSinkFile, final SourcesSinks sourcesSinks) throws IOException {
+    /*
+     * The compiled sources and sinks of sourceSinkFile, read from cacheFile when it was compiled from the same content
+     * of the list (its digest, not its modification time, which misses quick same-size edits), otherwise parsed and
+     * written to cacheFile for the next run
+     */
+    public static SourcesSinks loadSourceSink(final File sourceSinkFile, final File cacheFile) throws IOException {
+        final String stamp = new Fingerprint().add(Files.readAllBytes(sourceSinkFile.toPath())).toHex();
+        if (cacheFile.isFile()) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(cacheFile)))) {
+                final SourcesSinks sourcesSinks = SourcesSinks.read(in, stamp);
+                if (sourcesSinks != null) {
+                    return sourcesSinks;
+                }
+            } catch (IOException e) {
+                LOGGER.warn("Can't read the compiled sources and sinks " + cacheFile + ", parsing the list", e);
+            }
+        }
+        final SourcesSinks.Builder builder = new SourcesSinks.Builder();
+        parseSourceSink(sourceSinkFile, builder);
+        final SourcesSinks sourcesSinks = builder.build();
+        final File tmp = new File(cacheFile.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            sourcesSinks.write(out, stamp);
+        } catch (IOException e) {
+            LOGGER.warn("Can't write the compiled sources and sinks " + cacheFile, e);
+            tmp.delete();
+            return sourcesSinks;
+        }
+        if (!tmp.renameTo(cacheFile) && !(cacheFile.delete() && tmp.renameTo(cacheFile))) {
+            LOGGER.warn("Can't write the compiled sources and sinks " + cacheFile);
+            tmp.delete();
+        }
+        return sourcesSinks;
+    }
+
+    /*
+     * Lines are either
+     *   <com.foo.Bar: ret name(args)> -> _SOURCE_ (or _SINK_), which lists every method called name of the class,
+     *   Lcom/foo/Bar;->name(args)ret -> _SOURCE_, which lists the method with this exact dex signature,
+     * the method may be * for every method of the class, and the class com.foo.* (Lcom/foo/*;) for every class of the
+     * package and of its subpackages. Lines starting with % are comments
+     */
+    public static void parseSourceSink(File sourceSinkFile, final SourcesSinks.Builder sourcesSinks) throws IOException {
         try (BufferedReader br = new BufferedReader(new FileReader(sourceSinkFile))) {
             String line;
-            String[] parts = null, parts2 = null;
-            String className = null, methodName = null;
+            int lineNumber = 0;
             while ((line = br.readLine()) != null) {
+                lineNumber++;
                 if (line.length() < 1) continue;
                 if (line.charAt(0) == '%') continue;
-                parts = line.split(Pattern.quote("> -> _S"));
-                parts2 = parts[0].split(Pattern.quote(": "));
-                className = parts2[0].substring(1);
-                methodName = parts2[1].split(" ")[1];
-
-                if (parts[1].charAt(0) == 'O')
-                    sourcesSinks.put(className.replaceAll("\\.", "/"), methodName.substring(0, methodName.indexOf('(')), true);
-                else
-                    sourcesSinks.put(className.replaceAll("\\.", "/"), methodName.substring(0, methodName.indexOf('(')), false);
+                if (!parseSourceSinkLine(line, sourcesSinks)) {
+                    throw new IOException("SourceSinkParser: malformed line " + lineNumber + " of " + sourceSinkFile
+                            + ": " + line);
+                }
             }
         }
     }
 
+    private static boolean parseSourceSinkLine(final String line, final SourcesSinks.Builder sourcesSinks) {
+        final String className;
+        final String method;
+        final int kind;
+        if (line.charAt(0) == '<') {
+            final int colon = line.indexOf(": ");
+            final int end = line.indexOf("> -> _S", colon);
+            if (colon < 0 || end < 0) return false;
+            final int space = line.indexOf(' ', colon + 2);
+            if (space < 0 || space > end) return false;
+            final String soot = line.substring(1, colon);
+            className = soot.endsWith(".*") ? 'L' + soot.substring(0, soot.length() - 1).replace('.', '/') + "*;"
+                    : 'L' + soot.replace('.', '/') + ';';
+            final String nameArgs = line.substring(space + 1, end);
+            final int paren = nameArgs.indexOf('(');
+            method = paren < 0 ? nameArgs : nameArgs.substring(0, paren);
+            kind = end + 7;
+        } else {
+            final int arrow = line.indexOf(";->");
+            final int end = line.indexOf(" -> _S", arrow);
+            if (line.charAt(0) != 'L' || arrow < 0 || end < 0) return false;
+            className = line.substring(0, arrow + 1);
+            method = line.substring(arrow + 3, end);
+            kind = end + 6;
+        }
+        if (kind >= line.length() || (line.charAt(kind) != 'O' && line.charAt(kind) != 'I')) return false;
+        final boolean source = line.charAt(kind) == 'O';
+        if (className.endsWith("/*;")) {
+            if (!method.equals("*")) return false;
+            sourcesSinks.packageWide(className.substring(0, className.length() - 2), source);
+        } else if (method.equals("*")) {
+            sourcesSinks.classWide(className, source);
+        } else if (method.indexOf('(') >= 0) {
+            sourcesSinks.signature(className, method, source);
+        } else {
+            sourcesSinks.method(className, method, source);
+        }
+        return true;
+    }
+
     public static void parseEntryPoint(final Analysis analysis) throws IOException {
         try (BufferedReader br = new BufferedReader(new FileReader(new File("bin/EntryPoints.txt")))) {
             String line;
@@ -79,15 +157,11 @@ public class SourceSinkParser {
         }
     }
 
-    public static void parseCallbacksFromXml(final Analysis analysis, final String outputDirectory,
-                                             final String apkFileName, final String apktoolFolder) throws IOException,
-            SAXException, ParserConfigurationException {
-        final Set<String> callbacks = analysis.getCallbacks();
-        final Set<Integer> disabledActivities = analysis.getDisabledActivities();
-        final Set<Integer> activities = analysis.getActivities();
-        final Set<Integer> launcherActivities = analysis.getLauncherActivities();
-        final Set<Integer> callbackImplementations = analysis.getCallbackImplementations();
-        final Set<Integer> applications = analysis.getApplications();
+    /*
+     * Decodes the manifest and the layout files of the apk into outputDirectory/apktool
+     */
+    public static void decodeApk(final String outputDirectory, final String apkFileName,
+                                 final String apktoolFolder) throws IOException {
         LOGGER.info("Running apktool to obtain manifest xml and layout files");
 
         ProcessBuilder processBuilder = new ProcessBuilder("java", "-jar", apktoolFolder+"apktool.jar","d", apkFileName
@@ -115,6 +189,19 @@ public class SourceSinkParser {
         while ((s = stdError.readLine()) != null) {
             LOGGER.info(s);
         }
+    }
+
+    /*
+     * Parses the files decoded by decodeApk
+     */
+    public static void parseCallbacksFromXml(final Analysis analysis, final String outputDirectory) throws IOException,
+            SAXException, ParserConfigurationException {
+        final Set<String> callbacks = analysis.getCallbacks();
+        final Set<Integer> disabledActivities = analysis.getDisabledActivities();
+        final Set<Integer> activities = analysis.getActivities();
+        final Set<Integer> launcherActivities = analysis.getLauncherActivities();
+        final Set<Integer> callbackImplementations = analysis.getCallbackImplementations();
+        final Set<Integer> applications = analysis.getApplications();
 
         LinkedHashSet<File> filesToProcess = new LinkedHashSet<File>();
         getXmlFilesInDir(new File(outputDirectory + "/apktool/res"), filesToProcess);
@@ -142,6 +229,7 @@ public class SourceSinkParser {
         db.setErrorHandler(new SimpleErrorHandler());
         Document doc = db.parse(new File(outputDirectory + "/apktool/AndroidManifest.xml"));
         doc.getDocumentElement().normalize();
+        analysis.setPackageName(doc.getDocumentElement().getAttribute("package"));
         NodeList nodeList = doc.getElementsByTagName("activity");
         if (nodeList != null && nodeList.getLength() > 0) {
             for (int j = 0; j < nodeList.getLength(); j++) {
@@ -1,3 +1,4 @@
+
 /*
  * MIT License
  *
@@ -24,32 +25,291 @@
 
 package com.horndroid.util;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
-public class SourcesSinks {
-    private Map<String,Map<String,Boolean>> map;
-    
-    public SourcesSinks(){
-        map = new HashMap<String,Map<String,Boolean>>();
+/*
+ * The sources and sinks list compiled into an immutable lookup table, built with a Builder (see
+ * SourceSinkParser.loadSourceSink). Class names are dex descriptors (Lcom/foo/Bar;) and the strings are interned.
+ * A method is listed by name, which covers all its overloads as the list always did, or by its full signature
+ * (name(args)return); every method of a class and every class of a package can also be listed. The most specific
+ * entry wins: signature, name, class, package.
+ * The names are kept in an open addressing table whose hash is computed from the class descriptor and the name part
+ * of the method reference, so that isSourceSink on a dex method reference is a single probe that builds no key.
+ */
+public final class SourcesSinks {
+    private static final int MAGIC = 0x48445353; // HDSS
+    private static final int VERSION = 2;
+    private static final byte NONE = 0, SOURCE = 1, SINK = 2;
+
+    private final String[] classes;
+    private final String[] names;
+    private final byte[] verdicts;
+    private final Map<String,Boolean>[] signatures; // null when the name has no signature entry
+    private final Map<String,Boolean> classEntries;
+    private final String[] packages; // longest first
+    private final boolean[] packageVerdicts;
+    private final int size;
+
+    @SuppressWarnings("unchecked")
+    private SourcesSinks(final Builder builder){
+        int capacity = 16;
+        while (capacity < builder.methods.size() * 2){
+            capacity <<= 1;
+        }
+        classes = new String[capacity];
+        names = new String[capacity];
+        verdicts = new byte[capacity];
+        signatures = new Map[capacity];
+        for (final MethodEntry e : builder.methods.values()){
+            final int i = free(e.c, e.name);
+            classes[i] = e.c.intern();
+            names[i] = e.name.intern();
+            verdicts[i] = e.verdict;
+            if (e.signatures != null){
+                final Map<String,Boolean> s = new HashMap<String,Boolean>(e.signatures.size() * 2);
+                for (final Map.Entry<String,Boolean> se : e.signatures.entrySet()){
+                    s.put(se.getKey().intern(), se.getValue());
+                }
+                signatures[i] = Collections.unmodifiableMap(s);
+            }
+        }
+        size = builder.methods.size();
+        final Map<String,Boolean> cs = new HashMap<String,Boolean>();
+        for (final Map.Entry<String,Boolean> ce : builder.classEntries.entrySet()){
+            cs.put(ce.getKey().intern(), ce.getValue());
+        }
+        classEntries = Collections.unmodifiableMap(cs);
+        final List<String> prefixes = new ArrayList<String>(builder.packageEntries.keySet());
+        Collections.sort(prefixes, new Comparator<String>() {
+            @Override
+            public int compare(final String a, final String b){
+                return b.length() - a.length();
+            }
+        });
+        packages = new String[prefixes.size()];
+        packageVerdicts = new boolean[prefixes.size()];
+        for (int i = 0; i < packages.length; i++){
+            packages[i] = prefixes.get(i).intern();
+            packageVerdicts[i] = builder.packageEntries.get(packages[i]);
+        }
+    }
+
+    /*
+     * Hash of the class and of the first end characters of the method, end being the index of '(' in a reference
+     */
+    private static int hash(final String c, final String m, final int end){
+        int h = c.hashCode();
+        for (int k = 0; k < end; k++){
+            h = 31 * h + m.charAt(k);
+        }
+        h *= 0x9E3779B9;
+        return h ^ (h >>> 16);
     }
-    
-    public void put(String c, String m, boolean bool){
-        if (!map.containsKey(c)){
-            map.put(c, new HashMap<String,Boolean>());
+
+    private int free(final String c, final String name){
+        final int mask = classes.length - 1;
+        int i = hash(c, name, name.length()) & mask;
+        while (classes[i] != null){
+            i = (i + 1) & mask;
         }
-        map.get(c).put(m, bool);
+        return i;
     }
-    
-    public Boolean isSourceSink(String c, String m){
-        if (!map.containsKey(c)){
+
+    private int find(final String c, final String m, final int end){
+        final int mask = classes.length - 1;
+        int i = hash(c, m, end) & mask;
+        while (classes[i] != null){
+            if (names[i].length() == end && m.startsWith(names[i]) && classes[i].equals(c)){
+                return i;
+            }
+            i = (i + 1) & mask;
+        }
+        return -1;
+    }
+
+    /*
+     * True if method m of class c is a source, false if it is a sink and null otherwise. c is a class descriptor and m
+     * a method reference name(args)return, or a bare name
+     */
+    public Boolean isSourceSink(final String c, final String m){
+        int end = m.indexOf('(');
+        if (end < 0){
+            end = m.length();
+        }
+        final int i = find(c, m, end);
+        if (i >= 0){
+            if (signatures[i] != null){
+                final Boolean b = signatures[i].get(m);
+                if (b != null){
+                    return b;
+                }
+            }
+            if (verdicts[i] != NONE){
+                return verdicts[i] == SOURCE;
+            }
+        }
+        if (!classEntries.isEmpty()){
+            final Boolean b = classEntries.get(c);
+            if (b != null){
+                return b;
+            }
+        }
+        for (int k = 0; k < packages.length; k++){
+            if (c.startsWith(packages[k])){
+                return packageVerdicts[k];
+            }
+        }
+        return null;
+    }
+
+    /*
+     * Number of listed method names
+     */
+    public int size(){
+        return size;
+    }
+
+    public void write(final DataOutputStream out, final String stamp) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeUTF(stamp);
+        out.writeInt(size);
+        for (int i = 0; i < classes.length; i++){
+            if (classes[i] == null){
+                continue;
+            }
+            out.writeUTF(classes[i]);
+            out.writeUTF(names[i]);
+            out.writeByte(verdicts[i]);
+            out.writeInt(signatures[i] == null ? 0 : signatures[i].size());
+            if (signatures[i] != null){
+                for (final Map.Entry<String,Boolean> se : signatures[i].entrySet()){
+                    out.writeUTF(se.getKey());
+                    out.writeBoolean(se.getValue());
+                }
+            }
+        }
+        out.writeInt(classEntries.size());
+        for (final Map.Entry<String,Boolean> ce : classEntries.entrySet()){
+            out.writeUTF(ce.getKey());
+            out.writeBoolean(ce.getValue());
+        }
+        out.writeInt(packages.length);
+        for (int k = 0; k < packages.length; k++){
+            out.writeUTF(packages[k]);
+            out.writeBoolean(packageVerdicts[k]);
+        }
+    }
+
+    /*
+     * The table written with this stamp, null if the stream holds another version or another stamp
+     */
+    public static SourcesSinks read(final DataInputStream in, final String stamp) throws IOException {
+        if (in.readInt() != MAGIC || in.readInt() != VERSION || !in.readUTF().equals(stamp)){
             return null;
-        }else{
-            if(map.get(c).containsKey(m)){
-                return map.get(c).get(m);
-            }else{
-                return null;
+        }
+        final Builder builder = new Builder();
+        for (int n = in.readInt(); n > 0; n--){
+            final String c = in.readUTF();
+            final String name = in.readUTF();
+            final byte verdict = in.readByte();
+            if (verdict != NONE){
+                builder.method(c, name, verdict == SOURCE);
+            }
+            for (int s = in.readInt(); s > 0; s--){
+                builder.signature(c, in.readUTF(), in.readBoolean());
+            }
+        }
+        for (int n = in.readInt(); n > 0; n--){
+            builder.classWide(in.readUTF(), in.readBoolean());
+        }
+        for (int n = in.readInt(); n > 0; n--){
+            builder.packageWide(in.readUTF(), in.readBoolean());
+        }
+        return builder.build();
+    }
+
+    private static final class MethodEntry {
+        final String c;
+        final String name;
+        byte verdict = NONE;
+        Map<String,Boolean> signatures = null;
+
+        MethodEntry(final String c, final String name){
+            this.c = c;
+            this.name = name;
+        }
+    }
+
+    /*
+     * Later entries replace earlier ones of the same kind for the same method, class or package
+     */
+    public static final class Builder {
+        private final Map<String,MethodEntry> methods = new LinkedHashMap<String,MethodEntry>();
+        private final Map<String,Boolean> classEntries = new LinkedHashMap<String,Boolean>();
+        private final Map<String,Boolean> packageEntries = new LinkedHashMap<String,Boolean>();
+
+        private MethodEntry entry(final String c, final String name){
+            final String key = c + "->" + name;
+            MethodEntry e = methods.get(key);
+            if (e == null){
+                e = new MethodEntry(c, name);
+                methods.put(key, e);
+            }
+            return e;
+        }
+
+        /*
+         * Every method called name in class c
+         */
+        public Builder method(final String c, final String name, final boolean source){
+            entry(c, name).verdict = source ? SOURCE : SINK;
+            return this;
+        }
+
+        /*
+         * The method with this reference name(args)return in class c
+         */
+        public Builder signature(final String c, final String method, final boolean source){
+            final int end = method.indexOf('(');
+            if (end < 0){
+                throw new RuntimeException("SourcesSinks: not a method signature: " + method);
             }
+            final MethodEntry e = entry(c, method.substring(0, end));
+            if (e.signatures == null){
+                e.signatures = new HashMap<String,Boolean>();
+            }
+            e.signatures.put(method, source);
+            return this;
+        }
+
+        /*
+         * Every method of class c
+         */
+        public Builder classWide(final String c, final boolean source){
+            classEntries.put(c, source);
+            return this;
+        }
+
+        /*
+         * Every method of the classes whose descriptor starts with prefix, e.g. Lcom/foo/
+         */
+        public Builder packageWide(final String prefix, final boolean source){
+            packageEntries.put(prefix, source);
+            return this;
+        }
+
+        public SourcesSinks build(){
+            return new SourcesSinks(this);
         }
-    }    
+    }
 }
@@ -0,0 +1,145 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 TU Wien
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.horndroid.z3;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.horndroid.model.ReportEntry;
+
+import java.io.*;
+import java.util.*;
+
+/*
+ * Checkpoint of the query phase: the generated clauses (clauses.smt2, see ClauseFile) and the answers of the queries
+ * answered so far (answers.jsonl, one {"query": <generation index>, "entry": <report entry>} per line, flushed as
+ * each query is answered). A truncated last line left by a killed run is ignored. The fingerprint file holds the
+ * digest of the inputs of the clauses, a checkpoint of other inputs is not resumed.
+ */
+class Checkpoint implements Closeable {
+    static final String CLAUSES = "clauses.smt2";
+    static final String FINGERPRINT = "fingerprint";
+    private static final String ANSWERS = "answers.jsonl";
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private final Map<Integer, ReportEntry> answers = new HashMap<Integer, ReportEntry>();
+    private final Map<Z3Query, Integer> queryIndex = new IdentityHashMap<Z3Query, Integer>();
+    private final JsonGenerator generator;
+
+    /*
+     * Opens the answers of the checkpoint in directory, if resume keeping those already written
+     */
+    Checkpoint(final File directory, final boolean resume) throws IOException {
+        final File answersFile = new File(directory, ANSWERS);
+        if (resume && answersFile.exists()) {
+            try (BufferedReader in = new BufferedReader(new FileReader(answersFile))) {
+                String line;
+                while ((line = in.readLine()) != null) {
+                    final JsonNode answer;
+                    try {
+                        answer = MAPPER.readTree(line);
+                    } catch (IOException e) {
+                        break; // cut by a killed run
+                    }
+                    if (answer == null || !answer.has("query") || !answer.has("entry")) break;
+                    answers.put(answer.get("query").asInt(), MAPPER.treeToValue(answer.get("entry"), ReportEntry.class));
+                }
+            }
+        }
+        // a truncated last line is dropped by writing the answers read again, the old file is replaced once done
+        final File rewritten = new File(directory, ANSWERS + ".tmp");
+        generator = MAPPER.getFactory().createGenerator(new FileOutputStream(rewritten), JsonEncoding.UTF8);
+        generator.setRootValueSeparator(null);
+        for (final Map.Entry<Integer, ReportEntry> answer : answers.entrySet()) {
+            writeAnswer(generator, answer.getKey(), answer.getValue());
+        }
+        if (!rewritten.renameTo(answersFile)) {
+            generator.close();
+            throw new IOException("Checkpoint: can't replace " + answersFile);
+        }
+    }
+
+    /*
+     * The queries in generation order, their indexes identify the answers. Only the queries that ClauseFile writes
+     * are numbered, so that the queries read back on resume get the same indexes; the debugging queries of -d are
+     * not checkpointed
+     */
+    void setQueries(final List<Z3Query> queries) {
+        queryIndex.clear();
+        int index = 0;
+        for (final Z3Query q : queries) {
+            if (q.debugging) continue;
+            queryIndex.put(q, index++);
+        }
+    }
+
+    static String readFingerprint(final File directory) throws IOException {
+        final File file = new File(directory, FINGERPRINT);
+        if (!file.exists()) return null;
+        try (BufferedReader in = new BufferedReader(new FileReader(file))) {
+            return in.readLine();
+        }
+    }
+
+    static void writeFingerprint(final File directory, final String fingerprint) throws IOException {
+        try (Writer out = new FileWriter(new File(directory, FINGERPRINT))) {
+            out.write(fingerprint);
+            out.write('\n');
+        }
+    }
+
+    ReportEntry getAnswer(final Z3Query q) {
+        final Integer index = queryIndex.get(q);
+        return index == null ? null : answers.get(index);
+    }
+
+    int getNumberOfAnswers() {
+        return answers.size();
+    }
+
+    synchronized void record(final Z3Query q, final ReportEntry reportEntry) throws IOException {
+        final Integer index = queryIndex.get(q);
+        if (index == null) return;
+        answers.put(index, reportEntry);
+        writeAnswer(generator, index, reportEntry);
+    }
+
+    private static void writeAnswer(final JsonGenerator generator, final int index, final ReportEntry reportEntry)
+            throws IOException {
+        generator.writeStartObject();
+        generator.writeNumberField("query", index);
+        generator.writeFieldName("entry");
+        MAPPER.writeValue(generator, reportEntry);
+        generator.writeEndObject();
+        generator.writeRaw('\n');
+        generator.flush();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        generator.close();
+    }
+}
@@ -0,0 +1,321 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 TU Wien
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.horndroid.z3;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.microsoft.z3.*;
+
+import java.io.*;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/*
+ * Reads and writes the relations, rules and queries of an FSEngine as an SMT-LIB2 fixedpoint file:
+ *
+ *   ; horndroid clauses, bitvector size 64
+ *   (declare-rel R_1_2_3 ((_ BitVec 64) Bool))
+ *   (rule (forall ((x0 (_ BitVec 64)) (x1 Bool)) ...))
+ *   ; query {"description": ..., "className": ..., ...}
+ *   (query (exists (...) ...))
+ *
+ * One declaration, rule or query per line. The free (de Bruijn) variables of the rules and queries are bound by the
+ * quantifier written around them, which is removed again when reading. Formulas are printed and parsed one chunk at
+ * a time, so the whole system is never held as a string.
+ */
+final class ClauseFile {
+    private static final String HEADER = "; horndroid clauses, bitvector size ";
+    private static final String QUERY_INFO = "; query ";
+    private static final int RULES_PER_PARSE = 256;
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private static final Pattern DECLARE_REL = Pattern.compile("\\(declare-rel (\\S+) \\((.*)\\)\\)");
+    private static final Pattern SORT = Pattern.compile("\\(_ BitVec (\\d+)\\)|Bool|Int");
+    private static final Pattern SIMPLE_SYMBOL = Pattern.compile("[a-zA-Z~!@$%^&*_+=<>.?/\\-][a-zA-Z0-9~!@$%^&*_+=<>.?/\\-]*");
+
+    private ClauseFile() {
+    }
+
+    static void write(final Context ctx, final int bvSize, final List<FuncDecl> funcs, final List<BoolExpr> rules,
+                      final List<Z3Query> queries, final File file) throws IOException {
+        try (BufferedWriter out = new BufferedWriter(new FileWriter(file))) {
+            writeHeader(out, bvSize);
+            writeBody(ctx, out, funcs, rules, queries);
+        }
+    }
+
+    static void writeHeader(final BufferedWriter out, final int bvSize) throws IOException {
+        out.write(HEADER + bvSize);
+        out.newLine();
+    }
+
+    /*
+     * The declarations, rules and queries, one per line
+     */
+    static void writeBody(final Context ctx, final BufferedWriter out, final List<FuncDecl> funcs,
+                          final List<BoolExpr> rules, final List<Z3Query> queries) throws IOException {
+        for (final FuncDecl func : funcs) {
+            out.write("(declare-rel " + symbol(func.getName().toString()) + " (");
+            final Sort[] domain = func.getDomain();
+            for (int i = 0; i < domain.length; i++) {
+                if (i > 0) out.write(' ');
+                out.write(domain[i].toString());
+            }
+            out.write("))");
+            out.newLine();
+        }
+        for (final BoolExpr rule : rules) {
+            out.write("(rule " + oneLine(close(ctx, rule, true)) + ")");
+            out.newLine();
+        }
+        for (final Z3Query q : queries) {
+            if (q.debugging) continue;
+            final Map<String, Object> info = new LinkedHashMap<String, Object>();
+            info.put("description", q.getDescription());
+            info.put("verbose", q.isVerbose());
+            info.put("className", q.getClassName());
+            info.put("methodName", q.getMethodName());
+            info.put("pc", q.getPc());
+            info.put("sinkName", q.getSinkName());
+            out.write(QUERY_INFO + MAPPER.writeValueAsString(info));
+            out.newLine();
+            out.write("(query " + oneLine(close(ctx, q.getQuery(), false)) + ")");
+            out.newLine();
+        }
+    }
+
+    static int readBitvectorSize(final File file) throws IOException {
+        try (BufferedReader in = new BufferedReader(new FileReader(file))) {
+            final String header = in.readLine();
+            if (header == null || !header.startsWith(HEADER)) {
+                throw new IOException("ClauseFile: " + file + " is not a horndroid clause file");
+            }
+            try {
+                return Integer.parseInt(header.substring(HEADER.length()).trim());
+            } catch (NumberFormatException e) {
+                throw new IOException("ClauseFile: bad header in " + file, e);
+            }
+        }
+    }
+
+    static void checkHeader(final String header, final int bvSize, final File file) throws IOException {
+        if (header == null || !header.equals(HEADER + bvSize)) {
+            throw new IOException("ClauseFile: " + file + " was not written on " + bvSize + " bitvectors size");
+        }
+    }
+
+    /*
+     * Declares the relations in ctx and adds them, the rules and the queries of the file to the given lists
+     */
+    static void read(final Context ctx, final int bvSize, final File file, final List<FuncDecl> funcs,
+                     final List<BoolExpr> rules, final List<Z3Query> queries) throws IOException {
+        final Parser parser = new Parser(ctx, Collections.<FuncDecl>emptyList(), funcs, rules, queries);
+        try (BufferedReader in = new BufferedReader(new FileReader(file))) {
+            checkHeader(in.readLine(), bvSize, file);
+            String line;
+            while ((line = in.readLine()) != null) {
+                parser.parse(line);
+            }
+        }
+        parser.finish();
+    }
+
+    /*
+     * Adds the declarations, rules and queries of lines written by writeBody to the given lists, nothing if one of
+     * them can't be parsed
+     */
+    static void parseLines(final Context ctx, final Collection<FuncDecl> known, final List<String> lines,
+                           final List<FuncDecl> funcs, final List<BoolExpr> rules, final List<Z3Query> queries)
+            throws IOException {
+        final List<FuncDecl> parsedFuncs = new ArrayList<FuncDecl>();
+        final List<BoolExpr> parsedRules = new ArrayList<BoolExpr>();
+        final List<Z3Query> parsedQueries = new ArrayList<Z3Query>();
+        final Parser parser = new Parser(ctx, known, parsedFuncs, parsedRules, parsedQueries);
+        for (final String line : lines) {
+            parser.parse(line);
+        }
+        parser.finish();
+        funcs.addAll(parsedFuncs);
+        rules.addAll(parsedRules);
+        queries.addAll(parsedQueries);
+    }
+
+    /*
+     * Parses the lines written by writeBody, the relations they use must be declared by them or be in 'known'.
+     * Other comment lines are ignored.
+     */
+    static final class Parser {
+        private final Context ctx;
+        private final List<FuncDecl> funcs;
+        private final List<BoolExpr> rules;
+        private final List<Z3Query> queries;
+        private final List<Symbol> names = new ArrayList<Symbol>();
+        private final List<FuncDecl> decls = new ArrayList<FuncDecl>();
+        private final Set<String> declared = new HashSet<String>();
+        private final List<String> chunk = new ArrayList<String>();
+        private Map<?, ?> info = null;
+
+        Parser(final Context ctx, final Collection<FuncDecl> known, final List<FuncDecl> funcs,
+               final List<BoolExpr> rules, final List<Z3Query> queries) {
+            this.ctx = ctx;
+            this.funcs = funcs;
+            this.rules = rules;
+            this.queries = queries;
+            for (final FuncDecl func : known) {
+                add(func);
+            }
+        }
+
+        // the engine declares a relation each time it is used, the parser only needs it once
+        private void add(final FuncDecl func) {
+            if (declared.add(func.getName().toString())) {
+                names.add(func.getName());
+                decls.add(func);
+            }
+        }
+
+        void parse(final String line) throws IOException {
+            if (line.startsWith("(declare-rel ")) {
+                final FuncDecl func = declare(ctx, line);
+                funcs.add(func);
+                add(func);
+            } else if (line.startsWith("(rule ")) {
+                chunk.add(line.substring("(rule ".length(), line.length() - 1));
+                if (chunk.size() == RULES_PER_PARSE) {
+                    ClauseFile.parse(ctx, chunk, names, decls, rules);
+                    chunk.clear();
+                }
+            } else if (line.startsWith(QUERY_INFO)) {
+                info = MAPPER.readValue(line.substring(QUERY_INFO.length()), Map.class);
+            } else if (line.startsWith("(query ")) {
+                if (info == null) throw new IOException("ClauseFile: query without description " + line);
+                final List<BoolExpr> formula = new ArrayList<BoolExpr>(1);
+                ClauseFile.parse(ctx, Collections.singletonList(line.substring("(query ".length(), line.length() - 1)),
+                        names, decls, formula);
+                queries.add(new Z3Query(formula.get(0), (String) info.get("description"),
+                        Boolean.TRUE.equals(info.get("verbose")), (String) info.get("className"),
+                        (String) info.get("methodName"), (String) info.get("pc"), (String) info.get("sinkName")));
+                info = null;
+            }
+        }
+
+        void finish() throws IOException {
+            if (!chunk.isEmpty()) ClauseFile.parse(ctx, chunk, names, decls, rules);
+            chunk.clear();
+        }
+    }
+
+    private static FuncDecl declare(final Context ctx, final String line) throws IOException {
+        final Matcher declaration = DECLARE_REL.matcher(line);
+        if (!declaration.matches()) throw new IOException("ClauseFile: bad relation declaration " + line);
+        String name = declaration.group(1);
+        if (name.startsWith("|")) name = name.substring(1, name.length() - 1);
+        final List<Sort> domain = new ArrayList<Sort>();
+        final Matcher sort = SORT.matcher(declaration.group(2));
+        while (sort.find()) {
+            if (sort.group(1) != null) {
+                domain.add(ctx.mkBitVecSort(Integer.parseInt(sort.group(1))));
+            } else if (sort.group().equals("Int")) {
+                domain.add(ctx.mkIntSort());
+            } else {
+                domain.add(ctx.mkBoolSort());
+            }
+        }
+        return ctx.mkFuncDecl(name, domain.toArray(new Sort[domain.size()]), ctx.mkBoolSort());
+    }
+
+    private static void parse(final Context ctx, final List<String> formulas, final List<Symbol> names,
+                              final List<FuncDecl> decls, final List<BoolExpr> parsed) throws IOException {
+        final StringBuilder script = new StringBuilder();
+        for (final String formula : formulas) {
+            script.append("(assert ").append(formula).append(")\n");
+        }
+        final BoolExpr conjunction;
+        try {
+            conjunction = ctx.parseSMTLIB2String(script.toString(), null, null,
+                    names.toArray(new Symbol[names.size()]), decls.toArray(new FuncDecl[decls.size()]));
+        } catch (Z3Exception e) {
+            throw new IOException("ClauseFile: can't parse " + formulas.get(0), e);
+        }
+        if (formulas.size() == 1) {
+            parsed.add(open(conjunction));
+            return;
+        }
+        if (!conjunction.isAnd() || conjunction.getNumArgs() != formulas.size()) {
+            throw new IOException("ClauseFile: expected " + formulas.size() + " formulas from " + formulas.get(0));
+        }
+        for (final Expr formula : conjunction.getArgs()) {
+            parsed.add(open((BoolExpr) formula));
+        }
+    }
+
+    /*
+     * Binds the free variables of e: forall for rules, exists for queries
+     */
+    private static BoolExpr close(final Context ctx, final BoolExpr e, final boolean universal) {
+        final Map<Integer, Sort> free = new HashMap<Integer, Sort>();
+        freeVariables(e, 0, free, new HashSet<Integer>());
+        if (free.isEmpty()) return e;
+        final int n = Collections.max(free.keySet()) + 1;
+        final Sort[] sorts = new Sort[n];
+        final Symbol[] names = new Symbol[n];
+        for (int i = 0; i < n; i++) {
+            // the variable of index i is bound by the i-th declaration from the end
+            final Sort sort = free.get(n - 1 - i);
+            sorts[i] = sort != null ? sort : ctx.mkBoolSort();
+            names[i] = ctx.mkSymbol("x" + Integer.toString(n - 1 - i));
+        }
+        return universal
+                ? ctx.mkForall(sorts, names, e, 0, null, null, null, null)
+                : ctx.mkExists(sorts, names, e, 0, null, null, null, null);
+    }
+
+    private static BoolExpr open(final BoolExpr e) {
+        return e.isQuantifier() ? ((Quantifier) e).getBody() : e;
+    }
+
+    private static void freeVariables(final Expr e, final int depth, final Map<Integer, Sort> free,
+                                      final Set<Integer> visited) {
+        if (depth == 0 && !visited.add(e.getId())) return;
+        if (e.isVar()) {
+            if (e.getIndex() >= depth) free.put(e.getIndex() - depth, e.getSort());
+        } else if (e.isQuantifier()) {
+            final Quantifier quantifier = (Quantifier) e;
+            freeVariables(quantifier.getBody(), depth + quantifier.getNumBound(), free, visited);
+        } else if (e.isApp()) {
+            for (final Expr arg : e.getArgs()) {
+                freeVariables(arg, depth, free, visited);
+            }
+        }
+    }
+
+    private static String symbol(final String name) {
+        return SIMPLE_SYMBOL.matcher(name).matches() ? name : '|' + name + '|';
+    }
+
+    private static String oneLine(final Expr e) {
+        return e.toString().replace('\n', ' ');
+    }
+}
@@ -25,20 +25,35 @@
 package com.horndroid.z3;
 
 import com.horndroid.Options;
+import com.horndroid.analysis.AllocationTable;
 import com.horndroid.analysis.Analysis;
 import com.horndroid.debugging.Debug;
 import com.horndroid.debugging.LHInfo;
 import com.horndroid.debugging.MethodeInfo;
 import com.horndroid.debugging.RegInfo;
+import com.horndroid.exceptions.ReportWritingException;
 import com.horndroid.model.Report;
 import com.horndroid.model.ReportEntry;
+import com.horndroid.printers.StreamingReportWriter;
 import com.horndroid.util.CMPair;
+import com.horndroid.util.NativeMemory;
 import com.microsoft.z3.*;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import static com.horndroid.constants.TimeConstants.MILLISECONDS_IN_SECOND_CONSTANT;
 import static com.horndroid.debugging.QUERY_TYPE.GLOBAL;
 import static com.horndroid.debugging.QUERY_TYPE.HIGH;
 import static com.horndroid.debugging.QUERY_TYPE.LOCAL;
@@ -55,9 +70,27 @@ public class FSEngine extends Z3Clauses {
 
     private Map<Integer, Expr[]> rPredExpr; // helps generating rPred when there are no changes to the values
 
-    private Map<Integer, Integer> allocationPointOffset;
-
-    private Map<Integer, Integer> allocationPointSize;
+    private AllocationTable allocationTable;
+
+    private Map<String, int[]> methodLocalHeap; // c_m -> local heap entries carried by the relations of the method
+
+    private Set<String> querySelection; // "class method" of the queries that are skipped (or the only ones run if querySelectionOnly)
+    private boolean querySelectionOnly = false;
+    private int skippedQueries = 0;
+    private WitnessExtractor witnessExtractor; // set with -z
+    private volatile StreamingReportWriter reportWriter; // shared by the query workers
+    private Checkpoint checkpoint;
+    private IncrementalModel incremental; // set with -N
+    private SummaryCache summaryCache; // set with -S
+    private int globalFuncs = -1; // relations declared before the clauses of the first method
+    private int[] fragmentStart; // sizes of the relations, rules and queries when the current method started
+    private String fragmentKey;
+    private String fragmentLabel;
+    private boolean fragmentLibrary;
+    private int generatedFragments = 0;
+    private int splicedFragments = 0;
+    private Portfolio portfolio; // set with -P while the queries are answered
+    private Map<String, Integer> portfolioWins = Collections.emptyMap();
 
     public FSEngine(Options options) {
         try {
@@ -77,6 +110,7 @@ public class FSEngine extends Z3Clauses {
 
             HashMap<String, String> cfg = new HashMap<String, String>();
             mContext = new Context(cfg); // Context ctx = mContext;
+            releaseFixedpointsEagerly(mContext);
             // mFixedPoint = mContext.mkFixedpoint(); //Fixedpoint fp =
             // mFixedPoint;
             mFuncs = new ArrayList<>();
@@ -180,13 +214,12 @@ public class FSEngine extends Z3Clauses {
             throw new RuntimeException("Z3Engine Failed: addRule");
         }
     }
-    public void initialize( Integer localHeapSize, Map<Integer,Integer> allocationPointOffset, Map<Integer,Integer> allocationPointSize) {
+    public void initialize(AllocationTable allocationTable) {
         if (this.initialized){
             throw new RuntimeException("FSEngine Failed: initialized twice");
         }
-        this.localHeapSize = localHeapSize;
-        this.allocationPointOffset = allocationPointOffset;
-        this.allocationPointSize = allocationPointSize;
+        this.localHeapSize = allocationTable.getHeapSize();
+        this.allocationTable = allocationTable;
         this.var.initialize(localHeapSize);
         this.initialized = true;
 
@@ -203,8 +236,7 @@ public class FSEngine extends Z3Clauses {
             throw new RuntimeException("FSEngine Failed: initialized twice");
         }
         this.localHeapSize = (Integer) 0;
-        this.allocationPointOffset = new HashMap<Integer,Integer>();
-        this.allocationPointSize = new HashMap<Integer,Integer>();
+        this.allocationTable = new AllocationTable();
         this.var.initialize(0);
         this.initialized = true;
         this.rPredExpr = new HashMap<>();
@@ -213,11 +245,48 @@ public class FSEngine extends Z3Clauses {
         return initialized;
     }
 
-    public Integer getOffset(int instanceNumber){
-        return allocationPointOffset.get(instanceNumber);
+    /*
+     * Return true if the object allocated at instanceNumber is tracked on the local heap
+     */
+    public boolean isLocalHeapAllocation(int instanceNumber){
+        return allocationTable.contains(instanceNumber);
+    }
+    public int getOffset(int instanceNumber){
+        return allocationTable.getOffset(indexOf(instanceNumber));
+    }
+    public int getSize(int instanceNumber){
+        return allocationTable.getSize(indexOf(instanceNumber));
+    }
+    /*
+     * Restrict the R and RES relations of the methods in 'methodLocalHeap' to the given sorted local heap entries.
+     * Methods that are not in the map carry the whole local heap.
+     */
+    public void setMethodLocalHeap(Map<String, int[]> methodLocalHeap){
+        this.methodLocalHeap = methodLocalHeap;
     }
-    public Integer getSize(int instanceNumber){
-        return allocationPointSize.get(instanceNumber);
+    private int[] getLocalHeapEntries(String c, String m){
+        if (methodLocalHeap == null){
+            return null;
+        }
+        return methodLocalHeap.get(c + '_' + m);
+    }
+    private int getLocalHeapSize(String c, String m){
+        final int[] entries = getLocalHeapEntries(c, m);
+        return entries == null ? localHeapSize : entries.length;
+    }
+    /*
+     * Return true if the relations of the method c,m carry the local heap entry 'entry'
+     */
+    public boolean hasLocalHeapEntry(String c, String m, int entry){
+        final int[] entries = getLocalHeapEntries(c, m);
+        return entries == null || Arrays.binarySearch(entries, entry) >= 0;
+    }
+    private int indexOf(int instanceNumber){
+        final int n = allocationTable.indexOf(instanceNumber);
+        if (n < 0){
+            throw new RuntimeException("FSEngine: no local heap entry for allocation point " + instanceNumber);
+        }
+        return n;
     }
 
     public FSVariable getVars() {
@@ -232,96 +301,542 @@ public class FSEngine extends Z3Clauses {
         if (options.maxQueries!=0 && mQueries.size() >= options.maxQueries){
             return;
         }
-        boolean sameAsCurrentQuery = QUERY_IS_COMPACT && (mCurrentQuery != null)
-                && mCurrentQuery.getClassName().equals(query.getClassName())
-                && mCurrentQuery.getMethodName().equals(query.getMethodName())
-                && mCurrentQuery.getPc().equals(query.getPc())
-                && mCurrentQuery.getSinkName().equals(query.getSinkName());
+        // equal queries and the queries of a sink call site are merged by the QueryNormalizer
+        mQueries.add(query);
+    }
 
-        if (sameAsCurrentQuery) {
-            // merge by or-ing queries
-            mCurrentQuery.setQuery(this.or(mCurrentQuery.getQuery(), query.getQuery()));
-        } else {
-            // start new query
-            if (mCurrentQuery != null){
-                mQueries.add(mCurrentQuery);
+    public void addQueryDebug(Z3Query query) {
+        mQueries.add(query);
+    }
+
+
+
+    /*
+     * Skip the queries raised in the given methods, or run only those if only is set
+     */
+    public void setQuerySelection(Set<String> methods, boolean only) {
+        this.querySelection = methods;
+        this.querySelectionOnly = only;
+    }
+
+    /*
+     * Entries are written there as soon as their query is answered
+     */
+    public void setReportWriter(StreamingReportWriter reportWriter) {
+        this.reportWriter = reportWriter;
+    }
+
+    /*
+     * Writes the clauses into directory and records there the answers of the queries as they are given, fingerprint
+     * is the digest of the inputs of the clauses
+     */
+    public void checkpointTo(File directory, String fingerprint) {
+        directory.mkdirs();
+        File clauses = new File(directory, Checkpoint.CLAUSES);
+        File written = new File(directory, Checkpoint.CLAUSES + ".tmp");
+        File stamp = new File(directory, Checkpoint.FINGERPRINT);
+        try {
+            // no fingerprint until the clauses are replaced, a killed run must not pair the old one with them
+            if (stamp.exists() && !stamp.delete()) throw new IOException("can't delete " + stamp);
+            ClauseFile.write(mContext, bvSize, mFuncs, mRules, mQueries, written);
+            if (!written.renameTo(clauses)) throw new IOException("can't replace " + clauses);
+            checkpoint = new Checkpoint(directory, false);
+            Checkpoint.writeFingerprint(directory, fingerprint);
+        } catch (IOException e) {
+            LOGGER.error("Error: Can't write the checkpoint in " + directory, e);
+        }
+    }
+
+    /*
+     * Loads the clauses and the answers of the checkpoint in directory instead of generating them, false if there is
+     * no usable checkpoint, i.e. none or one written for inputs of another fingerprint
+     */
+    public boolean resumeFrom(File directory, String fingerprint) {
+        File clauses = new File(directory, Checkpoint.CLAUSES);
+        if (!clauses.exists()) return false;
+        try {
+            if (!fingerprint.equals(Checkpoint.readFingerprint(directory))) {
+                LOGGER.warn("The checkpoint in " + directory + " was written for another apk, options or bin/ files, "
+                        + "generating the clauses again");
+                return false;
             }
-            mCurrentQuery = query;
+            ClauseFile.read(mContext, bvSize, clauses, mFuncs, mRules, mQueries);
+            checkpoint = new Checkpoint(directory, true);
+        } catch (IOException e) {
+            LOGGER.error("Error: Can't resume from the checkpoint in " + directory, e);
+            mFuncs.clear();
+            mRules.clear();
+            mQueries.clear();
+            return false;
         }
+        LOGGER.info("Resuming from " + directory + ": " + mRules.size() + " rules, " + mQueries.size() + " queries, "
+                + checkpoint.getNumberOfAnswers() + " already answered");
+        return true;
     }
 
-    public void addQueryDebug(Z3Query query) {
-        mQueries.add(query);
+    /*
+     * Writes the relations, rules and queries as an SMT-LIB2 fixedpoint file, one formula at a time
+     */
+    public void exportClauses(File file) {
+        if (file.getParentFile() != null) file.getParentFile().mkdirs();
+        try {
+            ClauseFile.write(mContext, bvSize, mFuncs, mRules, mQueries, file);
+        } catch (IOException e) {
+            throw new RuntimeException("FSEngine Failed: export to " + file, e);
+        }
+        LOGGER.info("Exported " + mFuncs.size() + " relations, " + mRules.size() + " rules and " + mQueries.size()
+                + " queries to " + file);
+    }
+
+    /*
+     * Reads a file written by exportClauses in place of clause generation
+     */
+    public void importClauses(File file) {
+        try {
+            ClauseFile.read(mContext, bvSize, file, mFuncs, mRules, mQueries);
+        } catch (IOException e) {
+            throw new RuntimeException("FSEngine Failed: import from " + file, e);
+        }
+        LOGGER.info("Imported " + mFuncs.size() + " relations, " + mRules.size() + " rules and " + mQueries.size()
+                + " queries from " + file);
+    }
+
+    public static int readBitvectorSize(File file) {
+        try {
+            return ClauseFile.readBitvectorSize(file);
+        } catch (IOException e) {
+            throw new RuntimeException("FSEngine Failed: import from " + file, e);
+        }
+    }
+
+    /*
+     * Incremental analysis: the methods whose fingerprint is in the model of the previous version in directory are
+     * spliced from it, and the model of this version replaces it once the queries are answered
+     */
+    public void openIncrementalModel(File directory) {
+        incremental = new IncrementalModel(directory, bvSize, options.timeout + " " + options.witness);
+        try {
+            incremental.load();
+        } catch (IOException e) {
+            LOGGER.error("Error: Can't read the model of the previous version in " + directory
+                    + ", all the methods are analysed", e);
+        }
+        LOGGER.info("Incremental analysis: " + incremental.getNumberOfPreviousMethods()
+                + " methods in the model of the previous version in " + directory);
+    }
+
+    /*
+     * Clauses of library methods shared with the analyses of other apks, see SummaryCache
+     */
+    public void openSummaryCache(File directory) {
+        summaryCache = new SummaryCache(directory, bvSize);
+    }
+
+    /*
+     * True if the clauses of the methods are taken from (and given to) the incremental model or the summary cache,
+     * the Analysis then brackets the clauses of each method with spliceFragment or beginFragment and endFragment
+     */
+    public boolean isReusingFragments() {
+        return incremental != null || summaryCache != null;
+    }
+
+    /*
+     * Adds the clauses of the method with this fingerprint from the previous version or, for a library method, from
+     * the summary cache; false if it must be generated
+     */
+    public boolean spliceFragment(String key, String label, boolean library) {
+        List<String> lines = incremental == null ? null : incremental.getLines(key);
+        try {
+            if (lines == null && library && summaryCache != null) {
+                lines = summaryCache.get(key);
+            }
+        } catch (IOException e) {
+            LOGGER.error("Error: Can't read the summary of " + label + ", generating it", e);
+        }
+        if (lines == null) return false;
+        if (globalFuncs < 0) globalFuncs = mFuncs.size();
+        final int firstFunc = mFuncs.size();
+        final int firstRule = mRules.size();
+        final int firstQuery = mQueries.size();
+        try {
+            ClauseFile.parseLines(mContext, new ArrayList<>(mFuncs.subList(0, globalFuncs)), lines, mFuncs, mRules,
+                    mQueries);
+        } catch (IOException e) {
+            LOGGER.error("Error: Can't reuse the clauses of " + label + ", generating them", e);
+            return false;
+        }
+        if (incremental != null) {
+            incremental.add(key, label, lines, firstFunc, mFuncs.size(), firstRule, mRules.size(), firstQuery,
+                    mQueries.size());
+        }
+        splicedFragments++;
+        return true;
+    }
+
+    /*
+     * The clauses generated until endFragment are those of the method with this fingerprint
+     */
+    public void beginFragment(String key, String label, boolean library) {
+        if (globalFuncs < 0) globalFuncs = mFuncs.size();
+        fragmentStart = new int[]{mFuncs.size(), mRules.size(), mQueries.size()};
+        fragmentKey = key;
+        fragmentLabel = label;
+        fragmentLibrary = library;
+    }
+
+    public void endFragment() {
+        if (fragmentStart == null) throw new RuntimeException("FSEngine: endFragment without beginFragment");
+        if (incremental != null) {
+            incremental.add(fragmentKey, fragmentLabel, null, fragmentStart[0], mFuncs.size(), fragmentStart[1],
+                    mRules.size(), fragmentStart[2], mQueries.size());
+        }
+        if (fragmentLibrary && summaryCache != null) {
+            try {
+                summaryCache.put(mContext, fragmentKey, fragmentLabel, mFuncs.subList(fragmentStart[0], mFuncs.size()),
+                        mRules.subList(fragmentStart[1], mRules.size()),
+                        mQueries.subList(fragmentStart[2], mQueries.size()));
+            } catch (IOException e) {
+                LOGGER.error("Error: Can't write the summary of " + fragmentLabel, e);
+            }
+        }
+        generatedFragments++;
+        fragmentStart = null;
+    }
+
+    public void logFragments() {
+        LOGGER.info("Clauses of " + splicedFragments + " methods reused, " + generatedFragments + " generated"
+                + (summaryCache == null ? "" : " (" + summaryCache.getHits() + " summary cache hits, "
+                + summaryCache.getStored() + " summaries stored)"));
     }
 
+    private void saveIncrementalModel() {
+        if (incremental == null) return;
+        try {
+            incremental.save(mContext, mFuncs, mRules, mQueries);
+        } catch (IOException e) {
+            LOGGER.error("Error: Can't write the model for the incremental analysis", e);
+        }
+        incremental = null;
+    }
 
+    /*
+     * Number of queries answered first by each engine configuration of the portfolio (-P)
+     */
+    public Map<String, Integer> getPortfolioWins() {
+        return portfolioWins;
+    }
+
+    public int getSkippedQueries() {
+        return skippedQueries;
+    }
+
+    private boolean isSelected(Z3Query q) {
+        if (querySelection == null || q.debugging) return true;
+        return querySelection.contains(q.getClassName() + ' ' + q.getMethodName()) == querySelectionOnly;
+    }
+
+    /*
+     * Dumps the rules and the query as SMT-LIB into <output>/slow-queries
+     */
+    private void logSlowQuery(Fixedpoint fixedpoint, Z3Query q, BoolExpr query, int counter, long queryTime) {
+        File directory = new File(options.outputDirectory + "/slow-queries");
+        directory.mkdirs();
+        File queryFile = new File(directory, "query" + Integer.toString(counter + 1) + ".smt2");
+        try (PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(queryFile)))) {
+            out.println("; " + q.getDescription());
+            out.println("; " + q.getClassName() + ' ' + q.getMethodName() + " pc " + q.getPc() + ", " + queryTime + " ms");
+            out.println(fixedpoint.toString(new BoolExpr[]{query}));
+        } catch (IOException e) {
+            LOGGER.error("Error: Can't write slow query " + queryFile, e);
+        }
+        LOGGER.info("Slow query (" + queryTime + " ms) written to " + queryFile);
+    }
 
     public Report executeAllQueries(Analysis analysis, String tag) {
         Report report = new Report();
-        if (mCurrentQuery != null) mQueries.add(mCurrentQuery);
-
         int numberOfQueries = mQueries.size();
         report.setNumberOfQueries(numberOfQueries);
 
 // Used for debugging
         final Debug debug = new Debug(analysis);
-        // Counter of the number of queries
-        int counter = 0;
-        int currentPrint = 0;
-        int percentage = 0;
 
         LOGGER.info("Number of the generated queries: "+ mQueries.size());
 
+        skippedQueries = 0;
+        List<Z3Query> queries = new ArrayList<>();
+        List<ReportEntry> restored = new ArrayList<>();
+        List<ReportEntry> reused = new ArrayList<>();
+        if (checkpoint != null) checkpoint.setQueries(mQueries);
+        if (incremental != null) incremental.prepare(mRules, mQueries);
         for (Z3Query mQuery : mQueries) {
-            final ReportEntry reportEntry = new ReportEntry();
-            final Z3Query q = mQuery;
-            boolean isVerbose = q.isVerbose();
-            reportEntry.setVerbose(isVerbose);
-            reportEntry.setDescription(q.getDescription());
-
-            final Fixedpoint temp = mContext.mkFixedpoint();
-            for (BoolExpr rule : mRules) {
-                temp.addRule(rule, null);
+            if (!isSelected(mQuery)) {
+                skippedQueries++;
+            } else if (checkpoint != null && checkpoint.getAnswer(mQuery) != null) {
+                restored.add(checkpoint.getAnswer(mQuery));
+            } else if (incremental != null && incremental.getAnswer(mQuery) != null) {
+                reused.add(incremental.getAnswer(mQuery));
+            } else {
+                queries.add(mQuery);
             }
-            for (FuncDecl func : mFuncs) {
-                temp.registerRelation(func);
-                Symbol[] symbols = new Symbol[]{mContext.mkSymbol("interval_relation"),
-                        mContext.mkSymbol("bound_relation")};
-                temp.setPredicateRepresentation(func, symbols);
+        }
+        // the streamed report is written again by each run, the answers restored or reused go into it too
+        for (ReportEntry reportEntry : restored) {
+            report.addReportEntry(reportEntry);
+        }
+        stream(restored);
+        for (ReportEntry reportEntry : reused) {
+            report.addReportEntry(reportEntry);
+        }
+        stream(reused);
+
+        witnessExtractor = options.witness ? new WitnessExtractor(analysis.makeMethodNames()) : null;
+        final QueryNormalizer normalizer = new QueryNormalizer(mContext, options);
+        final int numberOfSelected = queries.size();
+        queries = normalizer.normalize(queries);
+        LOGGER.info("Number of the queries to answer: " + queries.size() + " (" + numberOfSelected + " selected, "
+                + normalizer.getNumberOfMerged() + " merged per sink call site)");
+
+        final QueryScheduler scheduler = new QueryScheduler(options);
+        if (options.scheduleQueries) {
+            queries = scheduler.order(queries, analysis.makeQueryCost());
+        }
+        final List<List<ReportEntry>> reportEntries =
+                new ArrayList<>(Collections.<List<ReportEntry>>nCopies(queries.size(), null));
+        if (options.queryWorkers > 1 && !options.debug) {
+            executeParallel(queries, reportEntries, scheduler, normalizer);
+        } else if (options.portfolio != null && !queries.isEmpty()) {
+            portfolio = new Portfolio(options.portfolio, mContext, mRules, mFuncs);
+            if (portfolio.isEmpty()) {
+                portfolio.close();
+                portfolio = null;
+            }
+            try {
+                executeSequential(queries, reportEntries, scheduler, normalizer, debug);
+            } finally {
+                if (portfolio != null) {
+                    portfolioWins = portfolio.getWins();
+                    portfolio.close();
+                    portfolio = null;
+                }
+            }
+        } else {
+            executeSequential(queries, reportEntries, scheduler, normalizer, debug);
+        }
+        for (List<ReportEntry> answered : reportEntries) {
+            if (answered == null) continue;
+            for (ReportEntry reportEntry : answered) {
+                report.addReportEntry(reportEntry);
             }
-            Status result = temp.query(q.getQuery());
+        }
+        if (scheduler.getPruned() > 0) {
+            LOGGER.info(scheduler.getPruned() + " queries were not needed after their stop condition was met");
+        }
 
-            String res_string = result.toString();
+        closeCheckpoint();
+        saveIncrementalModel();
 
-            //if (res_string.equals("SATISFIABLE"))
-            //    System.out.println(temp.getAnswer());
+        debug.printToLatex();
+        report.setTag(tag);
+        return report;
+    }
 
-            if (res_string.equals("SATISFIABLE"))
-                reportEntry.setResult("POTENTIAL LEAK");
-            if (res_string.equals("UNSATISFIABLE"))
-                reportEntry.setResult("NO LEAK");
-            if  (!(res_string.equals("SATISFIABLE")) && !res_string.equals("UNSATISFIABLE"))
-                reportEntry.setResult("UNKNOWN");
+    private BoolExpr inContext(BoolExpr e, Context ctx) {
+        if (ctx == mContext) return e;
+        synchronized (mContext) {
+            return (BoolExpr) e.translate(ctx);
+        }
+    }
 
-            report.addReportEntry(reportEntry);
+    /*
+     * Answers a normalized query and returns the entries of the generated queries it stands for
+     */
+    private List<ReportEntry> answer(Context ctx, List<BoolExpr> rules, List<FuncDecl> funcs,
+                                     QueryNormalizer normalizer, Z3Query q, int counter) {
+        final ReportEntry reportEntry = executeQuery(ctx, rules, funcs, normalizer, q, counter);
+        if (!normalizer.isMerged(q) || reportEntry.getResult().equals("NO LEAK")) {
+            return normalizer.fanOut(q, reportEntry);
+        }
+        // the disjunction does not tell which part leaks
+        final List<ReportEntry> reportEntries = new ArrayList<>();
+        for (Z3Query part : normalizer.getParts(q)) {
+            reportEntries.addAll(normalizer.fanOut(part, executeQuery(ctx, rules, funcs, normalizer, part, counter)));
+        }
+        return reportEntries;
+    }
+
+    /*
+     * Answers one query with the rules and relations of the context ctx
+     */
+    private ReportEntry executeQuery(Context ctx, List<BoolExpr> rules, List<FuncDecl> funcs,
+                                     QueryNormalizer normalizer, final Z3Query q, final int counter) {
+        final ReportEntry reportEntry = new ReportEntry();
+        boolean isVerbose = q.isVerbose();
+        reportEntry.setVerbose(isVerbose);
+        reportEntry.setDescription(q.getDescription());
+        reportEntry.setBitvectorSize(bvSize);
+        if (normalizer.isUnsatisfiable(q)) {
+            reportEntry.setResult("NO LEAK");
+            return reportEntry;
+        }
+        if (portfolio != null) {
+            final ReportEntry raced = portfolio.race(new Portfolio.Attempt() {
+                @Override
+                public ReportEntry run(Context memberCtx, List<BoolExpr> memberRules, List<FuncDecl> memberFuncs,
+                                       Params params) {
+                    final ReportEntry attempt = new ReportEntry(reportEntry);
+                    solve(memberCtx, memberRules, memberFuncs, params, q, counter, attempt);
+                    return attempt;
+                }
+            });
+            if (raced != null) return raced;
+            // no configuration could answer, the default engine of ctx answers instead
+        }
+        solve(ctx, rules, funcs, null, q, counter, reportEntry);
+        return reportEntry;
+    }
 
-            LOGGER.info(Integer.toString(counter + 1) + " " + reportEntry.getDescription()+":"+reportEntry.getResult());
+    /*
+     * Answers q in ctx, with the fixedpoint parameters params if they are not null
+     */
+    private void solve(Context ctx, List<BoolExpr> rules, List<FuncDecl> funcs, Params params, Z3Query q,
+                       int counter, ReportEntry reportEntry) {
+        final BoolExpr query = inContext(q.getQuery(), ctx);
+
+        final Fixedpoint temp = ctx.mkFixedpoint();
+        try {
+            if (params != null) temp.setParameters(params);
+            answerWith(temp, ctx, rules, funcs, q, query, counter, reportEntry);
+        } finally {
+            // the fixedpoint holds a copy of all the rules, release it now rather than when it is finalized
+            temp.dispose();
+            if (query != q.getQuery()) query.dispose();
+        }
+    }
 
+    private void answerWith(Fixedpoint temp, Context ctx, List<BoolExpr> rules, List<FuncDecl> funcs, Z3Query q,
+                            BoolExpr query, int counter, ReportEntry reportEntry) {
+        for (BoolExpr rule : rules) {
+            temp.addRule(rule, null);
+        }
+        Symbol[] symbols = new Symbol[]{ctx.mkSymbol("interval_relation"),
+                ctx.mkSymbol("bound_relation")};
+        for (FuncDecl func : funcs) {
+            temp.registerRelation(func);
+            temp.setPredicateRepresentation(func, symbols);
+        }
+        long startTime = System.nanoTime();
+        Status result = temp.query(query);
+        long queryTime = (System.nanoTime() - startTime) / MILLISECONDS_IN_SECOND_CONSTANT;
+
+        String res_string = result.toString();
+        reportEntry.setQueryTime(queryTime);
+        reportEntry.setNumberOfRules(rules.size());
+        reportEntry.setNumberOfRelations(funcs.size());
+        if (result == Status.UNKNOWN)
+            reportEntry.setReasonUnknown(temp.getReasonUnknown());
+        if (options.slowQueryThreshold > 0 && queryTime > options.slowQueryThreshold)
+            logSlowQuery(temp, q, query, counter, queryTime);
+
+        if (res_string.equals("SATISFIABLE") && witnessExtractor != null && !q.debugging) {
+            Expr answer = temp.getAnswer();
+            reportEntry.setWitness(witnessExtractor.extract(answer));
+            answer.dispose();
+        }
+
+        if (res_string.equals("SATISFIABLE"))
+            reportEntry.setResult("POTENTIAL LEAK");
+        if (res_string.equals("UNSATISFIABLE"))
+            reportEntry.setResult("NO LEAK");
+        if  (!(res_string.equals("SATISFIABLE")) && !res_string.equals("UNSATISFIABLE"))
+            reportEntry.setResult("UNKNOWN");
+    }
+
+    private void closeCheckpoint() {
+        if (checkpoint == null) return;
+        try {
+            checkpoint.close();
+        } catch (IOException e) {
+            LOGGER.error("Error: Can't close the checkpoint", e);
+        }
+        checkpoint = null;
+    }
 
-            boolean isSAT = res_string.equals("SATISFIABLE");
-            if (!q.debugging && options.tillFirstLeak && isSAT) {
-                break;
+    /*
+     * Disposed fixedpoints are queued by the Z3 wrapper, release them when the next one is created
+     */
+    private static void releaseFixedpointsEagerly(Context ctx) {
+        ctx.getFixedpointDRQ().setLimit(1);
+    }
+
+    private static boolean isLeak(List<ReportEntry> reportEntries) {
+        for (ReportEntry reportEntry : reportEntries) {
+            if (reportEntry.getResult().equals("POTENTIAL LEAK")) return true;
+        }
+        return false;
+    }
+
+    private void logAnswers(int counter, List<ReportEntry> reportEntries, QueryNormalizer normalizer) {
+        for (ReportEntry reportEntry : reportEntries) {
+            LOGGER.info(Integer.toString(counter) + " " + reportEntry.getDescription() + ":" + reportEntry.getResult());
+        }
+        if (checkpoint != null) {
+            try {
+                for (ReportEntry reportEntry : reportEntries) {
+                    Z3Query original = normalizer.getOriginal(reportEntry);
+                    if (original != null) checkpoint.record(original, reportEntry);
+                }
+            } catch (IOException e) {
+                LOGGER.error("Error: Can't record the answers in the checkpoint", e);
+            }
+        }
+        if (incremental != null) {
+            for (ReportEntry reportEntry : reportEntries) {
+                Z3Query original = normalizer.getOriginal(reportEntry);
+                if (original != null) incremental.record(original, reportEntry);
+            }
+        }
+        stream(reportEntries);
+    }
+
+    private void stream(List<ReportEntry> reportEntries) {
+        final StreamingReportWriter writer = reportWriter;
+        if (writer == null) return;
+        try {
+            for (ReportEntry reportEntry : reportEntries) {
+                writer.write(reportEntry);
+            }
+        } catch (ReportWritingException e) {
+            LOGGER.error("Error: Can't stream the report entries, they will only be in the final report", e);
+            reportWriter = null;
+        }
+    }
+
+    private void executeSequential(List<Z3Query> queries, List<List<ReportEntry>> reportEntries,
+                                   QueryScheduler scheduler, QueryNormalizer normalizer, Debug debug) {
+        // Counter of the number of queries
+        int counter = 0;
+        int currentPrint = 0;
+        int percentage = 0;
+
+        for (int i = 0; i < queries.size(); i++) {
+            final Z3Query q = queries.get(i);
+            if (scheduler.prune(q)) {
+                continue;
+            }
+            final List<ReportEntry> answered = answer(mContext, mRules, mFuncs, normalizer, q, counter);
+            reportEntries.set(i, answered);
+
+            logAnswers(counter + 1, answered, normalizer);
+
+
+            boolean isSAT = isLeak(answered);
+            if (isSAT) {
+                scheduler.leak(q);
             }
-            /*
-			 * Apparently the Z3 wrapper is not handling the memory correctly,
-			 * need to GC manually. See:
-			 * http://stackoverflow.com/questions/24188626/performance-issues-
-			 * about-z3-for-java#comment37349014_24190067
-			 */
             if (counter % 50 == 0) {
-                System.gc();
+                LOGGER.info("Memory after " + counter + " queries: " + NativeMemory.describe());
             }
-            if ((counter + 1 >= currentPrint + (mQueries.size()/ 10)) && (mQueries.size() > 50)) {
+            if ((counter + 1 >= currentPrint + (queries.size()/ 10)) && (queries.size() > 50)) {
                 currentPrint = counter + 1;
                 percentage += 10;
                 LOGGER.info(percentage + "% of queries handled");
@@ -329,51 +844,163 @@ public class FSEngine extends Z3Clauses {
 
             counter++;
 
-            if (q.debugging && q.isReg) {
-                final MethodeInfo minfo = debug.get(q.getClassName(), q.getMethodName());
-                boolean res = isSAT;
-                switch (q.queryType) {
-                    case HIGH:
-                        minfo.regInfo[q.regNum].highPut(Integer.parseInt(q.getPc()), res);
-                        break;
-                    case LOCAL:
-                        minfo.regInfo[q.regNum].localPut(Integer.parseInt(q.getPc()), res);
-                        break;
-                    case GLOBAL:
-                        minfo.regInfo[q.regNum].globalPut(Integer.parseInt(q.getPc()), res);
-                        break;
-                    default:
-                        throw new RuntimeException(
-                                "In flow sensitive mode received a standard query: " + q.queryType.toString());
-                }
-            }
-            if (q.debugging && q.isLocalHeap) {
-                final MethodeInfo minfo = debug.get(q.getClassName(), q.getMethodName());
-                boolean res = isSAT;
-                // LHKey lhkey = new LHKey(q.instanceNum,q.field);
-                final LHInfo lhinf = minfo.getLHInfo(q.instanceNum, q.field);
-                final RegInfo regInf = lhinf.getRegInfo();
-                Integer k = Integer.parseInt(q.getPc());
-                switch (q.queryType) {
-                    case HIGH:
-                        regInf.highPut(k, res);
-                        break;
-                    case LOCAL:
-                        regInf.localPut(k, res);
-                        break;
-                    case GLOBAL:
-                        regInf.globalPut(k, res);
-                        break;
-                    default:
-                        throw new RuntimeException(
-                                "In flow sensitive mode received a standard query: " + q.queryType.toString());
+            if (q.debugging) {
+                recordDebugResult(debug, q, isSAT);
+            }
+        }
+    }
+
+    /*
+     * Each worker answers queries in its own Z3 context holding a copy of the rules and relations. Once a leak makes
+     * the answer of a running query unnecessary, the context of its worker is interrupted.
+     */
+    private void executeParallel(final List<Z3Query> queries, final List<List<ReportEntry>> reportEntries,
+                                 final QueryScheduler scheduler, final QueryNormalizer normalizer) {
+        final int workers = options.queryWorkers;
+        final AtomicInteger next = new AtomicInteger(0);
+        final AtomicInteger counter = new AtomicInteger(0);
+        final Context[] contexts = new Context[workers];
+        final Z3Query[] running = new Z3Query[workers];
+        LOGGER.info("Answering the queries with " + workers + " workers");
+
+        final ExecutorService queryExecutorService = Executors.newFixedThreadPool(workers);
+        final List<Future<?>> futures = new ArrayList<>();
+        for (int w = 0; w < workers; w++) {
+            final int worker = w;
+            futures.add(queryExecutorService.submit(new Runnable() {
+                @Override
+                public void run() {
+                    final Context ctx = new Context(new HashMap<String, String>());
+                    releaseFixedpointsEagerly(ctx);
+                    final List<BoolExpr> rules = new ArrayList<>();
+                    final List<FuncDecl> funcs = new ArrayList<>();
+                    synchronized (mContext) {
+                        for (BoolExpr rule : mRules) {
+                            rules.add((BoolExpr) rule.translate(ctx));
+                        }
+                        for (FuncDecl func : mFuncs) {
+                            funcs.add(translate(func, ctx));
+                        }
+                    }
+                    synchronized (running) {
+                        contexts[worker] = ctx;
+                    }
+                    int i;
+                    while ((i = next.getAndIncrement()) < queries.size()) {
+                        final Z3Query q = queries.get(i);
+                        if (scheduler.prune(q)) {
+                            continue;
+                        }
+                        synchronized (running) {
+                            running[worker] = q;
+                        }
+                        List<ReportEntry> answered = null;
+                        try {
+                            answered = answer(ctx, rules, funcs, normalizer, q, i);
+                        } catch (Z3Exception e) {
+                            if (!scheduler.isPruned(q)) throw e;
+                        } finally {
+                            synchronized (running) {
+                                running[worker] = null;
+                            }
+                        }
+                        if (answered == null || (!isLeak(answered) && scheduler.isPruned(q))) {
+                            continue; // interrupted
+                        }
+                        reportEntries.set(i, answered);
+                        final int answeredQueries = counter.incrementAndGet();
+                        logAnswers(answeredQueries, answered, normalizer);
+                        if (answeredQueries % 50 == 0) {
+                            LOGGER.info("Memory after " + answeredQueries + " queries: " + NativeMemory.describe());
+                        }
+                        if (isLeak(answered)) {
+                            scheduler.leak(q);
+                            synchronized (running) {
+                                for (int other = 0; other < workers; other++) {
+                                    if (running[other] != null && scheduler.isPruned(running[other])) {
+                                        contexts[other].interrupt();
+                                    }
+                                }
+                            }
+                        }
+                    }
+                    synchronized (running) {
+                        contexts[worker] = null;
+                    }
+                    ctx.dispose();
                 }
+            }));
+        }
+        queryExecutorService.shutdown();
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (InterruptedException | ExecutionException e) {
+                queryExecutorService.shutdownNow();
+                throw new RuntimeException("FSEngine Failed: query worker", e);
             }
         }
+    }
 
-        debug.printToLatex();
-        report.setTag(tag);
-        return report;
+    /*
+     * Relations have boolean range and bitvector, integer or boolean domains, they are declared again in ctx
+     */
+    static FuncDecl translate(FuncDecl func, Context ctx) {
+        Sort[] domain = func.getDomain();
+        Sort[] translated = new Sort[domain.length];
+        for (int i = 0; i < domain.length; i++) {
+            if (domain[i] instanceof BitVecSort) {
+                translated[i] = ctx.mkBitVecSort(((BitVecSort) domain[i]).getSize());
+            } else if (domain[i] instanceof IntSort) {
+                translated[i] = ctx.mkIntSort();
+            } else {
+                translated[i] = ctx.mkBoolSort();
+            }
+        }
+        return ctx.mkFuncDecl(func.getName().toString(), translated, ctx.mkBoolSort());
+    }
+
+    private void recordDebugResult(Debug debug, Z3Query q, boolean isSAT) {
+        if (q.isReg) {
+            final MethodeInfo minfo = debug.get(q.getClassName(), q.getMethodName());
+            boolean res = isSAT;
+            switch (q.queryType) {
+                case HIGH:
+                    minfo.regInfo[q.regNum].highPut(Integer.parseInt(q.getPc()), res);
+                    break;
+                case LOCAL:
+                    minfo.regInfo[q.regNum].localPut(Integer.parseInt(q.getPc()), res);
+                    break;
+                case GLOBAL:
+                    minfo.regInfo[q.regNum].globalPut(Integer.parseInt(q.getPc()), res);
+                    break;
+                default:
+                    throw new RuntimeException(
+                            "In flow sensitive mode received a standard query: " + q.queryType.toString());
+            }
+        }
+        if (q.isLocalHeap) {
+            final MethodeInfo minfo = debug.get(q.getClassName(), q.getMethodName());
+            boolean res = isSAT;
+            // LHKey lhkey = new LHKey(q.instanceNum,q.field);
+            final LHInfo lhinf = minfo.getLHInfo(q.instanceNum, q.field);
+            final RegInfo regInf = lhinf.getRegInfo();
+            Integer k = Integer.parseInt(q.getPc());
+            switch (q.queryType) {
+                case HIGH:
+                    regInf.highPut(k, res);
+                    break;
+                case LOCAL:
+                    regInf.localPut(k, res);
+                    break;
+                case GLOBAL:
+                    regInf.globalPut(k, res);
+                    break;
+                default:
+                    throw new RuntimeException(
+                            "In flow sensitive mode received a standard query: " + q.queryType.toString());
+            }
+        }
     }
 
 
@@ -412,15 +1039,16 @@ public class FSEngine extends Z3Clauses {
             BoolSort bool = mContext.mkBoolSort();
 
             String funcName = "R_" + c + '_' + m + '_' + Integer.toString(pc);
-            Sort[] domains = new Sort[4 * size + 5 * localHeapSize];
+            int lhSize = getLocalHeapSize(c, m);
+            Sort[] domains = new Sort[4 * size + 5 * lhSize];
             // argument + register + result register
             Arrays.fill(domains, 0, size, bv64);
             // high value and local object label and global object label
             Arrays.fill(domains, size, 4 * size, bool);
             // local heap entries
-            Arrays.fill(domains, 4 * size, 4 * size + localHeapSize, bv64);
+            Arrays.fill(domains, 4 * size, 4 * size + lhSize, bv64);
             // high value and local object label and global object label and abstract filter
-            Arrays.fill(domains, 4 * size + localHeapSize, 4 * size + 5 * localHeapSize, bool);
+            Arrays.fill(domains, 4 * size + lhSize, 4 * size + 5 * lhSize, bool);
             FuncDecl f = mContext.mkFuncDecl(funcName, domains, mContext.mkBoolSort());
             this.declareRel(f);
             return f;
@@ -436,10 +1064,11 @@ public class FSEngine extends Z3Clauses {
                                   final Map<Integer, BoolExpr> lHHigh, final Map<Integer, BoolExpr> lHLocal,
                                   final Map<Integer, BoolExpr> lHGlobal, final Map<Integer, BoolExpr> lHFilter,
                                   final int numArg,
-                                  final int numReg){
+                                  final int numReg,
+                                  final int[] entries){
         int size = numArg + numReg + 1;
         boolean noChanges = false;
-        if (rUp.isEmpty() && rUpHigh.isEmpty() && rUpLocal.isEmpty() &&
+        if (entries == null && rUp.isEmpty() && rUpHigh.isEmpty() && rUpLocal.isEmpty() &&
         rUpGlobal.isEmpty() && lHValues.isEmpty() &&
         lHHigh.isEmpty() && lHLocal.isEmpty() &&
         lHGlobal.isEmpty() && lHFilter.isEmpty()){
@@ -451,7 +1080,8 @@ public class FSEngine extends Z3Clauses {
             }
             noChanges = true;
         }
-        Expr[] e = new Expr[4 * size + 5 * this.localHeapSize];
+        int lhSize = entries == null ? this.localHeapSize : entries.length;
+        Expr[] e = new Expr[4 * size + 5 * lhSize];
         for (int i = 0, j = size, k = 2 * size, l = 3 * size; i < size; i++, j++, k++, l++) {
             e[i] = rUp.get(i);
             if (e[i] == null) {
@@ -471,28 +1101,29 @@ public class FSEngine extends Z3Clauses {
             }
         }
         ;
-        for (int loop = 0,  i = 4 * size, j = 4 * size + this.localHeapSize, k = 4 * size
-                + 2 * this.localHeapSize, l = 4 * size + 3 * this.localHeapSize, n = 4 * size
-                     + 4 * this.localHeapSize; loop < this.localHeapSize; loop++, i++, j++, k++, l++, n++) {
-            e[i] = lHValues.get(loop);
+        for (int loop = 0,  i = 4 * size, j = 4 * size + lhSize, k = 4 * size
+                + 2 * lhSize, l = 4 * size + 3 * lhSize, n = 4 * size
+                     + 4 * lhSize; loop < lhSize; loop++, i++, j++, k++, l++, n++) {
+            int entry = entries == null ? loop : entries[loop];
+            e[i] = lHValues.get(entry);
             if (e[i] == null) {
-                e[i] = var.getLHV(loop);
+                e[i] = var.getLHV(entry);
             }
-            e[j] = lHHigh.get(loop);
+            e[j] = lHHigh.get(entry);
             if (e[j] == null) {
-                e[j] = var.getLHH(loop);
+                e[j] = var.getLHH(entry);
             }
-            e[k] = lHLocal.get(loop);
+            e[k] = lHLocal.get(entry);
             if (e[k] == null) {
-                e[k] = var.getLHL(loop);
+                e[k] = var.getLHL(entry);
             }
-            e[l] = lHGlobal.get(loop);
+            e[l] = lHGlobal.get(entry);
             if (e[l] == null) {
-                e[l] = var.getLHG(loop);
+                e[l] = var.getLHG(entry);
             }
-            e[n] = lHFilter.get(loop);
+            e[n] = lHFilter.get(entry);
             if (e[n] == null) {
-                e[n] = var.getLHF(loop);
+                e[n] = var.getLHF(entry);
             }
         }
         if (noChanges){
@@ -561,7 +1192,7 @@ public class FSEngine extends Z3Clauses {
                     rUpGlobal, lHValues,
                     lHHigh, lHLocal,
                     lHGlobal, lHFilter, numArg,
-                    numReg);
+                    numReg, getLocalHeapEntries(c, m));
             ;
             BoolExpr rez = (BoolExpr) r.apply(e);
 
@@ -582,7 +1213,9 @@ public class FSEngine extends Z3Clauses {
             int rsize = numArg + numReg + 1; // include return register
             FuncDecl r = this.rPredDef(c, m, pc, rsize);
 
-            Expr[] e = new Expr[4 * rsize + 5 * this.localHeapSize];
+            int[] entries = getLocalHeapEntries(c, m);
+            int lhSize = entries == null ? this.localHeapSize : entries.length;
+            Expr[] e = new Expr[4 * rsize + 5 * lhSize];
             for (int i = 0, j = rsize, k = 2 * rsize, l = 3 * rsize; i < rsize; i++, j++, k++, l++) {
                 e[i] = rUp.get(i);
                 if (e[i] == null) {
@@ -602,24 +1235,25 @@ public class FSEngine extends Z3Clauses {
                 }
             }
             ;
-            for (int loop = 0, i = 4 * rsize, j = 4 * rsize + this.localHeapSize, k = 4 * rsize
-                    + 2 * this.localHeapSize, l = 4 * rsize + 3 * this.localHeapSize, n = 4 * rsize
-                         + 4 * this.localHeapSize; loop < this.localHeapSize; loop++, i++, j++, k++, l++, n++) {
-                e[i] = lHValues.get(loop);
+            for (int loop = 0, i = 4 * rsize, j = 4 * rsize + lhSize, k = 4 * rsize
+                    + 2 * lhSize, l = 4 * rsize + 3 * lhSize, n = 4 * rsize
+                         + 4 * lhSize; loop < lhSize; loop++, i++, j++, k++, l++, n++) {
+                int entry = entries == null ? loop : entries[loop];
+                e[i] = lHValues.get(entry);
                 if (e[i] == null) {
-                    e[i] = var.getLHV(loop);
+                    e[i] = var.getLHV(entry);
                 }
-                e[j] = lHHigh.get(loop);
+                e[j] = lHHigh.get(entry);
                 if (e[j] == null) {
-                    e[j] = var.getLHH(loop);
+                    e[j] = var.getLHH(entry);
                 }
-                e[k] = lHLocal.get(loop);
+                e[k] = lHLocal.get(entry);
                 if (e[k] == null) {
-                    e[k] = var.getLHL(loop);
+                    e[k] = var.getLHL(entry);
                 }
-                e[l] = lHGlobal.get(loop);
+                e[l] = lHGlobal.get(entry);
                 if (e[l] == null) {
-                    e[l] = var.getLHG(loop);
+                    e[l] = var.getLHG(entry);
                 }
                 e[n] = this.mkFalse();
 
@@ -639,12 +1273,13 @@ public class FSEngine extends Z3Clauses {
             BoolSort bool = mContext.mkBoolSort();
 
             String funcName = "RES_" + c + '_' + m;
-            Sort[] domains = new Sort[4 * size + 5 * localHeapSize];
+            int lhSize = getLocalHeapSize(c, m);
+            Sort[] domains = new Sort[4 * size + 5 * lhSize];
             Arrays.fill(domains, 0, size, bv64); // argument + register + result register
             Arrays.fill(domains, size, 4 * size, bool); // high value + local object label + global object label
-            Arrays.fill(domains, 4 * size, 4 * size + localHeapSize, bv64);
+            Arrays.fill(domains, 4 * size, 4 * size + lhSize, bv64);
             // local + heap + entries
-            Arrays.fill(domains, 4 * size + localHeapSize, 4 * size + 5 * localHeapSize, bool);
+            Arrays.fill(domains, 4 * size + lhSize, 4 * size + 5 * lhSize, bool);
             // high value and local object label and global object label and abstract filter
 
             FuncDecl f = mContext.mkFuncDecl(funcName, domains, bool);
@@ -666,7 +1301,9 @@ public class FSEngine extends Z3Clauses {
             int size = numArg + 1; // include return register
             FuncDecl res = this.resPredDef(c, m, size);
 
-            Expr[] e = new Expr[4 * size + 5 * this.localHeapSize];
+            int[] entries = getLocalHeapEntries(c, m);
+            int lhSize = entries == null ? this.localHeapSize : entries.length;
+            Expr[] e = new Expr[4 * size + 5 * lhSize];
             for (int i = 0, j = size, k = 2 * size, l = 3 * size; i < size; i++, j++, k++, l++) {
                 e[i] = rUp.get(i);
                 if (e[i] == null) {
@@ -687,28 +1324,29 @@ public class FSEngine extends Z3Clauses {
             }
             ;
 
-            for (int loop = 0, i = 4 * size, j = 4 * size + this.localHeapSize, k = 4 * size
-                    + 2 * this.localHeapSize, l = 4 * size + 3 * this.localHeapSize, n = 4 * size
-                         + 4 * this.localHeapSize; loop < this.localHeapSize; loop++, i++, j++, k++, l++, n++) {
-                e[i] = lHValues.get(loop);
+            for (int loop = 0, i = 4 * size, j = 4 * size + lhSize, k = 4 * size
+                    + 2 * lhSize, l = 4 * size + 3 * lhSize, n = 4 * size
+                         + 4 * lhSize; loop < lhSize; loop++, i++, j++, k++, l++, n++) {
+                int entry = entries == null ? loop : entries[loop];
+                e[i] = lHValues.get(entry);
                 if (e[i] == null) {
-                    e[i] = var.getLHV(loop);
+                    e[i] = var.getLHV(entry);
                 }
-                e[j] = lHHigh.get(loop);
+                e[j] = lHHigh.get(entry);
                 if (e[j] == null) {
-                    e[j] = var.getLHH(loop);
+                    e[j] = var.getLHH(entry);
                 }
-                e[k] = lHLocal.get(loop);
+                e[k] = lHLocal.get(entry);
                 if (e[k] == null) {
-                    e[k] = var.getLHL(loop);
+                    e[k] = var.getLHL(entry);
                 }
-                e[l] = lHGlobal.get(loop);
+                e[l] = lHGlobal.get(entry);
                 if (e[l] == null) {
-                    e[l] = var.getLHG(loop);
+                    e[l] = var.getLHG(entry);
                 }
-                e[n] = lHFilter.get(loop);
+                e[n] = lHFilter.get(entry);
                 if (e[n] == null) {
-                    e[n] = var.getLHF(loop);
+                    e[n] = var.getLHF(entry);
                 }
             }
             ;
@@ -0,0 +1,370 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 TU Wien
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.horndroid.z3;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.horndroid.model.ReportEntry;
+import com.horndroid.util.Fingerprint;
+import com.microsoft.z3.*;
+import com.microsoft.z3.enumerations.Z3_decl_kind;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.*;
+import java.util.*;
+
+/*
+ * Model of the previous version of an apk for the incremental analysis (-N): the clauses of each method, keyed by
+ * the fingerprint of what their generation depends on (analysis.MethodFingerprints), and the answers of the
+ * queries. It is kept in fragments.smt2, in the ClauseFile format with one section per method:
+ *
+ *   ; horndroid clauses, bitvector size 64
+ *   ; global <digest of the rules that belong to no method>
+ *   ; fragment <fingerprint> <class>-><method>
+ *   ; heads <relations in the heads of the rules of the method>
+ *   (declare-rel ...)
+ *   (rule ...)
+ *   ; query {...}
+ *   (query ...)
+ *
+ * and in answers.jsonl, one {"query": <digest of the query>, "entry": <report entry>} per line.
+ *
+ * A method whose fingerprint is in the previous model is spliced from it by the engine instead of being generated. A previous
+ * answer is reused when the query is the same and none of the relations it reads can be derived, directly or not,
+ * from the rules of a method that was added, removed or changed.
+ */
+final class IncrementalModel {
+    private static final Logger LOGGER = LogManager.getLogger(IncrementalModel.class);
+    private static final String FRAGMENTS = "fragments.smt2";
+    private static final String ANSWERS = "answers.jsonl";
+    private static final String GLOBAL = "; global ";
+    private static final String FRAGMENT = "; fragment ";
+    private static final String HEADS = "; heads ";
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private static final class Fragment {
+        final String key;
+        final String label;
+        final List<String> lines; // as read from the previous model, null if generated in this run
+        Set<String> heads;
+        int firstFunc, lastFunc, firstRule, lastRule, firstQuery, lastQuery; // in the lists of the engine
+
+        Fragment(final String key, final String label, final List<String> lines, final Set<String> heads) {
+            this.key = key;
+            this.label = label;
+            this.lines = lines;
+            this.heads = heads;
+        }
+    }
+
+    private final File directory;
+    private final int bvSize;
+    private final String answerOptions; // options that change the answers but not the clauses
+    private final Map<String, Fragment> previous = new HashMap<String, Fragment>();
+    private final Map<String, ReportEntry> previousAnswers = new HashMap<String, ReportEntry>();
+    private String previousGlobal;
+
+    private final List<Fragment> fragments = new ArrayList<Fragment>();
+    private String global;
+    private final Map<Z3Query, String> queryKeys = new IdentityHashMap<Z3Query, String>();
+    private final Map<Z3Query, ReportEntry> reused = new IdentityHashMap<Z3Query, ReportEntry>();
+    private final Map<String, ReportEntry> answers = new LinkedHashMap<String, ReportEntry>();
+
+    IncrementalModel(final File directory, final int bvSize, final String answerOptions) {
+        this.directory = directory;
+        this.bvSize = bvSize;
+        this.answerOptions = answerOptions;
+    }
+
+    /*
+     * Reads the model of the previous version, if any
+     */
+    void load() throws IOException {
+        final File fragmentsFile = new File(directory, FRAGMENTS);
+        if (!fragmentsFile.exists()) return;
+        try {
+            try (BufferedReader in = new BufferedReader(new FileReader(fragmentsFile))) {
+                ClauseFile.checkHeader(in.readLine(), bvSize, fragmentsFile);
+                Fragment fragment = null;
+                String line;
+                while ((line = in.readLine()) != null) {
+                    if (line.startsWith(GLOBAL)) {
+                        previousGlobal = line.substring(GLOBAL.length());
+                    } else if (line.startsWith(FRAGMENT)) {
+                        final String[] parts = line.substring(FRAGMENT.length()).split(" ", 2);
+                        fragment = new Fragment(parts[0], parts.length > 1 ? parts[1] : "", new ArrayList<String>(),
+                                new HashSet<String>());
+                        previous.put(fragment.key, fragment);
+                    } else if (fragment != null && line.startsWith(HEADS)) {
+                        for (final String head : line.substring(HEADS.length()).split(" ")) {
+                            if (!head.isEmpty()) fragment.heads.add(head);
+                        }
+                    } else if (fragment != null) {
+                        fragment.lines.add(line);
+                    }
+                }
+            }
+            final File answersFile = new File(directory, ANSWERS);
+            if (!answersFile.exists()) return;
+            try (BufferedReader in = new BufferedReader(new FileReader(answersFile))) {
+                String line;
+                while ((line = in.readLine()) != null) {
+                    final JsonNode answer = MAPPER.readTree(line);
+                    if (answer == null || !answer.has("query") || !answer.has("entry")) continue;
+                    previousAnswers.put(answer.get("query").asText(),
+                            MAPPER.treeToValue(answer.get("entry"), ReportEntry.class));
+                }
+            }
+        } catch (IOException e) {
+            previous.clear();
+            previousAnswers.clear();
+            previousGlobal = null;
+            throw e;
+        }
+    }
+
+    int getNumberOfPreviousMethods() {
+        return previous.size();
+    }
+
+    /*
+     * Clauses of the method with this fingerprint in the previous version, null if there are none
+     */
+    List<String> getLines(final String key) {
+        final Fragment fragment = previous.get(key);
+        return fragment == null ? null : fragment.lines;
+    }
+
+    /*
+     * The relations, rules and queries in the given ranges of the lists of the engine are the clauses of a method,
+     * lines are those they were parsed from or null if they were generated
+     */
+    void add(final String key, final String label, final List<String> lines, final int firstFunc,
+             final int lastFunc, final int firstRule, final int lastRule, final int firstQuery, final int lastQuery) {
+        final Fragment cached = previous.get(key);
+        final Fragment fragment = new Fragment(key, label, lines,
+                lines != null && cached != null ? cached.heads : null);
+        fragment.firstFunc = firstFunc;
+        fragment.lastFunc = lastFunc;
+        fragment.firstRule = firstRule;
+        fragment.lastRule = lastRule;
+        fragment.firstQuery = firstQuery;
+        fragment.lastQuery = lastQuery;
+        fragments.add(fragment);
+    }
+
+    /*
+     * Finds the queries whose previous answer still holds
+     */
+    void prepare(final List<BoolExpr> rules, final List<Z3Query> queries) {
+        // body relation -> relations in the heads of the rules it appears in
+        final Map<String, Set<String>> derives = new HashMap<String, Set<String>>();
+        final boolean[] inFragment = new boolean[rules.size()];
+        int reusedMethods = 0;
+        for (final Fragment fragment : fragments) {
+            final boolean knownHeads = fragment.heads != null;
+            if (knownHeads) {
+                reusedMethods++;
+            } else {
+                fragment.heads = new HashSet<String>();
+            }
+            for (int i = fragment.firstRule; i < fragment.lastRule; i++) {
+                inFragment[i] = true;
+                addRule(rules.get(i), derives, knownHeads ? null : fragment.heads);
+            }
+        }
+        final Fingerprint globalRules = new Fingerprint();
+        for (int i = 0; i < rules.size(); i++) {
+            if (inFragment[i]) continue;
+            globalRules.add(rules.get(i).toString());
+            addRule(rules.get(i), derives, null);
+        }
+        global = globalRules.toHex();
+
+        // relations whose derivations may differ from the previous version
+        final Set<String> changed = new HashSet<String>();
+        final Deque<String> queue = new ArrayDeque<String>();
+        final Set<String> current = new HashSet<String>();
+        for (final Fragment fragment : fragments) {
+            current.add(fragment.key);
+            if (fragment.lines == null || !previous.containsKey(fragment.key)) seed(fragment.heads, changed, queue);
+        }
+        for (final Fragment fragment : previous.values()) {
+            if (!current.contains(fragment.key)) seed(fragment.heads, changed, queue);
+        }
+        while (!queue.isEmpty()) {
+            final Set<String> heads = derives.get(queue.poll());
+            if (heads != null) seed(heads, changed, queue);
+        }
+
+        final boolean sameGlobal = global.equals(previousGlobal);
+        for (final Z3Query q : queries) {
+            if (q.debugging) continue;
+            final String key = queryKey(q);
+            queryKeys.put(q, key);
+            final ReportEntry answer = sameGlobal ? previousAnswers.get(key) : null;
+            if (answer == null || "UNKNOWN".equals(answer.getResult())) continue;
+            final Set<String> read = new HashSet<String>();
+            relations(q.getQuery(), read);
+            if (Collections.disjoint(read, changed)) {
+                reused.put(q, answer);
+                answers.put(key, answer);
+            }
+        }
+        LOGGER.info("Incremental analysis: " + reusedMethods + " of " + fragments.size()
+                + " methods reused, " + changed.size() + " relations changed, " + reused.size() + " of "
+                + queries.size() + " answers reused" + (sameGlobal ? "" : " (the global rules changed)"));
+    }
+
+    ReportEntry getAnswer(final Z3Query q) {
+        return reused.get(q);
+    }
+
+    synchronized void record(final Z3Query q, final ReportEntry reportEntry) {
+        final String key = queryKeys.get(q);
+        if (key != null) answers.put(key, reportEntry);
+    }
+
+    /*
+     * Replaces the previous model by the one of this version
+     */
+    synchronized void save(final Context ctx, final List<FuncDecl> funcs, final List<BoolExpr> rules,
+                           final List<Z3Query> queries) throws IOException {
+        if (global == null) throw new IOException("IncrementalModel: save before prepare");
+        directory.mkdirs();
+        final File fragmentsFile = new File(directory, FRAGMENTS + ".tmp");
+        try (BufferedWriter out = new BufferedWriter(new FileWriter(fragmentsFile))) {
+            ClauseFile.writeHeader(out, bvSize);
+            out.write(GLOBAL + global);
+            out.newLine();
+            for (final Fragment fragment : fragments) {
+                out.write(FRAGMENT + fragment.key + ' ' + fragment.label);
+                out.newLine();
+                final StringBuilder heads = new StringBuilder(HEADS);
+                for (final String head : new TreeSet<String>(fragment.heads)) {
+                    heads.append(head).append(' ');
+                }
+                out.write(heads.toString().trim());
+                out.newLine();
+                if (fragment.lines != null) {
+                    for (final String line : fragment.lines) {
+                        out.write(line);
+                        out.newLine();
+                    }
+                } else {
+                    ClauseFile.writeBody(ctx, out, funcs.subList(fragment.firstFunc, fragment.lastFunc),
+                            rules.subList(fragment.firstRule, fragment.lastRule),
+                            queries.subList(fragment.firstQuery, fragment.lastQuery));
+                }
+            }
+        }
+        final File answersFile = new File(directory, ANSWERS + ".tmp");
+        try (JsonGenerator generator = MAPPER.getFactory().createGenerator(new FileOutputStream(answersFile),
+                JsonEncoding.UTF8)) {
+            generator.setRootValueSeparator(null);
+            for (final Map.Entry<String, ReportEntry> answer : answers.entrySet()) {
+                generator.writeStartObject();
+                generator.writeStringField("query", answer.getKey());
+                generator.writeFieldName("entry");
+                MAPPER.writeValue(generator, answer.getValue());
+                generator.writeEndObject();
+                generator.writeRaw('\n');
+            }
+        }
+        replace(fragmentsFile, new File(directory, FRAGMENTS));
+        replace(answersFile, new File(directory, ANSWERS));
+    }
+
+    private static void replace(final File written, final File file) throws IOException {
+        if (!written.renameTo(file)) throw new IOException("IncrementalModel: can't replace " + file);
+    }
+
+    private String queryKey(final Z3Query q) {
+        return new Fingerprint().add(answerOptions).add(q.getQuery().toString()).add(q.getDescription())
+                .add(q.isVerbose()).add(q.getClassName()).add(q.getMethodName()).add(q.getPc()).add(q.getSinkName())
+                .toHex();
+    }
+
+    private static void seed(final Set<String> relations, final Set<String> changed, final Deque<String> queue) {
+        for (final String relation : relations) {
+            if (changed.add(relation)) queue.add(relation);
+        }
+    }
+
+    /*
+     * Adds the edges from the relations of the body of the rule to the relation of its head
+     */
+    private static void addRule(final BoolExpr rule, final Map<String, Set<String>> derives, final Set<String> heads) {
+        final Expr head;
+        final Expr body;
+        if (rule.isImplies()) {
+            final Expr[] args = rule.getArgs();
+            body = args[0];
+            head = args[1];
+        } else {
+            body = null;
+            head = rule;
+        }
+        final String name = relation(head);
+        if (name == null) return;
+        if (heads != null) heads.add(name);
+        if (body == null) return;
+        final Set<String> read = new HashSet<String>();
+        relations(body, read);
+        for (final String relation : read) {
+            Set<String> derived = derives.get(relation);
+            if (derived == null) {
+                derived = new HashSet<String>();
+                derives.put(relation, derived);
+            }
+            derived.add(name);
+        }
+    }
+
+    /*
+     * The relations in the boolean structure of e; they are never nested in the bitvector terms
+     */
+    private static void relations(final Expr e, final Set<String> names) {
+        if (e.isAnd() || e.isOr() || e.isNot() || e.isImplies()) {
+            for (final Expr arg : e.getArgs()) {
+                relations(arg, names);
+            }
+        } else if (e.isQuantifier()) {
+            relations(((Quantifier) e).getBody(), names);
+        } else {
+            final String name = relation(e);
+            if (name != null) names.add(name);
+        }
+    }
+
+    private static String relation(final Expr e) {
+        if (!e.isApp()) return null;
+        final FuncDecl decl = e.getFuncDecl();
+        return decl.getDeclKind() == Z3_decl_kind.Z3_OP_UNINTERPRETED ? decl.getName().toString() : null;
+    }
+}
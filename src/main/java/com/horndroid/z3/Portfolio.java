@@ -0,0 +1,251 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 TU Wien
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.horndroid.z3;
+
+import com.horndroid.model.ReportEntry;
+import com.microsoft.z3.BoolExpr;
+import com.microsoft.z3.Context;
+import com.microsoft.z3.Fixedpoint;
+import com.microsoft.z3.FuncDecl;
+import com.microsoft.z3.Params;
+import com.microsoft.z3.Sort;
+import com.microsoft.z3.Z3Exception;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Portfolio mode (-P): each query is raced by several fixedpoint engine configurations, each in its own Z3 context
+ * holding a copy of the rules and relations. The first definitive answer (sat or unsat) is kept, the contexts of the
+ * other configurations are interrupted until they give up, and the configuration that answered is counted.
+ * A configuration is engine[:parameter=value...] with fixedpoint parameters, e.g. pdr,datalog,pdr:use_farkas=false
+ */
+final class Portfolio implements Closeable {
+    private static final Logger LOGGER = LogManager.getLogger(Portfolio.class);
+    private static final long INTERRUPT_PERIOD = 100; // milliseconds between two interrupts of a losing configuration
+
+    /*
+     * Answers the query being raced with the rules, relations and parameters of one configuration, in its context
+     */
+    interface Attempt {
+        ReportEntry run(Context ctx, List<BoolExpr> rules, List<FuncDecl> funcs, Params params);
+    }
+
+    private static final class Member {
+        final String name;
+        final Context ctx;
+        final List<BoolExpr> rules = new ArrayList<>();
+        final List<FuncDecl> funcs = new ArrayList<>();
+        final Params params;
+
+        Member(String name, Context ctx, Params params) {
+            this.name = name;
+            this.ctx = ctx;
+            this.params = params;
+        }
+    }
+
+    private final List<Member> members = new ArrayList<>();
+    private final ExecutorService executor;
+    private final Map<String, Integer> wins = new LinkedHashMap<>();
+
+    /*
+     * One context per configuration, with the rules and relations of ctx translated into it. A configuration that this
+     * version of Z3 rejects is dropped with a warning, a configuration listed twice is an error
+     */
+    Portfolio(String configurations, Context ctx, List<BoolExpr> rules, List<FuncDecl> funcs) {
+        for (String configuration : configurations.split(",")) {
+            configuration = configuration.trim();
+            if (configuration.isEmpty()) continue;
+            if (wins.containsKey(configuration)) {
+                throw new RuntimeException("Portfolio: engine configuration listed twice: " + configuration);
+            }
+            final Context memberCtx = new Context(new HashMap<String, String>());
+            memberCtx.getFixedpointDRQ().setLimit(1);
+            final Params params;
+            try {
+                params = parameters(memberCtx, configuration);
+                probe(memberCtx, params);
+            } catch (RuntimeException e) {
+                // Z3Exception included
+                LOGGER.warn("Dropping the engine configuration " + configuration + ": " + e.getMessage());
+                memberCtx.dispose();
+                continue;
+            }
+            final Member member = new Member(configuration, memberCtx, params);
+            synchronized (ctx) {
+                for (BoolExpr rule : rules) {
+                    member.rules.add((BoolExpr) rule.translate(memberCtx));
+                }
+                for (FuncDecl func : funcs) {
+                    member.funcs.add(FSEngine.translate(func, memberCtx));
+                }
+            }
+            members.add(member);
+            wins.put(configuration, 0);
+        }
+        if (members.isEmpty()) {
+            LOGGER.warn("No usable engine configuration in " + configurations + ", answering with the default engine");
+        } else {
+            LOGGER.info("Racing each query on " + members.size() + " engine configurations: " + wins.keySet());
+        }
+        executor = Executors.newFixedThreadPool(Math.max(1, members.size()));
+    }
+
+    /*
+     * Answers a trivial query with params, so that an unknown engine or parameter is found before the analysis
+     */
+    private static void probe(Context ctx, Params params) {
+        final Fixedpoint fixedpoint = ctx.mkFixedpoint();
+        try {
+            fixedpoint.setParameters(params);
+            final FuncDecl probe = ctx.mkFuncDecl("portfolio_probe", new Sort[0], ctx.getBoolSort());
+            fixedpoint.registerRelation(probe);
+            fixedpoint.addRule((BoolExpr) ctx.mkApp(probe), null);
+            fixedpoint.query(new FuncDecl[]{probe});
+        } finally {
+            fixedpoint.dispose();
+        }
+    }
+
+    boolean isEmpty() {
+        return members.isEmpty();
+    }
+
+    private static Params parameters(Context ctx, String configuration) {
+        final String[] parts = configuration.split(":");
+        final Params params = ctx.mkParams();
+        params.add("engine", parts[0]);
+        for (int i = 1; i < parts.length; i++) {
+            final int eq = parts[i].indexOf('=');
+            if (eq <= 0) {
+                throw new RuntimeException("Portfolio: expected parameter=value in " + configuration);
+            }
+            final String name = parts[i].substring(0, eq);
+            final String value = parts[i].substring(eq + 1);
+            if (value.equals("true") || value.equals("false")) {
+                params.add(name, Boolean.parseBoolean(value));
+            } else if (value.matches("-?\\d+")) {
+                params.add(name, Integer.parseInt(value));
+            } else if (value.matches("-?\\d*\\.\\d+")) {
+                params.add(name, Double.parseDouble(value));
+            } else {
+                params.add(name, value);
+            }
+        }
+        return params;
+    }
+
+    private static boolean isDefinitive(ReportEntry reportEntry) {
+        return reportEntry != null && !reportEntry.getResult().equals("UNKNOWN");
+    }
+
+    /*
+     * The entry of the first configuration with a definitive answer, or else of the first configuration that answered,
+     * or null if none could answer. Returns once every configuration has stopped, so that the contexts are free for
+     * the next query
+     */
+    ReportEntry race(final Attempt attempt) {
+        final CompletionService<ReportEntry> completion = new ExecutorCompletionService<>(executor);
+        final Map<Future<ReportEntry>, Member> running = new HashMap<>();
+        for (final Member member : members) {
+            running.put(completion.submit(new Callable<ReportEntry>() {
+                @Override
+                public ReportEntry call() {
+                    try {
+                        return attempt.run(member.ctx, member.rules, member.funcs, member.params);
+                    } catch (Z3Exception e) {
+                        return null; // interrupted, or a configuration this version of Z3 rejects
+                    }
+                }
+            }), member);
+        }
+        final Map<Member, ReportEntry> answers = new HashMap<>();
+        Member winner = null;
+        try {
+            while (!running.isEmpty()) {
+                final Future<ReportEntry> done = winner == null ? completion.take()
+                        : completion.poll(INTERRUPT_PERIOD, TimeUnit.MILLISECONDS);
+                if (done != null) {
+                    final Member member = running.remove(done);
+                    final ReportEntry reportEntry = done.get();
+                    answers.put(member, reportEntry);
+                    if (winner == null && isDefinitive(reportEntry)) {
+                        winner = member;
+                    }
+                }
+                if (winner != null) {
+                    // a configuration interrupted before its query started would not see it, so repeat
+                    for (Member loser : running.values()) {
+                        loser.ctx.interrupt();
+                    }
+                }
+            }
+        } catch (InterruptedException | ExecutionException e) {
+            throw new RuntimeException("Portfolio: race failed", e);
+        }
+        if (winner == null) {
+            for (Member member : members) {
+                if (answers.get(member) != null) return answers.get(member);
+            }
+            return null;
+        }
+        wins.put(winner.name, wins.get(winner.name) + 1);
+        final ReportEntry reportEntry = answers.get(winner);
+        reportEntry.setEngine(winner.name);
+        return reportEntry;
+    }
+
+    /*
+     * Number of queries answered first by each configuration
+     */
+    Map<String, Integer> getWins() {
+        return Collections.unmodifiableMap(wins);
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+        for (Member member : members) {
+            member.ctx.dispose();
+        }
+        LOGGER.info("Queries answered first per engine configuration: " + wins);
+    }
+}
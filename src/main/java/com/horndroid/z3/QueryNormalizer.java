@@ -0,0 +1,163 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 TU Wien
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.horndroid.z3;
+
+import com.horndroid.Options;
+import com.horndroid.model.ReportEntry;
+import com.microsoft.z3.BoolExpr;
+import com.microsoft.z3.Context;
+import com.microsoft.z3.Expr;
+
+import java.util.*;
+
+/*
+ * Answers structurally equal queries once and, with -y, merges the queries of a sink call site into one disjunction.
+ * The answers are fanned back out to the descriptions of the generated queries; a merged query that is not
+ * unsatisfiable is answered again part by part.
+ */
+class QueryNormalizer {
+    private final Context context;
+    private final boolean mergeQueries;
+
+    // representative -> generated queries with the same simplified formula
+    private final Map<Z3Query, List<Z3Query>> duplicates = new IdentityHashMap<Z3Query, List<Z3Query>>();
+    // merged query -> representatives of its sink call site
+    private final Map<Z3Query, List<Z3Query>> parts = new IdentityHashMap<Z3Query, List<Z3Query>>();
+    // representatives whose formula simplifies to false
+    private final Set<Z3Query> unsatisfiable = Collections.newSetFromMap(new IdentityHashMap<Z3Query, Boolean>());
+    // entry -> generated query it answers
+    private final Map<ReportEntry, Z3Query> originals =
+            Collections.synchronizedMap(new IdentityHashMap<ReportEntry, Z3Query>());
+
+    QueryNormalizer(final Context context, final Options options) {
+        this.context = context;
+        this.mergeQueries = options.mergeQueries;
+    }
+
+    private static String sink(final Z3Query q) {
+        return q.getClassName() + ' ' + q.getMethodName() + ' ' + q.getPc() + ' ' + q.getSinkName();
+    }
+
+    /*
+     * Returns the queries to answer, in the order of their first generated query. Debug queries are kept as they are.
+     */
+    List<Z3Query> normalize(final List<Z3Query> queries) {
+        final List<Z3Query> representatives = new ArrayList<Z3Query>();
+        final Map<Expr, Z3Query> byFormula = new HashMap<Expr, Z3Query>();
+        for (final Z3Query q : queries) {
+            if (q.debugging) {
+                representatives.add(q);
+                continue;
+            }
+            final Expr formula = q.getQuery().simplify();
+            final Z3Query representative = byFormula.get(formula);
+            if (representative != null) {
+                duplicates.get(representative).add(q);
+                continue;
+            }
+            byFormula.put(formula, q);
+            duplicates.put(q, new ArrayList<Z3Query>(Collections.singletonList(q)));
+            if (formula.isFalse()) unsatisfiable.add(q);
+            representatives.add(q);
+        }
+        if (!mergeQueries) return representatives;
+
+        final Map<String, List<Z3Query>> bySink = new LinkedHashMap<String, List<Z3Query>>();
+        final List<Z3Query> result = new ArrayList<Z3Query>();
+        for (final Z3Query q : representatives) {
+            if (q.debugging || unsatisfiable.contains(q)) {
+                result.add(q);
+                continue;
+            }
+            List<Z3Query> sinkQueries = bySink.get(sink(q));
+            if (sinkQueries == null) {
+                sinkQueries = new ArrayList<Z3Query>();
+                bySink.put(sink(q), sinkQueries);
+                result.add(q); // placeholder, replaced by the merged query below
+            }
+            sinkQueries.add(q);
+        }
+        for (int i = 0; i < result.size(); i++) {
+            final Z3Query first = result.get(i);
+            final List<Z3Query> sinkQueries = first.debugging ? null : bySink.get(sink(first));
+            if (sinkQueries == null || sinkQueries.size() < 2 || sinkQueries.get(0) != first) continue;
+            final BoolExpr[] formulas = new BoolExpr[sinkQueries.size()];
+            for (int j = 0; j < formulas.length; j++) {
+                formulas[j] = sinkQueries.get(j).getQuery();
+            }
+            final Z3Query merged = new Z3Query(context.mkOr(formulas), first.getDescription(), first.isVerbose(),
+                    first.getClassName(), first.getMethodName(), first.getPc(), first.getSinkName());
+            parts.put(merged, sinkQueries);
+            result.set(i, merged);
+        }
+        return result;
+    }
+
+    boolean isUnsatisfiable(final Z3Query q) {
+        return unsatisfiable.contains(q);
+    }
+
+    boolean isMerged(final Z3Query q) {
+        return parts.containsKey(q);
+    }
+
+    List<Z3Query> getParts(final Z3Query q) {
+        return parts.get(q);
+    }
+
+    int getNumberOfMerged() {
+        return parts.size();
+    }
+
+    /*
+     * One entry per generated query answered by q
+     */
+    List<ReportEntry> fanOut(final Z3Query q, final ReportEntry reportEntry) {
+        final List<ReportEntry> reportEntries = new ArrayList<ReportEntry>();
+        if (isMerged(q)) {
+            for (final Z3Query part : parts.get(q)) {
+                reportEntries.addAll(fanOut(part, reportEntry));
+            }
+            return reportEntries;
+        }
+        final List<Z3Query> sameQueries = duplicates.get(q);
+        if (sameQueries == null) return Collections.singletonList(reportEntry);
+        for (final Z3Query original : sameQueries) {
+            final ReportEntry copy = new ReportEntry(reportEntry);
+            copy.setDescription(original.getDescription());
+            copy.setVerbose(original.isVerbose());
+            originals.put(copy, original);
+            reportEntries.add(copy);
+        }
+        return reportEntries;
+    }
+
+    /*
+     * The generated query answered by an entry of fanOut, null for debug queries
+     */
+    Z3Query getOriginal(final ReportEntry reportEntry) {
+        return originals.get(reportEntry);
+    }
+}
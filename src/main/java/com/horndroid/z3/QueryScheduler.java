@@ -0,0 +1,107 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 TU Wien
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.horndroid.z3;
+
+import com.horndroid.Options;
+import com.horndroid.analysis.QueryCost;
+
+import java.util.*;
+
+/*
+ * Orders the queries by estimated cost and decides when to stop: after the first N leaks (-l is the same as N = 1)
+ * and, per sink call site, after its first leak. Shared by the query workers.
+ */
+class QueryScheduler {
+    private final int maxLeaks;
+    private final boolean firstLeakPerSink;
+
+    private int leaks = 0;
+    private int pruned = 0;
+    private final Set<String> leakedSinks = new HashSet<String>();
+
+    QueryScheduler(final Options options) {
+        this.maxLeaks = options.tillFirstLeak ? 1 : options.maxLeaks;
+        this.firstLeakPerSink = options.firstLeakPerSink;
+    }
+
+    private static String sink(final Z3Query q) {
+        return q.getClassName() + ' ' + q.getMethodName() + ' ' + q.getPc() + ' ' + q.getSinkName();
+    }
+
+    /*
+     * Cheapest first: smallest slice, then smallest call depth, otherwise generation order
+     */
+    List<Z3Query> order(final List<Z3Query> queries, final QueryCost queryCost) {
+        final Map<Z3Query, long[]> costs = new IdentityHashMap<Z3Query, long[]>();
+        for (final Z3Query q : queries) {
+            costs.put(q, new long[]{queryCost.getSliceSize(q.getClassName(), q.getMethodName()),
+                    queryCost.getDepth(q.getClassName(), q.getMethodName())});
+        }
+        final List<Z3Query> ordered = new ArrayList<Z3Query>(queries);
+        Collections.sort(ordered, new Comparator<Z3Query>() {
+            @Override
+            public int compare(Z3Query q1, Z3Query q2) {
+                final long[] c1 = costs.get(q1);
+                final long[] c2 = costs.get(q2);
+                if (c1[0] != c2[0]) return c1[0] < c2[0] ? -1 : 1;
+                return Long.compare(c1[1], c2[1]);
+            }
+        });
+        return ordered;
+    }
+
+    synchronized boolean isStopped() {
+        return maxLeaks > 0 && leaks >= maxLeaks;
+    }
+
+    /*
+     * True if the answer of the query is no longer needed
+     */
+    synchronized boolean isPruned(final Z3Query q) {
+        if (q.debugging) return false;
+        return isStopped() || (firstLeakPerSink && leakedSinks.contains(sink(q)));
+    }
+
+    /*
+     * Like isPruned, counting the queries that are not run
+     */
+    synchronized boolean prune(final Z3Query q) {
+        if (isPruned(q)) {
+            pruned++;
+            return true;
+        }
+        return false;
+    }
+
+    synchronized void leak(final Z3Query q) {
+        if (q.debugging) return;
+        leaks++;
+        leakedSinks.add(sink(q));
+    }
+
+    synchronized int getPruned() {
+        return pruned;
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 TU Wien
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.horndroid.z3;
+
+import com.microsoft.z3.BoolExpr;
+import com.microsoft.z3.Context;
+import com.microsoft.z3.FuncDecl;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * Content-addressed store of the clauses of library methods, shared by the analyses of different apks (-S). The
+ * clauses of the method with fingerprint <key> (analysis.MethodFingerprints) are in <directory>/<key[0..2]>/<key>.smt2
+ * in the ClauseFile format. Entries are written to a temporary file and renamed, so that concurrent analyses can
+ * share the directory; two analyses writing the same key write the same clauses.
+ */
+final class SummaryCache {
+    private static final String FRAGMENT = "; fragment ";
+
+    private final File directory;
+    private final int bvSize;
+    private int hits = 0;
+    private int stored = 0;
+
+    SummaryCache(final File directory, final int bvSize) {
+        this.directory = directory;
+        this.bvSize = bvSize;
+    }
+
+    private File file(final String key) {
+        return new File(new File(directory, key.substring(0, 2)), key + ".smt2");
+    }
+
+    /*
+     * Declaration, rule and query lines of the method with this fingerprint, null if it is not in the cache
+     */
+    List<String> get(final String key) throws IOException {
+        final File file = file(key);
+        if (!file.exists()) return null;
+        final List<String> lines = new ArrayList<String>();
+        try (BufferedReader in = new BufferedReader(new FileReader(file))) {
+            ClauseFile.checkHeader(in.readLine(), bvSize, file);
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (!line.startsWith(FRAGMENT)) lines.add(line);
+            }
+        }
+        hits++;
+        return lines;
+    }
+
+    void put(final Context ctx, final String key, final String label, final List<FuncDecl> funcs,
+             final List<BoolExpr> rules, final List<Z3Query> queries) throws IOException {
+        final File file = file(key);
+        if (file.exists()) return;
+        file.getParentFile().mkdirs();
+        final File written = File.createTempFile(key, ".tmp", file.getParentFile());
+        try {
+            try (BufferedWriter out = new BufferedWriter(new FileWriter(written))) {
+                ClauseFile.writeHeader(out, bvSize);
+                out.write(FRAGMENT + key + ' ' + label);
+                out.newLine();
+                ClauseFile.writeBody(ctx, out, funcs, rules, queries);
+            }
+            if (!written.renameTo(file) && !file.exists()) {
+                throw new IOException("SummaryCache: can't write " + file);
+            }
+            stored++;
+        } finally {
+            written.delete();
+        }
+    }
+
+    int getHits() {
+        return hits;
+    }
+
+    int getStored() {
+        return stored;
+    }
+}
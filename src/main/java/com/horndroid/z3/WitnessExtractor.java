@@ -0,0 +1,89 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 TU Wien
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.horndroid.z3;
+
+import com.microsoft.z3.Expr;
+import com.microsoft.z3.Quantifier;
+
+import java.util.*;
+
+/*
+ * Turns the answer of a satisfiable query, the derivation found by PDR, into the trace of the program points it
+ * goes through: the R_c_m_pc relations from the source to the sink, with c and m resolved to class and method names.
+ * Consecutive program points of the same method are folded into one step.
+ */
+class WitnessExtractor {
+    private static final String R_PREFIX = "R_";
+
+    // "<class hash>_<method hash>" -> "<class>-><method>"
+    private final Map<String, String> methodNames;
+
+    WitnessExtractor(final Map<String, String> methodNames) {
+        this.methodNames = methodNames;
+    }
+
+    List<String> extract(final Expr answer) {
+        final List<String> points = new ArrayList<String>();
+        collect(answer, new HashSet<Integer>(), points);
+
+        final List<String> trace = new ArrayList<String>();
+        String method = null;
+        StringBuilder step = null;
+        for (final String point : points) {
+            final int pcSeparator = point.lastIndexOf('_');
+            final String m = point.substring(0, pcSeparator);
+            final String pc = point.substring(pcSeparator + 1);
+            if (m.equals(method)) {
+                step.append(", ").append(pc);
+                continue;
+            }
+            if (step != null) trace.add(step.append(']').toString());
+            method = m;
+            final String name = methodNames.get(m);
+            step = new StringBuilder(name != null ? name : R_PREFIX + m).append(" pc [").append(pc);
+        }
+        if (step != null) trace.add(step.append(']').toString());
+        return trace;
+    }
+
+    /*
+     * Premises before conclusions, so the trace starts at the source. The answer is a DAG, each term is visited once.
+     */
+    private static void collect(final Expr e, final Set<Integer> visited, final List<String> points) {
+        if (!visited.add(e.getId())) return;
+        if (e.isQuantifier()) {
+            collect(((Quantifier) e).getBody(), visited, points);
+            return;
+        }
+        if (!e.isApp()) return;
+        for (final Expr arg : e.getArgs()) {
+            collect(arg, visited, points);
+        }
+        final String name = e.getFuncDecl().getName().toString();
+        if (name.startsWith(R_PREFIX) && (points.isEmpty() || !points.get(points.size() - 1).equals(name))) {
+            points.add(name.substring(R_PREFIX.length()));
+        }
+    }
+}
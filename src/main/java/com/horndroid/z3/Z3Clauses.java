@@ -31,14 +31,11 @@ import com.microsoft.z3.*;
 import java.util.ArrayList;
 
 public abstract class Z3Clauses {
-    final protected boolean QUERY_IS_COMPACT = false;
-
     protected Context mContext;
     protected ArrayList<BoolExpr> mRules;
     protected ArrayList<FuncDecl> mFuncs;
 
     protected ArrayList<Z3Query> mQueries;
-    protected Z3Query mCurrentQuery;
 
     protected int bvSize;
    
@@ -75,6 +72,12 @@ public abstract class Z3Clauses {
     }
     
     public Context getContext(){ return mContext; }
+
+    public int getNumberOfRules(){ return mRules.size(); }
+
+    public int getNumberOfRelations(){ return mFuncs.size(); }
+
+    public int getNumberOfQueries(){ return mQueries.size(); }
     
     public void addRule(BoolExpr rule, String symbol){
         try {